@@ -7,6 +7,7 @@ package com.linkedin.flashback;
 
 import com.google.common.collect.Iterables;
 import com.linkedin.flashback.matchrules.DummyMatchRule;
+import com.linkedin.flashback.matchrules.IndexableMatchRule;
 import com.linkedin.flashback.matchrules.MatchRule;
 import com.linkedin.flashback.scene.DummyScene;
 import com.linkedin.flashback.scene.Scene;
@@ -16,14 +17,29 @@ import com.linkedin.flashback.serializable.RecordedHttpResponse;
 import com.linkedin.flashback.serialization.SceneWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * Provide functionality to read, write and lookup RecordedHttpExchange to scene.
  * Also, it allows client to change scene at running time.
  *
+ * It is shared by all proxy worker threads. Lookup and playback are lock-free: they work on the scene's
+ * copy-on-write exchange list, claim sequential positions with an atomic cursor and use an immutable match index.
+ * Recording threads are serialized among themselves, because finding and replacing a matching exchange has to be
+ * atomic and journal entries have to be written in order.
+ *
  * @author shfeng
  * @author dvinegra
  */
@@ -35,13 +51,30 @@ public class SceneAccessLayer {
   static final String NO_MATCHING_RECORDING_FOUND = "no matching recording found";
   static final String FAILED_TO_WRITE_SCENE_TO_THE_FILE = "Failed to write scene to the file";
 
-  private SceneWriter _sceneWriter;
-  private Scene _scene;
-  private MatchRule _matchRule;
-  private int _sequencePosition = 0;
-  private boolean _dirty = false;
+  private final SceneWriter _sceneWriter;
+  // Current scene and its playback cursor, replaced as a whole when scene changes
+  private volatile SceneState _sceneState;
+  private volatile MatchRule _matchRule;
+  private final AtomicBoolean _dirty = new AtomicBoolean(false);
+  // In journaled mode, every recorded exchange is appended to the scene journal instead of rewriting the scene
+  private final boolean _journaled;
+  // Lazily built when match rule is indexable and scene is not sequential
+  private volatile MatchIndex _matchIndex;
+  // Guards recording and scene changes, never taken by lookup or playback
+  private final Object _recordLock = new Object();
+  // Pool and minimum scene size for scanning scenes in parallel, replaced as a whole. Null to always scan in turn.
+  private volatile ParallelScan _parallelScan;
 
   public SceneAccessLayer(Scene scene, SceneWriter sceneWriter, MatchRule matchRule) {
+    this(scene, sceneWriter, matchRule, false);
+  }
+
+  /**
+   * @param journaled if true, recorded exchanges are appended to the scene journal as soon as they are
+   *                  recorded, and {@link com.linkedin.flashback.serialization.SceneReader} compacts the journal
+   *                  into the scene when it is loaded next time.
+   * */
+  public SceneAccessLayer(Scene scene, SceneWriter sceneWriter, MatchRule matchRule, boolean journaled) {
     if (scene == null) {
       throw new IllegalArgumentException(SCENE_IS_NOT_ALLOWED_BE_NULL);
     }
@@ -56,7 +89,8 @@ public class SceneAccessLayer {
 
     _sceneWriter = sceneWriter;
     _matchRule = matchRule;
-    _scene = scene;
+    _journaled = journaled;
+    _sceneState = new SceneState(scene, journaled);
   }
 
   public SceneAccessLayer(Scene scene, MatchRule matchRule) {
@@ -68,7 +102,7 @@ public class SceneAccessLayer {
   }
 
   public String getSceneName() {
-    return _scene.getName();
+    return _sceneState._scene.getName();
   }
 
   /**
@@ -79,6 +113,24 @@ public class SceneAccessLayer {
       throw new IllegalArgumentException(MATCHRULE_IS_NOT_ALLOWED_BE_NULL);
     }
     _matchRule = matchRule;
+    _matchIndex = null;
+  }
+
+  /**
+   * Scan large scenes in parallel when match rule can't narrow down candidates by match key, i.e. custom or
+   * body only match rules. Scene is split into ranges tested on pool's threads, so the result is the same as
+   * scanning in turn. The calling thread tests the first range itself and then waits for the pool. In the proxy
+   * that is an I/O thread, so connections it serves wait as well: this shortens each lookup in a large scene
+   * but doesn't raise throughput, which is bound by the pool. Use it where latency of a single lookup matters,
+   * with a pool of its own, and keep the threshold high enough that smaller scenes are scanned in turn.
+   * @param forkJoinPool pool to test recorded requests on, null to always scan in turn
+   * @param threshold scenes with at least this many exchanges are scanned in parallel
+   * */
+  public void setParallelScan(ForkJoinPool forkJoinPool, int threshold) {
+    if (threshold <= 0) {
+      throw new IllegalArgumentException("parallel scan threshold must be positive");
+    }
+    _parallelScan = forkJoinPool != null ? new ParallelScan(forkJoinPool, threshold) : null;
   }
 
   /**
@@ -89,13 +141,15 @@ public class SceneAccessLayer {
     if (scene == null) {
       throw new IllegalArgumentException(SCENE_IS_NOT_ALLOWED_BE_NULL);
     }
-    flush();
-    _scene = scene;
-    _sequencePosition = 0;
+    synchronized (_recordLock) {
+      flush();
+      _sceneState = new SceneState(scene, _journaled);
+      _matchIndex = null;
+    }
   }
 
   public boolean canPlayback() {
-    return _scene.isReadable();
+    return _sceneState._scene.isReadable();
   }
 
   /**
@@ -105,63 +159,94 @@ public class SceneAccessLayer {
    *
    * */
   public boolean hasMatchRequest(RecordedHttpRequest request) {
-    return findMatchRequest(request) >= 0;
+    return findMatchRequest(_sceneState, request, false) >= 0;
   }
 
   /**
-   * Given incoming http request, find matched response from the scene and return response from the scene
+   * Given incoming http request, find matched response from the scene and return response from the scene.
+   * In sequential scene, each recorded response is played back only once, even under concurrent requests.
    * @param request http request from client
    * @return matched http response from the scene
    *
    * */
   public RecordedHttpResponse playback(RecordedHttpRequest request) {
-    if (!_scene.isReadable()) {
+    RecordedHttpResponse recordedHttpResponse = tryPlayback(request);
+    if (recordedHttpResponse == null) {
+      throw new IllegalStateException(NO_MATCHING_RECORDING_FOUND);
+    }
+    return recordedHttpResponse;
+  }
+
+  /**
+   * Find and claim matched response in one step. Unlike hasMatchRequest() followed by playback(), it can't
+   * fail when another thread claims the same recorded response of a sequential scene in between.
+   * @param request http request from client
+   * @return matched http response from the scene, or null if no match found
+   *
+   * */
+  public RecordedHttpResponse tryPlayback(RecordedHttpRequest request) {
+    SceneState sceneState = _sceneState;
+    if (!sceneState._scene.isReadable()) {
       throw new IllegalStateException(THE_SCENE_IS_NOT_READABLE);
     }
-    int position = findMatchRequest(request);
+    int position = findMatchRequest(sceneState, request, true);
     if (position < 0) {
-      throw new IllegalStateException(NO_MATCHING_RECORDING_FOUND);
-    }
-    if (_scene.isSequential()) {
-      _sequencePosition++;
+      return null;
     }
-    List<RecordedHttpExchange> recordedHttpExchangeList = _scene.getRecordedHttpExchangeList();
+    List<RecordedHttpExchange> recordedHttpExchangeList = sceneState._scene.getRecordedHttpExchangeList();
     return recordedHttpExchangeList.get(position).getRecordedHttpResponse();
   }
 
   /**
    * Record request and response to the scene. Updates will be performed in-memory and will be written to disk
-   * when flush() is called, or when the Scene is changed.
+   * when flush() is called, or when the Scene is changed. In journaled mode, updates are appended to the
+   * scene journal right away.
    * @param recordedHttpRequest http request from client
    * @param recordedHttpResponse http response from upstream service
    *
    * */
   public void record(RecordedHttpRequest recordedHttpRequest, RecordedHttpResponse recordedHttpResponse) {
-    List<RecordedHttpExchange> recordedHttpExchangeList = _scene.getRecordedHttpExchangeList();
     RecordedHttpExchange recordedHttpExchange =
         new RecordedHttpExchange(recordedHttpRequest, recordedHttpResponse, new Date());
-    if (!_scene.isSequential()) {
-      int position = findMatchRequest(recordedHttpRequest);
+    synchronized (_recordLock) {
+      SceneState sceneState = _sceneState;
+      List<RecordedHttpExchange> recordedHttpExchangeList = sceneState._scene.getRecordedHttpExchangeList();
+      int position = -1;
+      if (!sceneState._scene.isSequential()) {
+        position = findMatchRequest(sceneState, recordedHttpRequest, false);
+      }
       if (position >= 0) {
         recordedHttpExchangeList.set(position, recordedHttpExchange);
       } else {
+        position = recordedHttpExchangeList.size();
         recordedHttpExchangeList.add(recordedHttpExchange);
       }
-    } else {
-      recordedHttpExchangeList.add(recordedHttpExchange);
+      if (_journaled) {
+        appendToJournal(sceneState, position, recordedHttpExchange);
+      } else {
+        _dirty.set(true);
+      }
+    }
+  }
+
+  private void appendToJournal(SceneState sceneState, int position, RecordedHttpExchange recordedHttpExchange) {
+    try {
+      _sceneWriter.writeJournalEntry(sceneState._scene, sceneState._journalBaseSize, position, recordedHttpExchange);
+      sceneState._journalBaseSize = null;
+    } catch (IOException e) {
+      throw new RuntimeException(FAILED_TO_WRITE_SCENE_TO_THE_FILE, e);
     }
-    _dirty = true;
   }
 
   /**
    * Serialize the scene to disk, if it has been updated
    */
   public void flush() {
-    if (_dirty) {
+    if (_dirty.getAndSet(false)) {
       try {
-        _sceneWriter.writeScene(_scene);
-        _dirty = false;
+        _sceneWriter.writeScene(_sceneState._scene);
       } catch (IOException e) {
+        _dirty.set(true);
         throw new RuntimeException(FAILED_TO_WRITE_SCENE_TO_THE_FILE, e);
       }
     }
@@ -173,11 +258,14 @@ public class SceneAccessLayer {
    * @return a String describing the match failure reasons for the request
    */
   public String getMatchFailureDescription(RecordedHttpRequest request) {
+    SceneState sceneState = _sceneState;
+    MatchRule matchRule = _matchRule;
     List<String> failureDescriptionList = new ArrayList<>();
-    List<RecordedHttpExchange> exchangeList = _scene.getRecordedHttpExchangeList();
-    if (_scene.isSequential()) {
-      if (_sequencePosition < exchangeList.size()) {
-        failureDescriptionList.add(_matchRule.getMatchFailureDescriptionForRequests(request, exchangeList.get(_sequencePosition).getRecordedHttpRequest()));
+    List<RecordedHttpExchange> exchangeList = sceneState._scene.getRecordedHttpExchangeList();
+    if (sceneState._scene.isSequential()) {
+      int sequencePosition = sceneState._sequencePosition.get();
+      if (sequencePosition < exchangeList.size()) {
+        failureDescriptionList.add(matchRule.getMatchFailureDescriptionForRequests(request, exchangeList.get(sequencePosition).getRecordedHttpRequest()));
       } else {
         failureDescriptionList.add("No more recorded requests in sequential scene");
       }
@@ -185,10 +273,11 @@ public class SceneAccessLayer {
       for (int i = 0; i < exchangeList.size(); i++) {
         RecordedHttpExchange exchange = exchangeList.get(i);
         failureDescriptionList.add(String.format("Recorded Request %d:%n%s", i + 1,
-            _matchRule.getMatchFailureDescriptionForRequests(request, exchange.getRecordedHttpRequest())));
+            matchRule.getMatchFailureDescriptionForRequests(request, exchange.getRecordedHttpRequest())));
       }
     }
-    return new StringBuilder().append("Could not find matching request in scene " + _scene.getName() + "%n")
+    return new StringBuilder()
+        .append("Could not find matching request in scene " + sceneState._scene.getName() + "%n")
         .append(String.join("%n", failureDescriptionList))
         .toString();
   }
@@ -196,21 +285,244 @@ public class SceneAccessLayer {
   /**
    * find matched request from scene
    * @param request incoming request that we'd like match in existing scene
+   * @param claim in sequential scene, whether to move the cursor past the matched request
    * @return position of list of HttpExchanges from the scene. return -1 if no match found
    *
    * */
-  private int findMatchRequest(final RecordedHttpRequest request) {
-    if (_scene.isSequential()) {
-      List<RecordedHttpExchange> exchangeList = _scene.getRecordedHttpExchangeList();
-      // In sequential playback mode, only test the request at the current sequence index
-      if (_sequencePosition < exchangeList.size() && _matchRule
-          .test(request, exchangeList.get(_sequencePosition).getRecordedHttpRequest())) {
-        return _sequencePosition;
+  private int findMatchRequest(final SceneState sceneState, final RecordedHttpRequest request, boolean claim) {
+    final MatchRule matchRule = _matchRule;
+    Scene scene = sceneState._scene;
+    if (scene.isSequential()) {
+      List<RecordedHttpExchange> exchangeList = scene.getRecordedHttpExchangeList();
+      // In sequential playback mode, only test the request at the current sequence index.
+      // Retry if another thread claimed that position in the meantime.
+      while (true) {
+        int sequencePosition = sceneState._sequencePosition.get();
+        if (sequencePosition >= exchangeList.size()
+            || !matchRule.test(request, exchangeList.get(sequencePosition).getRecordedHttpRequest())) {
+          return -1;
+        }
+        if (!claim || sceneState._sequencePosition.compareAndSet(sequencePosition, sequencePosition + 1)) {
+          return sequencePosition;
+        }
       }
-      return -1;
+    } else if (matchRule instanceof IndexableMatchRule) {
+      return findIndexedMatchRequest(scene, (IndexableMatchRule) matchRule, request);
     } else {
-      return Iterables.indexOf(_scene.getRecordedHttpExchangeList(),
-          input -> _matchRule.test(request, input.getRecordedHttpRequest()));
+      return scanMatchRequest(scene.getRecordedHttpExchangeList(), matchRule, request);
+    }
+  }
+
+  /**
+   * find matched request by testing every recorded request, in parallel if scene is large enough
+   * @return lowest matching position, or -1 if no match found
+   * */
+  private int scanMatchRequest(List<RecordedHttpExchange> exchangeList, final MatchRule matchRule,
+      final RecordedHttpRequest request) {
+    ParallelScan parallelScan = _parallelScan;
+    if (parallelScan == null || exchangeList.size() < parallelScan._threshold) {
+      return Iterables.indexOf(exchangeList, input -> matchRule.test(request, input.getRecordedHttpRequest()));
+    }
+    return parallelScan.find(exchangeList, matchRule, request);
+  }
+
+  /**
+   * find matched request from scene, only testing recorded requests that have the same match key
+   * as incoming request. Fall back to scan whole scene if incoming request has no key.
+   *
+   * */
+  private int findIndexedMatchRequest(Scene scene, final IndexableMatchRule matchRule,
+      final RecordedHttpRequest request) {
+    List<RecordedHttpExchange> exchangeList = scene.getRecordedHttpExchangeList();
+    Object key = matchRule.getMatchKey(request);
+    if (key == null) {
+      return scanMatchRequest(exchangeList, matchRule, request);
+    }
+    MatchIndex matchIndex = _matchIndex;
+    MatchIndex updatedMatchIndex = MatchIndex.update(matchIndex, matchRule, exchangeList);
+    if (updatedMatchIndex != matchIndex) {
+      // Racing threads build equivalent indexes, whichever is published last is fine
+      _matchIndex = updatedMatchIndex;
+    }
+    return updatedMatchIndex.find(request, key, exchangeList);
+  }
+
+  /**
+   * Scene together with state that belongs to it
+   */
+  private static class SceneState {
+    private final Scene _scene;
+    private final AtomicInteger _sequencePosition = new AtomicInteger(0);
+    // Number of exchanges the scene had when journaling started, null once the journal header is written.
+    // Guarded by _recordLock.
+    private Integer _journalBaseSize;
+
+    SceneState(Scene scene, boolean journaled) {
+      _scene = scene;
+      _journalBaseSize = journaled ? scene.getRecordedHttpExchangeList().size() : null;
+    }
+  }
+
+  /**
+   * Pool and threshold of parallel scan
+   */
+  private static class ParallelScan {
+    // Ranges this small are tested in turn rather than split further
+    private static final int MIN_RANGE_SIZE = 256;
+
+    private final ForkJoinPool _forkJoinPool;
+    private final int _threshold;
+
+    ParallelScan(ForkJoinPool forkJoinPool, int threshold) {
+      _forkJoinPool = forkJoinPool;
+      _threshold = threshold;
+    }
+
+    /**
+     * @return lowest position whose recorded request matches, or -1 if none
+     */
+    int find(List<RecordedHttpExchange> exchangeList, MatchRule matchRule, RecordedHttpRequest request) {
+      // Exchanges recorded meanwhile are left out, same as iterating a copy-on-write list
+      int size = exchangeList.size();
+      int rangeSize = Math.max(MIN_RANGE_SIZE, size / (_forkJoinPool.getParallelism() * 4) + 1);
+      AtomicInteger lowestMatch = new AtomicInteger(Integer.MAX_VALUE);
+      // Calling thread would only wait otherwise, so it takes the first range, which lets pool skip the rest
+      // as soon as it matches there
+      ForkJoinTask<Void> rest = size > rangeSize ? _forkJoinPool
+          .submit(new ScanRange(exchangeList, matchRule, request, rangeSize, size, rangeSize, lowestMatch)) : null;
+      ScanRange.scan(exchangeList, matchRule, request, 0, Math.min(size, rangeSize), lowestMatch);
+      if (rest != null) {
+        rest.join();
+      }
+      return lowestMatch.get() == Integer.MAX_VALUE ? -1 : lowestMatch.get();
+    }
+  }
+
+  /**
+   * Tests recorded requests of a range of positions, splitting it up while it's larger than range size.
+   * Positions beyond the lowest match found so far are skipped, since they can't be the result.
+   */
+  private static class ScanRange extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<RecordedHttpExchange> _exchangeList;
+    private final MatchRule _matchRule;
+    private final RecordedHttpRequest _request;
+    private final int _from;
+    private final int _to;
+    private final int _rangeSize;
+    private final AtomicInteger _lowestMatch;
+
+    ScanRange(List<RecordedHttpExchange> exchangeList, MatchRule matchRule, RecordedHttpRequest request, int from,
+        int to, int rangeSize, AtomicInteger lowestMatch) {
+      _exchangeList = exchangeList;
+      _matchRule = matchRule;
+      _request = request;
+      _from = from;
+      _to = to;
+      _rangeSize = rangeSize;
+      _lowestMatch = lowestMatch;
+    }
+
+    @Override
+    protected void compute() {
+      if (_to - _from > _rangeSize) {
+        int middle = (_from + _to) >>> 1;
+        invokeAll(new ScanRange(_exchangeList, _matchRule, _request, _from, middle, _rangeSize, _lowestMatch),
+            new ScanRange(_exchangeList, _matchRule, _request, middle, _to, _rangeSize, _lowestMatch));
+        return;
+      }
+      scan(_exchangeList, _matchRule, _request, _from, _to, _lowestMatch);
+    }
+
+    static void scan(List<RecordedHttpExchange> exchangeList, MatchRule matchRule, RecordedHttpRequest request,
+        int from, int to, AtomicInteger lowestMatch) {
+      for (int position = from; position < to && position < lowestMatch.get(); position++) {
+        if (matchRule.test(request, exchangeList.get(position).getRecordedHttpRequest())) {
+          lowestMatch.accumulateAndGet(position, Math::min);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Positions of recorded http exchanges bucketed by match key. Recorded requests without
+   * a key are kept aside and tested against every incoming request.
+   * Positions are only ever appended, so buckets are always sorted.
+   * An index is never modified once built, so it can be shared between threads without locking.
+   */
+  private static class MatchIndex {
+    private final IndexableMatchRule _matchRule;
+    private final List<RecordedHttpExchange> _exchangeList;
+    private final Map<Object, List<Integer>> _buckets;
+    private final List<Integer> _unkeyedPositions;
+    private final int _indexedSize;
+
+    private MatchIndex(IndexableMatchRule matchRule, List<RecordedHttpExchange> exchangeList,
+        Map<Object, List<Integer>> buckets, List<Integer> unkeyedPositions, int indexedSize) {
+      _matchRule = matchRule;
+      _exchangeList = exchangeList;
+      _buckets = buckets;
+      _unkeyedPositions = unkeyedPositions;
+      _indexedSize = indexedSize;
+    }
+
+    /**
+     * Index exchanges appended since given index was built. Exchanges replaced in place keep their key,
+     * because a recorded request only gets replaced by a request that matches it.
+     * @param matchIndex previous index, could be null
+     * @return given index if it is up to date, otherwise a new index that shares unchanged buckets with it
+     */
+    static MatchIndex update(MatchIndex matchIndex, IndexableMatchRule matchRule,
+        List<RecordedHttpExchange> exchangeList) {
+      int size = exchangeList.size();
+      boolean extend = matchIndex != null && matchIndex._matchRule == matchRule
+          && matchIndex._exchangeList == exchangeList && matchIndex._indexedSize <= size;
+      if (extend && matchIndex._indexedSize == size) {
+        return matchIndex;
+      }
+      Map<Object, List<Integer>> buckets = extend ? new HashMap<>(matchIndex._buckets) : new HashMap<>();
+      List<Integer> unkeyedPositions =
+          extend ? new ArrayList<>(matchIndex._unkeyedPositions) : new ArrayList<>();
+      // Buckets inherited from previous index must be copied before appending to them
+      Set<Object> ownBucketKeys = new HashSet<>();
+      for (int position = extend ? matchIndex._indexedSize : 0; position < size; position++) {
+        Object key = matchRule.getMatchKey(exchangeList.get(position).getRecordedHttpRequest());
+        if (key == null) {
+          unkeyedPositions.add(position);
+          continue;
+        }
+        List<Integer> bucket = buckets.get(key);
+        if (ownBucketKeys.add(key)) {
+          bucket = bucket == null ? new ArrayList<>() : new ArrayList<>(bucket);
+          buckets.put(key, bucket);
+        }
+        bucket.add(position);
+      }
+      return new MatchIndex(matchRule, exchangeList, buckets, unkeyedPositions, size);
+    }
+
+    /**
+     * @return lowest position whose recorded request matches, or -1 if none
+     */
+    int find(RecordedHttpRequest request, Object key, List<RecordedHttpExchange> exchangeList) {
+      List<Integer> bucket = _buckets.getOrDefault(key, Collections.emptyList());
+      int bucketIndex = 0;
+      int unkeyedIndex = 0;
+      while (bucketIndex < bucket.size() || unkeyedIndex < _unkeyedPositions.size()) {
+        int position;
+        if (unkeyedIndex == _unkeyedPositions.size()
+            || (bucketIndex < bucket.size() && bucket.get(bucketIndex) < _unkeyedPositions.get(unkeyedIndex))) {
+          position = bucket.get(bucketIndex++);
+        } else {
+          position = _unkeyedPositions.get(unkeyedIndex++);
+        }
+        if (_matchRule.test(request, exchangeList.get(position).getRecordedHttpRequest())) {
+          return position;
+        }
+      }
+      return -1;
     }
   }
 }
@@ -37,14 +37,30 @@ public final class RecordedHttpBodyFactory {
   public static RecordedHttpBody create(String contentType, String contentEncoding, final InputStream inputStream,
       final String charset)
       throws IOException {
+    return create(contentType, contentEncoding, IOUtils.toByteArray(inputStream), charset);
+  }
+
+  /**
+   * Same as {@link #create(String, String, java.io.InputStream, String)} but takes content that is already in memory.
+   * Binary and encoded bodies keep the given array rather than a copy of it.
+   *
+   * @param contentType http body content type
+   * @param contentEncoding http body content encoding
+   * @param content body bytes as they were read from http request/response
+   * @param charset charset
+   * @return concrete {@link com.linkedin.flashback.serializable.RecordedHttpBody}
+   *
+   * */
+  public static RecordedHttpBody create(String contentType, String contentEncoding, final byte[] content,
+      final String charset)
+      throws IOException {
 
     if (HttpUtilities.isCompressedContentEncoding(contentEncoding)) {
-      return new RecordedEncodedHttpBody(IOUtils.toByteArray(inputStream), contentEncoding, charset,
-          contentType);
+      return new RecordedEncodedHttpBody(content, contentEncoding, charset, contentType);
     } else if (HttpUtilities.isTextContentType(contentType)) {
-      return new RecordedStringHttpBody(IOUtils.toString(inputStream, charset));
+      return new RecordedStringHttpBody(new String(content, charset));
     } else {
-      return new RecordedByteHttpBody(IOUtils.toByteArray(inputStream));
+      return new RecordedByteHttpBody(content);
     }
   }
 }
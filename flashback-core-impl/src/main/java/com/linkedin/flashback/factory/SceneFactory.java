@@ -10,6 +10,7 @@ import com.linkedin.flashback.scene.SceneConfiguration;
 import com.linkedin.flashback.scene.SceneMode;
 import com.linkedin.flashback.serializable.RecordedHttpExchange;
 import com.linkedin.flashback.serialization.SceneReader;
+import com.linkedin.flashback.serialization.SceneWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -21,12 +22,14 @@ import java.util.List;
  * 2. In record mode, if found existing scene from the file, then update existing scene.
  * 3. In playback mode, if not found existing scene from the file, then throw exception
  * 4. In record mode, if not found existing scene from the file, then create a new one using configuration
+ * 5. In playback or record mode, scene is found or created the same way as in record mode
  *
  * @author shfeng
  *
  */
 public final class SceneFactory {
   private static final SceneReader SCENE_READER = new SceneReader();
+  private static final SceneReader LAZY_SCENE_READER = new SceneReader(true);
 
   private SceneFactory() {
   }
@@ -37,6 +40,25 @@ public final class SceneFactory {
     return create(sceneConfiguration, SCENE_READER);
   }
 
+  /**
+   * Same as {@link #create(SceneConfiguration)}, but if lazy is true, binary scene is memory-mapped and
+   * recorded responses are decoded when they are played back, see {@link SceneReader#SceneReader(boolean)}
+   * */
+  public static Scene create(SceneConfiguration sceneConfiguration, boolean lazy)
+      throws IOException, IllegalStateException {
+    return create(sceneConfiguration, lazy ? LAZY_SCENE_READER : SCENE_READER);
+  }
+
+  /**
+   * Same as {@link #create(SceneConfiguration, boolean)}, but journal left by journaled recording is compacted
+   * with the given scene writer, see {@link SceneReader#SceneReader(boolean, SceneWriter)}. Pass the writer the
+   * scene is recorded with, so that compaction keeps its format and body storage.
+   * */
+  public static Scene create(SceneConfiguration sceneConfiguration, boolean lazy, SceneWriter sceneWriter)
+      throws IOException, IllegalStateException {
+    return create(sceneConfiguration, new SceneReader(lazy, sceneWriter));
+  }
+
   /**
    * Helper method that will be used for unit test
    * */
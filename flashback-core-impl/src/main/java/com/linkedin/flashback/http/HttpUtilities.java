@@ -5,9 +5,14 @@
 
 package com.linkedin.flashback.http;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.Multimap;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -30,6 +35,7 @@ public final class HttpUtilities {
   public final static String HTTPS_SCHEME = "https";
   public final static int HTTP_DEFAULT_PORT = 80;
   public final static int HTTPS_DEFAULT_PORT = 443;
+  private static final String DEFAULT_CONTENT_TYPE = MediaType.OCTET_STREAM.toString();
 
   private HttpUtilities() {
   }
@@ -62,6 +68,38 @@ public final class HttpUtilities {
     return GZIP_CONSTANT.equals(encodingName) || DEFLATE_CONSTANT.equals(encodingName);
   }
 
+  /**
+   * Get charset of http body from the Content-Type header
+   * @param headers http headers
+   * @return charset, or UTF-8 if it's not specified
+   *
+   * */
+  static public String getCharset(Multimap<String, String> headers) {
+    // Content_Type cannot have multiple, commas-separated values, so this is safe.
+    Iterator<String> header = headers.get(HttpHeaders.CONTENT_TYPE).iterator();
+    if (!header.hasNext()) {
+      return Charsets.UTF_8.toString();
+    } else {
+      return MediaType.parse(header.next()).charset().or(Charsets.UTF_8).toString();
+    }
+  }
+
+  /**
+   * Get content type of http body from the Content-Type header
+   * @param headers http headers
+   * @return content type without parameters, or application/octet-stream if it's not specified
+   *
+   * */
+  static public String getContentType(Multimap<String, String> headers) {
+    // Content_Type cannot have multiple, commas-separated values, so this is safe.
+    Iterator<String> header = headers.get(HttpHeaders.CONTENT_TYPE).iterator();
+    if (!header.hasNext()) {
+      return DEFAULT_CONTENT_TYPE;
+    } else {
+      return MediaType.parse(header.next()).withoutParameters().toString();
+    }
+  }
+
   /**
    * Converts a URL / POST parameter string to an ordered map of key / value pairs
    * @param paramsString the URL-encoded '&amp;' delimited string of key / value pairs
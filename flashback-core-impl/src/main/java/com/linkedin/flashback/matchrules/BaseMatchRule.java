@@ -17,13 +17,27 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  *  @author shfeng
  */
 public abstract class BaseMatchRule implements MatchRule {
+  // Key refers back to the rule rather than being part of its configuration, so it's left out of equals and
+  // hashCode, which would otherwise recurse through it.
+  private static final String FEATURE_KEY_FIELD = "_featureKey";
+  private final MatchFeatureKey _featureKey = new MatchFeatureKey(this);
+
   @Override
   public int hashCode() {
-    return HashCodeBuilder.reflectionHashCode(this);
+    return HashCodeBuilder.reflectionHashCode(this, FEATURE_KEY_FIELD);
   }
 
   @Override
   public boolean equals(Object obj) {
-    return EqualsBuilder.reflectionEquals(this, obj);
+    return EqualsBuilder.reflectionEquals(this, obj, FEATURE_KEY_FIELD);
+  }
+
+  /**
+   * Key to cache what this rule works out from a request under, see
+   * {@link com.linkedin.flashback.serializable.RecordedHttpRequest#getMatchFeature}. Rules that are equal share
+   * the key, so their fields must decide everything the cached value depends on.
+   * */
+  protected final Object getMatchFeatureKey() {
+    return _featureKey;
   }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.matchrules;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+
+/**
+ * 128-bit digest and length of a body, or of a multipart body with its boundary normalized. Bodies with
+ * different digests are known to differ without comparing their bytes, while equal digests still need the bytes
+ * compared to rule out a collision.
+ */
+final class BodyDigest {
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+  // Fed to the hash in place of each boundary. It may also occur in content, which only makes digests collide.
+  private static final int BOUNDARY_MARKER = 0xFFFEFFFE;
+
+  private final long _length;
+  private final HashCode _hashCode;
+
+  private BodyDigest(long length, HashCode hashCode) {
+    _length = length;
+    _hashCode = hashCode;
+  }
+
+  static BodyDigest of(byte[] content) {
+    return new BodyDigest(content.length, HASH_FUNCTION.hashBytes(content));
+  }
+
+  /**
+   * Digest of content with every occurrence of boundary treated as the same symbol, whatever the boundary is,
+   * so multipart bodies that only differ in boundary get the same digest. Occurrences are found left to right
+   * without overlapping.
+   * @param boundary boundary bytes, or null or empty to digest content as is
+   * */
+  static BodyDigest of(byte[] content, byte[] boundary) {
+    if (boundary == null || boundary.length == 0) {
+      return of(content);
+    }
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    long length = 0;
+    int start = 0;
+    int position = 0;
+    while (position <= content.length - boundary.length) {
+      if (regionMatches(content, position, boundary)) {
+        hasher.putBytes(content, start, position - start).putInt(BOUNDARY_MARKER);
+        length += position - start + 1;
+        position += boundary.length;
+        start = position;
+      } else {
+        position++;
+      }
+    }
+    hasher.putBytes(content, start, content.length - start);
+    length += content.length - start;
+    return new BodyDigest(length, hasher.hash());
+  }
+
+  /**
+   * @return true if content has all of bytes of region starting at offset
+   * */
+  static boolean regionMatches(byte[] content, int offset, byte[] region) {
+    if (offset + region.length > content.length) {
+      return false;
+    }
+    for (int i = 0; i < region.length; i++) {
+      if (content[offset + i] != region[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return _hashCode.asInt();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof BodyDigest)) {
+      return false;
+    }
+    BodyDigest other = (BodyDigest) obj;
+    return _length == other._length && _hashCode.equals(other._hashCode);
+  }
+
+  @Override
+  public String toString() {
+    return _length + ":" + _hashCode;
+  }
+}
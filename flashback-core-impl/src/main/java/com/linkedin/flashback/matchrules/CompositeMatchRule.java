@@ -5,47 +5,201 @@
 
 package com.linkedin.flashback.matchrules;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Iterables;
 import com.linkedin.flashback.serializable.RecordedHttpRequest;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
  * Customized match rule which can contain any Match rule combinations.
+ * Rules are tested cheapest first according to {@link MatchRule#getCost()}, and testing stops at the first rule
+ * that rejects, so expensive rules such as body comparison only run for requests that passed the cheap ones.
+ * Rules of the same cost are tested in a fixed order. Optionally the order adapts to how often each rule
+ * actually rejects, see {@link #CompositeMatchRule(int)}.
  * @author shfeng
  * @author dvinegra
  */
-public class CompositeMatchRule implements MatchRule {
-  private Set<MatchRule> _matchRules = new HashSet<>();
+public class CompositeMatchRule implements IndexableMatchRule {
+  private final Set<MatchRule> _matchRules = new LinkedHashSet<>();
+  private final List<RuleStatistics> _ruleStatistics = new ArrayList<>();
+  // Snapshots read without locking, replaced as a whole whenever they change
+  private volatile MatchRule[] _addedRules = new MatchRule[0];
+  private volatile RuleStatistics[] _evaluationOrder = new RuleStatistics[0];
+  private final int _reorderInterval;
+  private final AtomicLong _testCount = new AtomicLong();
 
-  public void addRule(MatchRule matchRule) {
-    _matchRules.add(matchRule);
+  public CompositeMatchRule() {
+    this(0);
   }
 
-  public void addAll(Set<MatchRule> rules) {
-    _matchRules.addAll(rules);
+  /**
+   * @param reorderInterval number of tests between reordering rules by expected cost of rejecting a request,
+   *                        that is cost divided by observed rejection rate. 0 to always test in cost order.
+   * */
+  public CompositeMatchRule(int reorderInterval) {
+    if (reorderInterval < 0) {
+      throw new IllegalArgumentException("reorder interval can't be negative");
+    }
+    _reorderInterval = reorderInterval;
+  }
+
+  public synchronized void addRule(MatchRule matchRule) {
+    if (_matchRules.add(matchRule)) {
+      _ruleStatistics.add(new RuleStatistics(matchRule, _ruleStatistics.size()));
+      _addedRules = _matchRules.toArray(new MatchRule[_matchRules.size()]);
+      reorder();
+    }
+  }
+
+  public synchronized void addAll(Set<MatchRule> rules) {
+    for (MatchRule rule : rules) {
+      addRule(rule);
+    }
   }
 
   @Override
   public boolean test(final RecordedHttpRequest incomingRequest, final RecordedHttpRequest expectedRequest) {
-    return Iterables.all(_matchRules, new Predicate<MatchRule>() {
-      @Override
-      public boolean apply(MatchRule rule) {
-        return rule.test(incomingRequest, expectedRequest);
+    if (_reorderInterval == 0) {
+      // Order never changes, so don't pay for counters shared by every thread comparing requests
+      for (RuleStatistics ruleStatistics : _evaluationOrder) {
+        if (!ruleStatistics._matchRule.test(incomingRequest, expectedRequest)) {
+          return false;
+        }
       }
-    });
+      return true;
+    }
+    boolean result = true;
+    for (RuleStatistics ruleStatistics : _evaluationOrder) {
+      ruleStatistics._testCount.increment();
+      if (!ruleStatistics._matchRule.test(incomingRequest, expectedRequest)) {
+        ruleStatistics._rejectionCount.increment();
+        result = false;
+        break;
+      }
+    }
+    if (_testCount.incrementAndGet() % _reorderInterval == 0) {
+      synchronized (this) {
+        reorder();
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public int getCost() {
+    int cost = 0;
+    for (MatchRule rule : _addedRules) {
+      cost += rule.getCost();
+    }
+    return cost;
+  }
+
+  /**
+   * Combine keys of all indexable rules. Other rules don't contribute to the key,
+   * they are only evaluated by test(). Keys are combined in the order rules were added,
+   * so they don't change when rules get reordered.
+   * @return combined key, or null if none of rules is indexable
+   */
+  @Override
+  public Object getMatchKey(RecordedHttpRequest request) {
+    List<Object> keys = new ArrayList<>();
+    for (MatchRule rule : _addedRules) {
+      if (rule instanceof IndexableMatchRule) {
+        Object key = ((IndexableMatchRule) rule).getMatchKey(request);
+        if (key == null) {
+          return null;
+        }
+        keys.add(key);
+      }
+    }
+    return keys.isEmpty() ? null : keys;
   }
 
   @Override
   public String getMatchFailureDescriptionForRequests(RecordedHttpRequest incomingRequest, RecordedHttpRequest expectedRequest) {
     StringBuilder resultBuilder = new StringBuilder();
-    _matchRules.stream().forEach((rule) -> {
+    Arrays.stream(_evaluationOrder).map(RuleStatistics::getMatchRule).forEach((rule) -> {
       if (!rule.test(incomingRequest, expectedRequest)) {
         resultBuilder.append(rule.getMatchFailureDescriptionForRequests(incomingRequest, expectedRequest)).append("\n");
       }
     });
     return resultBuilder.toString();
   }
+
+  /**
+   * @return counters of each rule, in the order rules are currently tested. Counters are only kept when
+   * reordering adaptively, otherwise they stay 0.
+   * */
+  public List<RuleStatistics> getRuleStatistics() {
+    return Collections.unmodifiableList(Arrays.asList(_evaluationOrder));
+  }
+
+  /**
+   * Sort rules by cost, or by expected cost of a rejection when reordering adaptively. Remaining ties are
+   * broken by class name and then by the order rules were added, so the order doesn't depend on hash codes.
+   * Must hold the lock.
+   * */
+  private void reorder() {
+    Comparator<RuleStatistics> comparator = _reorderInterval > 0
+        ? Comparator.comparingDouble(RuleStatistics::getExpectedRejectionCost)
+        : Comparator.comparingInt(ruleStatistics -> ruleStatistics._matchRule.getCost());
+    comparator = comparator.thenComparing(ruleStatistics -> ruleStatistics._matchRule.getClass().getName())
+        .thenComparingInt(ruleStatistics -> ruleStatistics._position);
+    RuleStatistics[] evaluationOrder = _ruleStatistics.toArray(new RuleStatistics[_ruleStatistics.size()]);
+    Arrays.sort(evaluationOrder, comparator);
+    _evaluationOrder = evaluationOrder;
+  }
+
+  /**
+   * How often a rule of this composite rule was tested and how often it rejected a request. A rule is only
+   * tested when all of rules before it passed, so rejection rates of later rules are conditional on that.
+   * Only counted when reordering adaptively.
+   */
+  public static class RuleStatistics {
+    private final MatchRule _matchRule;
+    private final int _position;
+    private final LongAdder _testCount = new LongAdder();
+    private final LongAdder _rejectionCount = new LongAdder();
+
+    private RuleStatistics(MatchRule matchRule, int position) {
+      _matchRule = matchRule;
+      _position = position;
+    }
+
+    public MatchRule getMatchRule() {
+      return _matchRule;
+    }
+
+    public long getTestCount() {
+      return _testCount.sum();
+    }
+
+    public long getRejectionCount() {
+      return _rejectionCount.sum();
+    }
+
+    /**
+     * @return observed rejection rate, 0 if rule hasn't been tested yet
+     * */
+    public double getRejectionRate() {
+      long testCount = getTestCount();
+      return testCount == 0 ? 0 : (double) getRejectionCount() / testCount;
+    }
+
+    /**
+     * Cost paid per rejected request if this rule went first. Rejection rate is smoothed so rules that haven't
+     * been tested yet, or never rejected, still get a finite cost and keep their cost order.
+     * */
+    private double getExpectedRejectionCost() {
+      double smoothedRejectionRate = (getRejectionCount() + 1.0) / (getTestCount() + 2.0);
+      return _matchRule.getCost() / smoothedRejectionRate;
+    }
+  }
 }
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.matchrules;
+
+import com.linkedin.flashback.serializable.RecordedHttpRequest;
+
+
+/**
+ * Match rule that can reduce a request to a hashable match key, which allows
+ * {@link com.linkedin.flashback.SceneAccessLayer} to bucket recorded requests
+ * instead of testing every one of them.
+ *
+ * Implementations must guarantee that test(a, b) can only return true when
+ * getMatchKey(a) equals getMatchKey(b). Requests with the same key are still
+ * verified with test(), so keys are allowed to collide.
+ */
+public interface IndexableMatchRule extends MatchRule {
+
+  /**
+   * @param request request to compute the key for
+   * @return the match key, or null if no key can be computed for this request,
+   *         in which case callers need fall back to test()
+   */
+  Object getMatchKey(RecordedHttpRequest request);
+}
@@ -5,7 +5,6 @@
 
 package com.linkedin.flashback.matchrules;
 
-import com.linkedin.flashback.serializable.RecordedByteHttpBody;
 import com.linkedin.flashback.serializable.RecordedEncodedHttpBody;
 import com.linkedin.flashback.serializable.RecordedHttpBody;
 import com.linkedin.flashback.serializable.RecordedHttpRequest;
@@ -19,25 +18,21 @@ import java.util.Arrays;
  * @author shfeng
  */
 public class MatchBody extends BaseMatchRule {
+  // Digest only depends on the body, so it's shared by all of body rules
+  private static final Object BODY_DIGEST_FEATURE = new Object();
+
   @Override
   public boolean test(RecordedHttpRequest incomingRequest, RecordedHttpRequest expectedRequest) {
-    String charSet1 = incomingRequest.getCharset();
-    String charSet2 = expectedRequest.getCharset();
-    RecordedHttpBody incomingBody = incomingRequest.getHttpBody();
-    if (incomingBody == null) {
-      incomingBody = new RecordedByteHttpBody(new byte[0]);
-    }
-    RecordedHttpBody expectedBody = expectedRequest.getHttpBody();
-    if (expectedBody == null) {
-      expectedBody = new RecordedByteHttpBody(new byte[0]);
+    // Digests are computed once per request, so most mismatches are found without touching the bytes again
+    if (!getBodyDigest(incomingRequest).equals(getBodyDigest(expectedRequest))) {
+      return false;
     }
+    return Arrays.equals(getContent(incomingRequest), getContent(expectedRequest));
+  }
 
-    try {
-      return Arrays.equals(incomingBody.getContent(charSet1), expectedBody.getContent(charSet2));
-    } catch (IOException e) {
-      //TODO: PLACEHOLDER, error handling will be in separate RB.
-      throw new RuntimeException("Failed to convert to byte arrays", e);
-    }
+  @Override
+  public int getCost() {
+    return 1000;
   }
 
   @Override
@@ -53,6 +48,29 @@ public class MatchBody extends BaseMatchRule {
     }
   }
 
+  /**
+   * @return digest of request body as it's compared by this rule, computed once per request
+   * */
+  static BodyDigest getBodyDigest(RecordedHttpRequest request) {
+    return request.getMatchFeature(BODY_DIGEST_FEATURE, r -> BodyDigest.of(getContent(r)));
+  }
+
+  /**
+   * @return request body as it's compared, empty if request has none
+   * */
+  static byte[] getContent(RecordedHttpRequest request) {
+    RecordedHttpBody body = request.getHttpBody();
+    if (body == null) {
+      return new byte[0];
+    }
+    try {
+      return body.getContent(request.getCharset());
+    } catch (IOException e) {
+      //TODO: PLACEHOLDER, error handling will be in separate RB.
+      throw new RuntimeException("Failed to convert to byte arrays", e);
+    }
+  }
+
   private RecordedHttpBody getBodyFromRequest(RecordedHttpRequest request) {
     RecordedHttpBody body = request.getHttpBody();
     if (body instanceof RecordedEncodedHttpBody) {
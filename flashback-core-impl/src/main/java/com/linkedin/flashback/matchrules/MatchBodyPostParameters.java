@@ -39,17 +39,38 @@ public class MatchBodyPostParameters extends MatchBody {
 
   @Override
   public boolean test(RecordedHttpRequest incomingRequest, RecordedHttpRequest expectedRequest) {
-    if (HttpUtilities.isFormURLEncodedContentType(incomingRequest.getContentType()) && HttpUtilities
-        .isFormURLEncodedContentType(expectedRequest.getContentType())) {
+    String incomingParams = getTransformedPostParameters(incomingRequest);
+    if (incomingParams != null) {
+      String expectedParams = getTransformedPostParameters(expectedRequest);
+      if (expectedParams != null) {
+        return incomingParams.equals(expectedParams);
+      }
+    }
+    return super.test(incomingRequest, expectedRequest);
+  }
+
+  @Override
+  public int getCost() {
+    return 500;
+  }
+
+  /**
+   * Decoded and transformed parameters as they're compared, worked out once per request. Maps are compared
+   * in string form, so they must have the same key/value pairs in the same order.
+   * @return parameters, or null if request isn't form-urlencoded or can't be decoded
+   * */
+  private String getTransformedPostParameters(RecordedHttpRequest request) {
+    return request.getMatchFeature(getMatchFeatureKey(), r -> {
+      if (!HttpUtilities.isFormURLEncodedContentType(r.getContentType())) {
+        return null;
+      }
       try {
-        Map<String, String> incomingParams = getPostParametersFromRequest(incomingRequest);
-        Map<String, String> expectedParams = getPostParametersFromRequest(expectedRequest);
-        return testParameterEquivalency(incomingParams, expectedParams);
+        return _transform.transform(getPostParametersFromRequest(r)).toString();
       } catch (UnsupportedEncodingException e) {
         logger.error("Caught exception " + e + " while decoding POST parameters");
+        return null;
       }
-    }
-    return super.test(incomingRequest, expectedRequest);
+    });
   }
 
   private Map<String, String> getPostParametersFromRequest(RecordedHttpRequest request)
@@ -63,13 +84,6 @@ public class MatchBodyPostParameters extends MatchBody {
     return HttpUtilities.stringToUrlParams(content, request.getCharset());
   }
 
-  /**
-   *  Tests whether the maps have the same key/value pairs in the same order
-   */
-  private boolean testParameterEquivalency(Map<String, String> incomingParams, Map<String, String> expectedParams) {
-    return _transform.transform(incomingParams).toString().equals(_transform.transform(expectedParams).toString());
-  }
-
   @Override
   public String getMatchFailureDescriptionForRequests(RecordedHttpRequest incomingRequest, RecordedHttpRequest expectedRequest) {
     StringBuilder resultBuilder = new StringBuilder("HTTP Body Parameters Mismatch");
@@ -1,12 +1,11 @@
 package com.linkedin.flashback.matchrules;
 
 import com.google.common.net.HttpHeaders;
-import com.linkedin.flashback.serializable.RecordedByteHttpBody;
 import com.linkedin.flashback.serializable.RecordedEncodedHttpBody;
 import com.linkedin.flashback.serializable.RecordedHttpBody;
 import com.linkedin.flashback.serializable.RecordedHttpRequest;
 import com.linkedin.flashback.serializable.RecordedStringHttpBody;
-import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 
 
@@ -16,60 +15,49 @@ import java.util.Arrays;
  *
  * @author kagale
  */
-public class MatchBodyWithAnyBoundary extends BaseMatchRule {
+public class MatchBodyWithAnyBoundary extends BaseMatchRule implements IndexableMatchRule {
 
   private static final String BOUNDARY = "boundary=";
   private static final String MULTIPART = "multipart";
   private static final String EMPTY = "";
   private static final String SEMI_COLON = ";";
 
+  private static final Object MULTIPART_BODY_FEATURE = new Object();
+
+  /**
+   * Bodies match if they are the same once every occurrence of each request's own boundary is treated as
+   * the same symbol. Boundaries are only normalized if both requests are multipart with a boundary,
+   * otherwise bodies are compared as is.
+   * */
   @Override
   public boolean test(RecordedHttpRequest incomingRequest, RecordedHttpRequest expectedRequest) {
-    String charSet1 = incomingRequest.getCharset();
-    String charSet2 = expectedRequest.getCharset();
-    RecordedHttpBody incomingBody = incomingRequest.getHttpBody();
-    if (incomingBody == null) {
-      incomingBody = new RecordedByteHttpBody(new byte[0]);
+    MultipartBody incomingBody = getMultipartBody(incomingRequest);
+    MultipartBody expectedBody = getMultipartBody(expectedRequest);
+    if ((incomingBody._boundary == null) != (expectedBody._boundary == null)) {
+      // Digest of the multipart side is normalized, so it can't be compared with the other one
+      return Arrays.equals(MatchBody.getContent(incomingRequest), MatchBody.getContent(expectedRequest));
     }
-    RecordedHttpBody expectedBody = expectedRequest.getHttpBody();
-    if (expectedBody == null) {
-      expectedBody = new RecordedByteHttpBody(new byte[0]);
+    if (!incomingBody._digest.equals(expectedBody._digest)) {
+      return false;
     }
+    return equalsWithAnyBoundary(MatchBody.getContent(incomingRequest), incomingBody._boundary,
+        MatchBody.getContent(expectedRequest), expectedBody._boundary);
+  }
 
-    try {
-      // Go inside only for requests with multipart data.
-      if (incomingRequest.getHeaders().containsKey(HttpHeaders.CONTENT_TYPE) && expectedRequest.getHeaders().containsKey(HttpHeaders.CONTENT_TYPE)
-          && incomingRequest.getHeaders().get(HttpHeaders.CONTENT_TYPE).iterator().next().contains(MULTIPART)
-          && expectedRequest.getHeaders().get(HttpHeaders.CONTENT_TYPE).iterator().next().contains(MULTIPART)) {
-        // Get boundary values.
-        String currentRequestBoundaryValue = Arrays.stream(incomingRequest.getHeaders().get(HttpHeaders.CONTENT_TYPE).iterator().next()
-            .split(SEMI_COLON))
-            .filter((attr) -> attr.contains(BOUNDARY))
-            .findFirst()
-            .orElse(EMPTY)
-            .replaceFirst(BOUNDARY, EMPTY)
-            .trim();
-        String recordedRequestBoundaryValue = Arrays.stream(expectedRequest.getHeaders().get(HttpHeaders.CONTENT_TYPE).iterator().next()
-            .split(SEMI_COLON))
-            .filter((attr) -> attr.contains(BOUNDARY))
-            .findFirst()
-            .orElse(EMPTY)
-            .replaceFirst(BOUNDARY, EMPTY)
-            .trim();
+  /**
+   * @return digest of body if request has no boundary, or null if it has one. A multipart request can match
+   *         both multipart requests that only differ in boundary and a request without boundary that has the
+   *         same body as is, and no single key covers both.
+   * */
+  @Override
+  public Object getMatchKey(RecordedHttpRequest request) {
+    MultipartBody multipartBody = getMultipartBody(request);
+    return multipartBody._boundary == null ? multipartBody._digest : null;
+  }
 
-        // Prepare request for matching
-        // i.e., by overriding the boundary value
-        if (!currentRequestBoundaryValue.equals(recordedRequestBoundaryValue)) {
-          // Override the boundary value of request body.
-          String recordedBody = new String(expectedBody.getContent(charSet2)).replaceAll(recordedRequestBoundaryValue,
-              currentRequestBoundaryValue);
-          expectedBody = new RecordedByteHttpBody(recordedBody.getBytes(charSet2));
-        }
-      }
-      return Arrays.equals(incomingBody.getContent(charSet1), expectedBody.getContent(charSet2));
-    } catch (IOException e) {
-      throw new RuntimeException("Failed to convert to byte arrays", e);
-    }
+  @Override
+  public int getCost() {
+    return 2000;
   }
 
   @Override
@@ -85,6 +73,67 @@ public class MatchBodyWithAnyBoundary extends BaseMatchRule {
     }
   }
 
+  /**
+   * Compare contents in one pass, treating an occurrence of boundary in one content as equal to an occurrence
+   * of the other boundary in the other content, and to nothing else. Occurrences are found left to right
+   * without overlapping, the same way {@link BodyDigest#of(byte[], byte[])} finds them.
+   * @param boundary1 boundary of content1, or null if it has none
+   * @param boundary2 boundary of content2, or null if it has none
+   * */
+  static boolean equalsWithAnyBoundary(byte[] content1, byte[] boundary1, byte[] content2, byte[] boundary2) {
+    int position1 = 0;
+    int position2 = 0;
+    while (position1 < content1.length && position2 < content2.length) {
+      boolean atBoundary1 = boundary1 != null && boundary1.length > 0
+          && BodyDigest.regionMatches(content1, position1, boundary1);
+      boolean atBoundary2 = boundary2 != null && boundary2.length > 0
+          && BodyDigest.regionMatches(content2, position2, boundary2);
+      if (atBoundary1 != atBoundary2) {
+        return false;
+      }
+      if (atBoundary1) {
+        position1 += boundary1.length;
+        position2 += boundary2.length;
+      } else if (content1[position1++] != content2[position2++]) {
+        return false;
+      }
+    }
+    return position1 == content1.length && position2 == content2.length;
+  }
+
+  /**
+   * Boundary and normalized digest of request body, worked out once per request. Boundary is null if request
+   * isn't multipart or doesn't declare a boundary.
+   * */
+  private MultipartBody getMultipartBody(RecordedHttpRequest request) {
+    return request.getMatchFeature(MULTIPART_BODY_FEATURE, r -> {
+      String boundary = getBoundary(r);
+      byte[] boundaryBytes =
+          boundary != null && !boundary.isEmpty() ? boundary.getBytes(Charset.forName(r.getCharset())) : null;
+      return new MultipartBody(boundaryBytes, BodyDigest.of(MatchBody.getContent(r), boundaryBytes));
+    });
+  }
+
+  /**
+   * Boundary value of multipart request, parsed from Content-Type header
+   * @return boundary value, or null if request isn't multipart
+   * */
+  private static String getBoundary(RecordedHttpRequest request) {
+    if (!request.getHeaders().containsKey(HttpHeaders.CONTENT_TYPE)) {
+      return null;
+    }
+    String contentType = request.getHeaders().get(HttpHeaders.CONTENT_TYPE).iterator().next();
+    if (!contentType.contains(MULTIPART)) {
+      return null;
+    }
+    return Arrays.stream(contentType.split(SEMI_COLON))
+        .filter((attr) -> attr.contains(BOUNDARY))
+        .findFirst()
+        .orElse(EMPTY)
+        .replaceFirst(BOUNDARY, EMPTY)
+        .trim();
+  }
+
   private RecordedHttpBody getBodyFromRequest(RecordedHttpRequest request) {
     RecordedHttpBody body = request.getHttpBody();
     if (body instanceof RecordedEncodedHttpBody) {
@@ -93,4 +142,14 @@ public class MatchBodyWithAnyBoundary extends BaseMatchRule {
       return body;
     }
   }
+
+  private static final class MultipartBody {
+    private final byte[] _boundary;
+    private final BodyDigest _digest;
+
+    private MultipartBody(byte[] boundary, BodyDigest digest) {
+      _boundary = boundary;
+      _digest = digest;
+    }
+  }
 }
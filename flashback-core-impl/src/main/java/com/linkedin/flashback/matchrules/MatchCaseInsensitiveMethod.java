@@ -19,6 +19,11 @@ public class MatchCaseInsensitiveMethod extends BaseMatchRule {
     return incomingRequest.getMethod().equalsIgnoreCase(expectedRequest.getMethod());
   }
 
+  @Override
+  public int getCost() {
+    return 1;
+  }
+
   @Override
   public String getMatchFailureDescriptionForRequests(RecordedHttpRequest incomingRequest, RecordedHttpRequest expectedRequest) {
     return String.format("HTTP Method Mismatch%nIncoming Method: %s%nExpected Method: %s%n",
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.matchrules;
+
+
+/**
+ * Key a match rule caches what it works out from a request under, see
+ * {@link com.linkedin.flashback.serializable.RecordedHttpRequest#getMatchFeature}. Keys of equal rules are equal,
+ * so a request gets one entry per rule configuration rather than one per rule instance, and rules that are
+ * configured differently never read each other's entries.
+ */
+final class MatchFeatureKey {
+  private final MatchRule _matchRule;
+  // Rule hash code is worked out by reflection, and key is looked up for every comparison. It's computed on
+  // first use rather than on construction, since subclass fields aren't set yet when key is created.
+  private volatile int _hashCode;
+
+  MatchFeatureKey(MatchRule matchRule) {
+    _matchRule = matchRule;
+  }
+
+  @Override
+  public int hashCode() {
+    int hashCode = _hashCode;
+    if (hashCode == 0) {
+      hashCode = 31 * _matchRule.getClass().hashCode() + _matchRule.hashCode();
+      _hashCode = hashCode;
+    }
+    return hashCode;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof MatchFeatureKey)) {
+      return false;
+    }
+    MatchFeatureKey other = (MatchFeatureKey) obj;
+    return _matchRule.getClass() == other._matchRule.getClass() && hashCode() == other.hashCode()
+        && _matchRule.equals(other._matchRule);
+  }
+}
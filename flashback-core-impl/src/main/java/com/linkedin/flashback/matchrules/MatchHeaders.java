@@ -35,8 +35,12 @@ public class MatchHeaders extends BaseMatchRule {
 
   @Override
   public boolean test(RecordedHttpRequest incomingRequest, RecordedHttpRequest expectedRequest) {
-    return _transform.transform(multimapToCommaSeparatedMap(incomingRequest.getHeaders()))
-        .equals(_transform.transform(multimapToCommaSeparatedMap(expectedRequest.getHeaders())));
+    return getTransformedHeaders(incomingRequest).equals(getTransformedHeaders(expectedRequest));
+  }
+
+  @Override
+  public int getCost() {
+    return 20;
   }
 
   public String getMatchFailureDescriptionForRequests(RecordedHttpRequest incomingRequest, RecordedHttpRequest expectedRequest) {
@@ -47,11 +51,19 @@ public class MatchHeaders extends BaseMatchRule {
       resultBuilder.append(" (with Whitelist)");
     }
     resultBuilder.append("%n")
-        .append(String.format("Incoming Headers: %s%n", _transform.transform(multimapToCommaSeparatedMap(incomingRequest.getHeaders()))))
-        .append(String.format("Expected Headers: %s%n", _transform.transform(multimapToCommaSeparatedMap(expectedRequest.getHeaders()))));
+        .append(String.format("Incoming Headers: %s%n", getTransformedHeaders(incomingRequest)))
+        .append(String.format("Expected Headers: %s%n", getTransformedHeaders(expectedRequest)));
     return resultBuilder.toString();
   }
 
+  /**
+   * Headers as they're compared, worked out once per request
+   * */
+  private Map<String, String> getTransformedHeaders(RecordedHttpRequest request) {
+    return request.getMatchFeature(getMatchFeatureKey(),
+        r -> _transform.transform(multimapToCommaSeparatedMap(r.getHeaders())));
+  }
+
   private static Map<String,String> multimapToCommaSeparatedMap(Multimap<String, String> multimap) {
     Map<String, Collection<String>> mapOfCollections = multimap.asMap();
     HashMap<String, String> map = new HashMap<>();
@@ -12,12 +12,22 @@ import com.linkedin.flashback.serializable.RecordedHttpRequest;
  * Match rule to match http method
  * @author shfeng
  */
-public class MatchMethod extends BaseMatchRule {
+public class MatchMethod extends BaseMatchRule implements IndexableMatchRule {
   @Override
   public boolean test(RecordedHttpRequest incomingRequest, RecordedHttpRequest expectedRequest) {
     return incomingRequest.getMethod().equals(expectedRequest.getMethod());
   }
 
+  @Override
+  public Object getMatchKey(RecordedHttpRequest request) {
+    return request.getMethod();
+  }
+
+  @Override
+  public int getCost() {
+    return 1;
+  }
+
   @Override
   public String getMatchFailureDescriptionForRequests(RecordedHttpRequest incomingRequest, RecordedHttpRequest expectedRequest) {
     return String.format("HTTP Method Mismatch%nIncoming Method: %s%nExpected Method: %s%n",
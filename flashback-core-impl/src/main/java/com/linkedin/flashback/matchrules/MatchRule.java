@@ -14,6 +14,17 @@ import java.util.function.BiPredicate;
  * @author shfeng
  */
 public interface MatchRule extends BiPredicate<RecordedHttpRequest, RecordedHttpRequest> {
+  int DEFAULT_COST = 100;
+
+  /**
+   * Relative cost of one test(), i.e. 1 for comparing a short string and 1000 for comparing bodies.
+   * {@link CompositeMatchRule} tests its cheaper rules first, so expensive ones only see requests that
+   * passed the cheap ones.
+   * @return the cost hint, {@link #DEFAULT_COST} unless the rule knows better
+   */
+  default int getCost() {
+    return DEFAULT_COST;
+  }
 
   /**
    * Returns a description for the match failure for a pair of requests
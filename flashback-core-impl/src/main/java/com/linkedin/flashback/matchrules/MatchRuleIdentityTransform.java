@@ -7,6 +7,8 @@ package com.linkedin.flashback.matchrules;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 
 /**
@@ -19,4 +21,14 @@ public class MatchRuleIdentityTransform implements MatchRuleMapTransform {
   public Map<String, String> transform(Map<String, String> map) {
     return new LinkedHashMap<>(map);
   }
+
+  @Override
+  public int hashCode() {
+    return HashCodeBuilder.reflectionHashCode(this);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return EqualsBuilder.reflectionEquals(this, obj);
+  }
 }
@@ -7,6 +7,8 @@ package com.linkedin.flashback.matchrules;
 
 import java.util.*;
 import java.util.stream.Collectors;
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 
 /**
@@ -32,4 +34,14 @@ public class MatchRuleWhitelistTransform implements MatchRuleMapTransform {
           throw new RuntimeException("Duplicate key " + k);
         }, LinkedHashMap::new));
   }
+
+  @Override
+  public int hashCode() {
+    return HashCodeBuilder.reflectionHashCode(this);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return EqualsBuilder.reflectionEquals(this, obj);
+  }
 }
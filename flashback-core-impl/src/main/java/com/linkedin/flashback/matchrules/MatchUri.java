@@ -16,14 +16,27 @@ import org.apache.log4j.Logger;
  * Match rule to match Http uri
  * @author shfeng
  */
-public class MatchUri extends BaseMatchRule {
+public class MatchUri extends BaseMatchRule implements IndexableMatchRule {
 
   private static final String MODULE = MatchUri.class.getName();
   private static final Logger LOGGER = Logger.getLogger(MODULE);
 
   @Override
   public boolean test(RecordedHttpRequest incomingRequest, RecordedHttpRequest expectedRequest) {
-    return testUriEquivalency(incomingRequest.getUri(), expectedRequest.getUri());
+    URI incomingMatchUri = getMatchUri(incomingRequest);
+    return incomingMatchUri != null && incomingMatchUri.equals(getMatchUri(expectedRequest));
+  }
+
+  @Override
+  public Object getMatchKey(RecordedHttpRequest request) {
+    URI matchUri = getMatchUri(request);
+    // Such URI never matches, so any key will do
+    return matchUri != null ? matchUri : request.getUri();
+  }
+
+  @Override
+  public int getCost() {
+    return 10;
   }
 
   @Override
@@ -33,15 +46,28 @@ public class MatchUri extends BaseMatchRule {
         expectedRequest.getUri());
   }
 
-  protected boolean testUriEquivalency(URI incomingUri, URI expectedUri) {
+  /**
+   * Returns the URI that is effectively compared, so that equivalent URIs produce the same key. Requests match
+   * if keys of their URIs are equal, and keys are worked out once per request, so subclasses override this to
+   * change which URIs are equivalent.
+   * @param uri
+   * @return the canonicalized URI, the original URI if it can't be canonicalized, or null if it never matches
+   */
+  protected URI getUriMatchKey(URI uri) {
     try {
-      URI incomingCanonicalizedUri = getCanonicalizedUri(incomingUri);
-      URI expectedCanonicalizedUri = getCanonicalizedUri(expectedUri);
-      return incomingCanonicalizedUri.equals(expectedCanonicalizedUri);
+      return getCanonicalizedUri(uri);
     } catch (URISyntaxException e) {
       LOGGER.error("Caught exception " + e + " while constructing modified URI");
+      return uri;
     }
-    return incomingUri.equals(expectedUri);
+  }
+
+  /**
+   * URI of request as it's compared, worked out once per request since every recorded request is compared
+   * against the same incoming one
+   * */
+  private URI getMatchUri(RecordedHttpRequest request) {
+    return request.getMatchFeature(getMatchFeatureKey(), r -> r.getUri() != null ? getUriMatchKey(r.getUri()) : null);
   }
 
   private int getPortForScheme(String scheme) {
@@ -34,15 +34,13 @@ public class MatchUriWithQueryTransform extends MatchUri {
   }
 
   @Override
-  protected boolean testUriEquivalency(URI incomingUri, URI expectedUri) {
+  protected URI getUriMatchKey(URI uri) {
     try {
-      URI modifiedIncomingUri = getModifiedUri(incomingUri);
-      URI modifiedExpectedUri = getModifiedUri(expectedUri);
-      return super.testUriEquivalency(modifiedIncomingUri, modifiedExpectedUri);
+      return super.getUriMatchKey(getModifiedUri(uri));
     } catch (URISyntaxException | UnsupportedEncodingException e) {
       LOGGER.error("Caught exception " + e + " while constructing modified URI");
+      return null;
     }
-    return false;
   }
 
   @Override
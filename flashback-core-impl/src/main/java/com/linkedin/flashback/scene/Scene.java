@@ -6,8 +6,8 @@
 package com.linkedin.flashback.scene;
 
 import com.linkedin.flashback.serializable.RecordedHttpExchange;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
@@ -16,6 +16,9 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  * Scene that contains everything that will be stored in scene file.
  * Note: The best practice to create Scene is using SceneFactory
  *
+ * Recorded exchanges are kept in a copy-on-write list, so proxy threads can look up recorded requests
+ * while other threads are recording.
+ *
  * @author shfeng
  */
 public class Scene {
@@ -29,12 +32,16 @@ public class Scene {
     _name = name;
     _sceneMode = sceneMode;
     _sceneRoot = sceneRoot;
-    _recordedHttpExchangeList = recordedHttpExchangeList;
+    if (recordedHttpExchangeList == null || recordedHttpExchangeList instanceof CopyOnWriteArrayList) {
+      _recordedHttpExchangeList = recordedHttpExchangeList;
+    } else {
+      _recordedHttpExchangeList = new CopyOnWriteArrayList<>(recordedHttpExchangeList);
+    }
   }
 
   public Scene(SceneConfiguration sceneConfiguration) {
     this(sceneConfiguration.getSceneName(), sceneConfiguration.getSceneMode(), sceneConfiguration.getSceneRoot(),
-        new ArrayList<>());
+        new CopyOnWriteArrayList<>());
   }
 
   public List<RecordedHttpExchange> getRecordedHttpExchangeList() {
@@ -46,7 +53,8 @@ public class Scene {
   }
 
   public boolean isReadable() {
-    return _sceneMode == SceneMode.PLAYBACK || _sceneMode == SceneMode.SEQUENTIAL_PLAYBACK;
+    return _sceneMode == SceneMode.PLAYBACK || _sceneMode == SceneMode.SEQUENTIAL_PLAYBACK
+        || _sceneMode == SceneMode.PLAYBACK_OR_RECORD;
   }
 
   public boolean isSequential() {
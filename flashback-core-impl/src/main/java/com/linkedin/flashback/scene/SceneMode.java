@@ -6,7 +6,7 @@
 package com.linkedin.flashback.scene;
 
 /**
- * Scene mode: either record only or playback only
+ * Scene mode: record only, playback only, or playback with recording requests that don't match
  *
  * @author shfeng
  */
@@ -14,7 +14,9 @@ public enum SceneMode {
   RECORD("record"),
   PLAYBACK("playback"),
   SEQUENTIAL_RECORD("sequential_record"),
-  SEQUENTIAL_PLAYBACK("sequential_playback");
+  SEQUENTIAL_PLAYBACK("sequential_playback"),
+  // Play back recorded responses, and record responses of requests that don't match any of them
+  PLAYBACK_OR_RECORD("playback_or_record");
 
   private final String _text;
   SceneMode(String text) {
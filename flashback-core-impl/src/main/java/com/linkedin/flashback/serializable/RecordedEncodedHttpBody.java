@@ -13,27 +13,31 @@ import com.linkedin.flashback.decorator.compression.GzipCompressor;
 import com.linkedin.flashback.decorator.compression.GzipDecompressor;
 import com.linkedin.flashback.http.HttpUtilities;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 
 
 /**
  * This class provides an abstraction for an HTTP body that is encoded using
  * gzip or deflate encoding.
  *
- * Internally, a RecordedEncodedHttpBody needs to store a RecordedHttpBody representing
- * the decoded (uncompressed) HTTP body content, as well as the name of the encoding used.
- * When asked to provide the byte array representing the content to send over the wire, the
- * decoded body is encoded (compressed) and the result is returned. Additionally, this compressed
- * value is cached so that the uncompressed body only needs to be compressed once.
+ * Internally, a RecordedEncodedHttpBody stores the encoded (wire) bytes, a RecordedHttpBody representing
+ * the decoded (uncompressed) HTTP body content, or both, as well as the name of the encoding used.
+ * Whichever one is missing is computed on first use and cached: the decoded body is only decompressed
+ * when something like a match rule needs to look into it, and the encoded content is only compressed
+ * when it has to be sent over the wire.
  *
  * @author dvinegra
  */
 public class RecordedEncodedHttpBody implements RecordedHttpBody {
 
-  private final RecordedHttpBody _decodedBody;
   private final String _encodingName;
+  // Needed to decode the body lazily, null if the body was created from its decoded content
+  private final String _charset;
+  private final String _contentType;
 
-  // Cached the encoded content (to send on the wire) so that we don't compress multiple times
-  private byte[] _encodedContent;
+  // Cached so that we don't decompress or compress multiple times
+  private volatile RecordedHttpBody _decodedBody;
+  private volatile byte[] _encodedContent;
 
   /**
    * Constructor used to create a RecordedHttpBody instance from an already-decoded RecordedHttpBody
@@ -44,6 +48,8 @@ public class RecordedEncodedHttpBody implements RecordedHttpBody {
   public RecordedEncodedHttpBody(RecordedHttpBody decodedBody, String encodingName) {
     _decodedBody = decodedBody;
     _encodingName = encodingName;
+    _charset = null;
+    _contentType = null;
   }
 
   /**
@@ -53,20 +59,12 @@ public class RecordedEncodedHttpBody implements RecordedHttpBody {
    * @param encodingName name of the encoding used to encode the content
    * @param charset charset
    * @param contentType http Content-Type for the content (once decoded)
-   * @throws java.io.IOException
    */
-  public RecordedEncodedHttpBody(byte[] encodedContent, String encodingName, String charset, String contentType)
-      throws IOException {
+  public RecordedEncodedHttpBody(byte[] encodedContent, String encodingName, String charset, String contentType) {
     _encodedContent = encodedContent;
     _encodingName = encodingName;
-
-    byte[] decodedContent = getDecompressor().decompress(encodedContent);
-
-    if (HttpUtilities.isTextContentType(contentType)) {
-      _decodedBody = new RecordedStringHttpBody(new String(decodedContent, charset));
-    } else {
-      _decodedBody = new RecordedByteHttpBody(decodedContent);
-    }
+    _charset = charset;
+    _contentType = contentType;
   }
 
   /**
@@ -81,19 +79,58 @@ public class RecordedEncodedHttpBody implements RecordedHttpBody {
   @Override
   public byte[] getContent(String charSet)
       throws IOException {
-    if (_encodedContent == null) {
+    byte[] encodedContent = _encodedContent;
+    if (encodedContent == null) {
       // Only compress the content once and cache the result
-      _encodedContent = getCompressor().compress(_decodedBody.getContent(charSet));
+      encodedContent = getCompressor().compress(_decodedBody.getContent(charSet));
+      _encodedContent = encodedContent;
     }
-    return _encodedContent;
+    return encodedContent;
+  }
+
+  /**
+   * @return true if the encoded (wire) bytes are already at hand, so {@link #getContent(String)} doesn't
+   * need to compress anything
+   */
+  public boolean hasEncodedContent() {
+    return _encodedContent != null;
   }
 
   public String getEncodingName() {
     return _encodingName;
   }
 
+  /**
+   * Returns the decoded body, decompressing the encoded content the first time it's asked for.
+   *
+   * @throws IllegalStateException if the encoded content can't be decompressed
+   */
   public RecordedHttpBody getDecodedBody() {
-    return _decodedBody;
+    RecordedHttpBody decodedBody = _decodedBody;
+    if (decodedBody == null) {
+      // Racing threads may both decode, which is harmless since the results are equal
+      decodedBody = decode();
+      _decodedBody = decodedBody;
+    }
+    return decodedBody;
+  }
+
+  private RecordedHttpBody decode() {
+    byte[] decodedContent;
+    try {
+      decodedContent = getDecompressor().decompress(_encodedContent);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to decode " + _encodingName + " http body", e);
+    }
+    if (HttpUtilities.isTextContentType(_contentType)) {
+      try {
+        return new RecordedStringHttpBody(new String(decodedContent, _charset));
+      } catch (UnsupportedEncodingException e) {
+        throw new IllegalStateException("Unsupported charset " + _charset, e);
+      }
+    } else {
+      return new RecordedByteHttpBody(decodedContent);
+    }
   }
 
   private AbstractCompressor getCompressor() {
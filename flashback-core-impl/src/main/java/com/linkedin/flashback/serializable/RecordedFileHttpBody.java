@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.serializable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+
+/**
+ * Recorded http body whose raw content is kept in a file of its own rather than in memory.
+ * Content is read from the file every time it's asked for, so large bodies don't take heap space
+ * while they sit in a scene, and replay can send the file as is.
+ */
+public class RecordedFileHttpBody implements RecordedHttpBody {
+  private volatile File _file;
+  private volatile boolean _temporary;
+
+  public RecordedFileHttpBody(File file) {
+    this(file, false);
+  }
+
+  /**
+   * @param temporary true if file was created while recording and nothing else refers to it, so it may be
+   *                  moved rather than copied into the scene
+   * */
+  public RecordedFileHttpBody(File file, boolean temporary) {
+    _file = file;
+    _temporary = temporary;
+  }
+
+  @Override
+  public byte[] getContent(String charSet)
+      throws IOException {
+    return Files.readAllBytes(_file.toPath());
+  }
+
+  public File getFile() {
+    return _file;
+  }
+
+  public boolean isTemporary() {
+    return _temporary;
+  }
+
+  /**
+   * Read content from given file from now on, once temporary file has been moved there.
+   * */
+  public void setStoredFile(File file) {
+    _file = file;
+    _temporary = false;
+  }
+
+  /**
+   * Delete file of a body that is discarded before it got into a scene. Files of stored bodies are kept.
+   * @param httpBody any recorded body, may be null
+   * */
+  public static void discard(RecordedHttpBody httpBody) {
+    if (httpBody instanceof RecordedFileHttpBody && ((RecordedFileHttpBody) httpBody).isTemporary()) {
+      ((RecordedFileHttpBody) httpBody).getFile().delete();
+    }
+  }
+
+  /**
+   * @return length of the content in bytes
+   * */
+  public long length() {
+    return _file.length();
+  }
+
+  @Override
+  public int hashCode() {
+    return HashCodeBuilder.reflectionHashCode(this);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return EqualsBuilder.reflectionEquals(this, obj);
+  }
+}
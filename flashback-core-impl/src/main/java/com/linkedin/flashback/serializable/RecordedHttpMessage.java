@@ -5,14 +5,11 @@
 
 package com.linkedin.flashback.serializable;
 
-import com.google.common.base.Charsets;
-
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.net.HttpHeaders;
-import com.google.common.net.MediaType;
+import com.linkedin.flashback.http.HttpUtilities;
 import java.io.IOException;
-import java.util.Iterator;
 import org.apache.log4j.Logger;
 
 
@@ -23,28 +20,27 @@ import org.apache.log4j.Logger;
  * @author dvinegra
  */
 public abstract class RecordedHttpMessage {
-  private static final String DEFAULT_CHARSET = Charsets.UTF_8.toString();
   private static final Logger logger = Logger.getLogger("RecordedHttpMessage");
-  private static final String DEFAULT_CONTENT_TYPE = MediaType.OCTET_STREAM.toString();
 
   private Multimap<String, String> _headers = LinkedHashMultimap.create();
   private RecordedHttpBody _httpBody;
+  // Headers with Content-Length brought in line with the body. They're derived from headers and body, so
+  // they don't take part in equality. Null until worked out, which is put off when an encoded body would have
+  // to be compressed just to tell its length.
+  private transient volatile Multimap<String, String> _headersWithContentLength;
+  // Parsed from Content-Type header on first use, since it's asked for on every match
+  private transient volatile String _charset;
+  private transient volatile String _contentType;
 
   public RecordedHttpMessage(Multimap<String, String> headers, RecordedHttpBody httpBody) {
     if (headers != null) {
       _headers = headers;
     }
     _httpBody = httpBody;
-
-    // Update the Content-Length header if appropriate
-    if (_headers.containsKey(HttpHeaders.CONTENT_LENGTH)) {
-      try {
-        int contentLength = _httpBody.getContent(getCharset()).length;
-        _headers = LinkedHashMultimap.create(_headers);
-        _headers.put(HttpHeaders.CONTENT_LENGTH, Integer.toString(contentLength));
-      } catch (IOException e) {
-        logger.error("Caught exception " + e + " while updating Content-Length header");
-      }
+    if (_httpBody == null || !_headers.containsKey(HttpHeaders.CONTENT_LENGTH)) {
+      _headersWithContentLength = _headers;
+    } else if (!needsEncoding(_httpBody)) {
+      _headersWithContentLength = withContentLength(_headers, _httpBody, getCharset());
     }
   }
 
@@ -57,26 +53,69 @@ public abstract class RecordedHttpMessage {
   }
 
   public Multimap<String, String> getHeaders() {
-    return _headers;
+    Multimap<String, String> headers = _headersWithContentLength;
+    if (headers == null) {
+      headers = updateContentLength();
+    }
+    return headers;
   }
 
   public String getCharset() {
-    // Content_Type cannot have multiple, commas-separated values, so this is safe.
-    Iterator<String> header = _headers.get(HttpHeaders.CONTENT_TYPE).iterator();
-    if (!header.hasNext()) {
-      return DEFAULT_CHARSET;
-    } else {
-      return MediaType.parse(header.next()).charset().or(Charsets.UTF_8).toString();
+    String charset = _charset;
+    if (charset == null) {
+      charset = HttpUtilities.getCharset(_headers);
+      _charset = charset;
     }
+    return charset;
   }
 
   public String getContentType() {
-    // Content_Type cannot have multiple, commas-separated values, so this is safe.
-    Iterator<String> header = _headers.get(HttpHeaders.CONTENT_TYPE).iterator();
-    if (!header.hasNext()) {
-      return DEFAULT_CONTENT_TYPE;
-    } else {
-      return MediaType.parse(header.next()).withoutParameters().toString();
+    String contentType = _contentType;
+    if (contentType == null) {
+      contentType = HttpUtilities.getContentType(_headers);
+      _contentType = contentType;
+    }
+    return contentType;
+  }
+
+  private synchronized Multimap<String, String> updateContentLength() {
+    if (_headersWithContentLength == null) {
+      _headersWithContentLength = withContentLength(_headers, _httpBody, getCharset());
+    }
+    return _headersWithContentLength;
+  }
+
+  /**
+   * @return true if body is encoded and only its decoded content is at hand, so telling its length on the wire
+   * means compressing it
+   * */
+  private static boolean needsEncoding(RecordedHttpBody httpBody) {
+    return httpBody instanceof RecordedEncodedHttpBody && !((RecordedEncodedHttpBody) httpBody).hasEncodedContent();
+  }
+
+  private static Multimap<String, String> withContentLength(Multimap<String, String> headers,
+      RecordedHttpBody httpBody, String charset) {
+    try {
+      long contentLength = getContentLength(httpBody, charset);
+      Multimap<String, String> updatedHeaders = LinkedHashMultimap.create(headers);
+      updatedHeaders.put(HttpHeaders.CONTENT_LENGTH, Long.toString(contentLength));
+      return updatedHeaders;
+    } catch (IOException e) {
+      logger.error("Caught exception " + e + " while updating Content-Length header");
+      return headers;
+    }
+  }
+
+  /**
+   * Length of body on the wire. File bodies are told by file length rather than read, since they're kept
+   * in files for being too large to hold in memory.
+   * */
+  private static long getContentLength(RecordedHttpBody httpBody, String charset)
+      throws IOException {
+    if (httpBody instanceof RecordedFileHttpBody) {
+      return ((RecordedFileHttpBody) httpBody).length();
     }
+    // Encoded bodies hand out their stored wire bytes, and other bodies are held in memory anyway
+    return httpBody.getContent(charset).length;
   }
 }
@@ -7,6 +7,9 @@ package com.linkedin.flashback.serializable;
 
 import java.net.URI;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 
 import com.google.common.collect.Multimap;
 import org.apache.commons.lang3.builder.EqualsBuilder;
@@ -18,8 +21,12 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  * @author shfeng
  */
 public class RecordedHttpRequest extends RecordedHttpMessage {
+  private static final Object NULL_MATCH_FEATURE = new Object();
+
   private String _httpMethod;
   private URI _uri;
+  // Data derived from this request by match rules, so it's computed once per request rather than once per comparison
+  private final transient ConcurrentMap<Object, Object> _matchFeatures = new ConcurrentHashMap<>();
 
   public RecordedHttpRequest(String httpMethod, URI uri, Multimap<String, String> headers,
       RecordedHttpBody recordedHttpBody) {
@@ -36,6 +43,25 @@ public class RecordedHttpRequest extends RecordedHttpMessage {
     return _uri;
   }
 
+  /**
+   * Get data that match rule derives from this request, i.e. normalized headers or parsed query parameters.
+   * It's computed the first time it's asked for and kept with the request, so request must not be modified
+   * once it's matched. Racing threads may compute it more than once.
+   *
+   * @param key identifies the feature and whatever it depends on, such as rule's transform
+   * @param function computes the feature from this request, it may return null
+   * */
+  @SuppressWarnings("unchecked")
+  public <T> T getMatchFeature(Object key, Function<RecordedHttpRequest, T> function) {
+    Object feature = _matchFeatures.get(key);
+    if (feature == null) {
+      T computedFeature = function.apply(this);
+      feature = computedFeature == null ? NULL_MATCH_FEATURE : computedFeature;
+      _matchFeatures.putIfAbsent(key, feature);
+    }
+    return feature == NULL_MATCH_FEATURE ? null : (T) feature;
+  }
+
   @Override
   public int hashCode() {
     return HashCodeBuilder.reflectionHashCode(this);
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.serialization;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * InputStream that reads from a ByteBuffer without copying it. Reading advances the buffer position.
+ */
+class ByteBufferInputStream extends InputStream {
+  private final ByteBuffer _buffer;
+
+  ByteBufferInputStream(ByteBuffer buffer) {
+    _buffer = buffer;
+  }
+
+  @Override
+  public int read() {
+    if (!_buffer.hasRemaining()) {
+      return -1;
+    }
+    return _buffer.get() & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) {
+    if (length == 0) {
+      return 0;
+    }
+    if (!_buffer.hasRemaining()) {
+      return -1;
+    }
+    int count = Math.min(length, _buffer.remaining());
+    _buffer.get(bytes, offset, count);
+    return count;
+  }
+
+  @Override
+  public long skip(long n) {
+    int count = (int) Math.max(0, Math.min(n, _buffer.remaining()));
+    _buffer.position(_buffer.position() + count);
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return _buffer.remaining();
+  }
+}
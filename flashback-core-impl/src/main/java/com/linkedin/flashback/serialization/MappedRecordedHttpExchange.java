@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.serialization;
+
+import com.linkedin.flashback.serializable.RecordedHttpExchange;
+import com.linkedin.flashback.serializable.RecordedHttpRequest;
+import com.linkedin.flashback.serializable.RecordedHttpResponse;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+
+/**
+ * Recorded http exchange loaded from memory-mapped binary scene. The request is decoded up front because
+ * it is needed for matching, but the response is only decoded from the mapped file when it is asked for.
+ * Decoded response is only softly retained, so it's handed out as the same instance while it stays in memory,
+ * which keeps identity-keyed caches of the response (e.g. pre-encoded responses) effective, but it can still be
+ * reclaimed under memory pressure, so resident heap doesn't have to grow with scene size.
+ */
+class MappedRecordedHttpExchange extends RecordedHttpExchange {
+  private final ByteBuffer _buffer;
+  private final int _responseOffset;
+  private final String[] _headerNames;
+  private final SceneBodyFiles _sceneBodyFiles;
+  private volatile SoftReference<RecordedHttpResponse> _recordedHttpResponse;
+
+  MappedRecordedHttpExchange(RecordedHttpRequest recordedHttpRequest, Date updateTime, ByteBuffer buffer,
+      int responseOffset, String[] headerNames, SceneBodyFiles sceneBodyFiles) {
+    super(recordedHttpRequest, null, updateTime);
+    _buffer = buffer;
+    _responseOffset = responseOffset;
+    _headerNames = headerNames;
+    _sceneBodyFiles = sceneBodyFiles;
+  }
+
+  @Override
+  public RecordedHttpResponse getRecordedHttpResponse() {
+    SoftReference<RecordedHttpResponse> reference = _recordedHttpResponse;
+    RecordedHttpResponse recordedHttpResponse = reference != null ? reference.get() : null;
+    if (recordedHttpResponse == null) {
+      // Concurrent callers may decode twice, they still get equal responses
+      recordedHttpResponse = decodeHttpResponse();
+      _recordedHttpResponse = new SoftReference<>(recordedHttpResponse);
+    }
+    return recordedHttpResponse;
+  }
+
+  private RecordedHttpResponse decodeHttpResponse() {
+    // Duplicate so concurrent readers don't share buffer position
+    ByteBuffer buffer = _buffer.duplicate();
+    buffer.position(_responseOffset);
+    try {
+      return new SceneBinaryDeserializer(_headerNames, _sceneBodyFiles)
+          .createHttpResponse(new ByteBufferInputStream(buffer));
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read response from scene", e);
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.serialization;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+import com.linkedin.flashback.http.HttpUtilities;
+import com.linkedin.flashback.scene.Scene;
+import com.linkedin.flashback.serializable.RecordedByteHttpBody;
+import com.linkedin.flashback.serializable.RecordedEncodedHttpBody;
+import com.linkedin.flashback.serializable.RecordedHttpBody;
+import com.linkedin.flashback.serializable.RecordedHttpExchange;
+import com.linkedin.flashback.serializable.RecordedHttpRequest;
+import com.linkedin.flashback.serializable.RecordedHttpResponse;
+import com.linkedin.flashback.serializable.RecordedStringHttpBody;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+
+/**
+ * De-serialize scene written by {@link SceneBinarySerializer}
+ */
+public class SceneBinaryDeserializer {
+  private final SceneBodyFiles _sceneBodyFiles;
+  private DataInputStream _inputStream;
+  private String[] _headerNames;
+
+  public SceneBinaryDeserializer() {
+    this((SceneBodyFiles) null);
+  }
+
+  /**
+   * @param sceneBodyFiles side-car files that bodies of the scene may refer to
+   * */
+  SceneBinaryDeserializer(SceneBodyFiles sceneBodyFiles) {
+    _sceneBodyFiles = sceneBodyFiles;
+  }
+
+  /**
+   * Used to decode single messages of an already opened scene
+   * @param headerNames header name dictionary of the scene
+   * @param sceneBodyFiles side-car files that bodies of the scene may refer to
+   * */
+  SceneBinaryDeserializer(String[] headerNames, SceneBodyFiles sceneBodyFiles) {
+    _headerNames = headerNames;
+    _sceneBodyFiles = sceneBodyFiles;
+  }
+
+  public Scene deserialize(InputStream inputStream)
+      throws IOException {
+    _inputStream = new DataInputStream(inputStream);
+    try {
+      String name = readSceneHeader();
+      int count = _inputStream.readInt();
+      List<RecordedHttpExchange> recordedHttpExchangeList = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        _inputStream.readInt();  // Exchange length
+        recordedHttpExchangeList.add(createHttpExchange());
+      }
+      return new Scene(name, null, ".", recordedHttpExchangeList);
+    } finally {
+      _inputStream.close();
+    }
+  }
+
+  /**
+   * De-serialize scene from memory-mapped file. Only requests are decoded, responses are decoded
+   * from the buffer on demand, see {@link MappedRecordedHttpExchange}.
+   * @param buffer buffer that holds the whole scene file, it must not be modified afterwards
+   * */
+  public Scene deserialize(ByteBuffer buffer)
+      throws IOException {
+    ByteBuffer sceneBuffer = buffer.duplicate();
+    _inputStream = new DataInputStream(new ByteBufferInputStream(sceneBuffer));
+    String name = readSceneHeader();
+    int count = _inputStream.readInt();
+    List<RecordedHttpExchange> recordedHttpExchangeList = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int length = _inputStream.readInt();
+      int exchangeEnd = sceneBuffer.position() + length;
+      Date date = new Date(_inputStream.readLong());
+      RecordedHttpRequest recordedHttpRequest = createHttpRequest();
+      recordedHttpExchangeList.add(
+          new MappedRecordedHttpExchange(recordedHttpRequest, date, buffer, sceneBuffer.position(), _headerNames,
+              _sceneBodyFiles));
+      sceneBuffer.position(exchangeEnd);
+    }
+    return new Scene(name, null, ".", recordedHttpExchangeList);
+  }
+
+  RecordedHttpResponse createHttpResponse(InputStream inputStream)
+      throws IOException {
+    _inputStream = new DataInputStream(inputStream);
+    return createHttpResponse();
+  }
+
+  /**
+   * Read and validate leading part of the scene, up to header name dictionary
+   * @return scene name
+   * */
+  private String readSceneHeader()
+      throws IOException {
+    byte[] magic = new byte[SceneSerializationConstant.BINARY_MAGIC.length];
+    _inputStream.readFully(magic);
+    if (!Arrays.equals(magic, SceneSerializationConstant.BINARY_MAGIC)) {
+      throw new IllegalStateException("Not a binary scene");
+    }
+    int version = _inputStream.readInt();
+    if (version != SceneSerializationConstant.BINARY_VERSION) {
+      throw new IllegalStateException("Unsupported binary scene version " + version);
+    }
+    String name = readString();
+    _headerNames = new String[_inputStream.readInt()];
+    for (int i = 0; i < _headerNames.length; i++) {
+      _headerNames[i] = readString();
+    }
+    return name;
+  }
+
+  private RecordedHttpExchange createHttpExchange()
+      throws IOException {
+    Date date = new Date(_inputStream.readLong());
+    RecordedHttpRequest recordedHttpRequest = createHttpRequest();
+    RecordedHttpResponse recordedHttpResponse = createHttpResponse();
+    return new RecordedHttpExchange(recordedHttpRequest, recordedHttpResponse, date);
+  }
+
+  private RecordedHttpRequest createHttpRequest()
+      throws IOException {
+    String httpMethod = readString();
+    String uri = readString();
+    Multimap<String, String> headers = createHeaders();
+    RecordedHttpBody recordedHttpBody = createHttpBody(headers);
+    try {
+      return new RecordedHttpRequest(httpMethod, new URI(uri), headers, recordedHttpBody);
+    } catch (URISyntaxException e) {
+      throw new RuntimeException("Failed to construct URI: " + uri);
+    }
+  }
+
+  private RecordedHttpResponse createHttpResponse()
+      throws IOException {
+    int statusCode = _inputStream.readInt();
+    Multimap<String, String> headers = createHeaders();
+    RecordedHttpBody recordedHttpBody = createHttpBody(headers);
+    return new RecordedHttpResponse(statusCode, headers, recordedHttpBody);
+  }
+
+  private Multimap<String, String> createHeaders()
+      throws IOException {
+    int count = _inputStream.readInt();
+    Multimap<String, String> headers = LinkedHashMultimap.create();
+    for (int i = 0; i < count; i++) {
+      String key = _headerNames[_inputStream.readInt()];
+      headers.put(key, readString());
+    }
+    return headers;
+  }
+
+  private RecordedHttpBody createHttpBody(Multimap<String, String> headers)
+      throws IOException {
+    byte type = _inputStream.readByte();
+    switch (type) {
+      case SceneSerializationConstant.BINARY_BODY_NONE:
+        return null;
+      case SceneSerializationConstant.BINARY_BODY_STRING:
+        return new RecordedStringHttpBody(readString());
+      case SceneSerializationConstant.BINARY_BODY_BYTES:
+        return new RecordedByteHttpBody(readBytes());
+      case SceneSerializationConstant.BINARY_BODY_ENCODED:
+        String encodingName = readString();
+        return new RecordedEncodedHttpBody(createHttpBody(headers), encodingName);
+      case SceneSerializationConstant.BINARY_BODY_ENCODED_RAW:
+        String rawEncodingName = readString();
+        return new RecordedEncodedHttpBody(readBytes(), rawEncodingName, HttpUtilities.getCharset(headers),
+            HttpUtilities.getContentType(headers));
+      case SceneSerializationConstant.BINARY_BODY_FILE:
+        String bodyFileName = readString();
+        if (_sceneBodyFiles == null) {
+          throw new IllegalStateException("Scene refers to body file " + bodyFileName + " but its location is unknown");
+        }
+        return _sceneBodyFiles.resolve(bodyFileName);
+      default:
+        throw new IllegalStateException("Unrecognized body type " + type);
+    }
+  }
+
+  private String readString()
+      throws IOException {
+    return new String(readBytes(), Charsets.UTF_8);
+  }
+
+  private byte[] readBytes()
+      throws IOException {
+    byte[] bytes = new byte[_inputStream.readInt()];
+    _inputStream.readFully(bytes);
+    return bytes;
+  }
+}
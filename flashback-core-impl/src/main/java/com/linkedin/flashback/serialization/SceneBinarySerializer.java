@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.serialization;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Multimap;
+import com.linkedin.flashback.scene.Scene;
+import com.linkedin.flashback.serializable.RecordedEncodedHttpBody;
+import com.linkedin.flashback.serializable.RecordedHttpBody;
+import com.linkedin.flashback.serializable.RecordedHttpExchange;
+import com.linkedin.flashback.serializable.RecordedHttpMessage;
+import com.linkedin.flashback.serializable.RecordedHttpRequest;
+import com.linkedin.flashback.serializable.RecordedHttpResponse;
+import com.linkedin.flashback.serializable.RecordedStringHttpBody;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Serialize {@link com.linkedin.flashback.scene.Scene} into compact binary format.
+ *
+ * Layout, all numbers are big-endian and all strings are int length followed by UTF-8 bytes:
+ * <pre>
+ *   magic, version
+ *   scene name
+ *   header name dictionary: count, names
+ *   exchange count
+ *   exchanges: byte length of exchange, then
+ *     update time (epoch millis), request (method, uri, headers, body), response (status, headers, body)
+ * </pre>
+ * Headers are stored as count followed by (index into header name dictionary, value) pairs.
+ * Bodies are stored as a type tag followed by raw bytes, string content or encoding name and decoded body.
+ * Encoded bodies may be stored as encoding name and encoded bytes instead, see {@link #SceneBinarySerializer(boolean)}.
+ * Large bodies may be stored in side-car files, then only the file name is stored.
+ */
+public class SceneBinarySerializer {
+  private final boolean _keepEncodedBodies;
+  private final SceneBodyFiles _sceneBodyFiles;
+  private DataOutputStream _outputStream;
+  private Map<String, Integer> _headerNames;
+
+  public SceneBinarySerializer() {
+    this(false);
+  }
+
+  /**
+   * @param keepEncodedBodies if true, gzip or deflate encoded bodies are stored as they go over the wire
+   *                          instead of decoded, so they don't need to be compressed again after loading
+   * */
+  public SceneBinarySerializer(boolean keepEncodedBodies) {
+    this(keepEncodedBodies, null);
+  }
+
+  /**
+   * @param sceneBodyFiles side-car files to store large bodies in, or null to serialize all of bodies inline
+   * */
+  SceneBinarySerializer(boolean keepEncodedBodies, SceneBodyFiles sceneBodyFiles) {
+    _keepEncodedBodies = keepEncodedBodies;
+    _sceneBodyFiles = sceneBodyFiles;
+  }
+
+  public void serialize(Scene scene, OutputStream outputStream)
+      throws IOException {
+    _outputStream = new DataOutputStream(outputStream);
+    _headerNames = createHeaderNameDictionary(scene.getRecordedHttpExchangeList());
+    _outputStream.write(SceneSerializationConstant.BINARY_MAGIC);
+    _outputStream.writeInt(SceneSerializationConstant.BINARY_VERSION);
+    writeString(scene.getName());
+    _outputStream.writeInt(_headerNames.size());
+    for (String headerName : _headerNames.keySet()) {
+      writeString(headerName);
+    }
+    _outputStream.writeInt(scene.getRecordedHttpExchangeList().size());
+
+    // Each exchange is prefixed by its length, so readers can skip over exchanges
+    DataOutputStream sceneOutputStream = _outputStream;
+    ByteArrayOutputStream exchangeBytes = new ByteArrayOutputStream();
+    _outputStream = new DataOutputStream(exchangeBytes);
+    for (RecordedHttpExchange recordedHttpExchange : scene.getRecordedHttpExchangeList()) {
+      exchangeBytes.reset();
+      writeHttpExchange(recordedHttpExchange);
+      _outputStream.flush();
+      sceneOutputStream.writeInt(exchangeBytes.size());
+      exchangeBytes.writeTo(sceneOutputStream);
+    }
+    _outputStream = sceneOutputStream;
+    _outputStream.close();
+  }
+
+  private static Map<String, Integer> createHeaderNameDictionary(List<RecordedHttpExchange> recordedHttpExchanges) {
+    List<RecordedHttpMessage> recordedHttpMessages = new ArrayList<>();
+    for (RecordedHttpExchange recordedHttpExchange : recordedHttpExchanges) {
+      recordedHttpMessages.add(recordedHttpExchange.getRecordedHttpRequest());
+      recordedHttpMessages.add(recordedHttpExchange.getRecordedHttpResponse());
+    }
+    Map<String, Integer> headerNames = new LinkedHashMap<>();
+    for (RecordedHttpMessage recordedHttpMessage : recordedHttpMessages) {
+      for (String headerName : recordedHttpMessage.getHeaders().keySet()) {
+        headerNames.putIfAbsent(headerName, headerNames.size());
+      }
+    }
+    return headerNames;
+  }
+
+  private void writeHttpExchange(RecordedHttpExchange recordedHttpExchange)
+      throws IOException {
+    _outputStream.writeLong(recordedHttpExchange.getUpdateTime().getTime());
+    writeHttpRequest(recordedHttpExchange.getRecordedHttpRequest());
+    writeHttpResponse(recordedHttpExchange.getRecordedHttpResponse());
+  }
+
+  private void writeHttpRequest(RecordedHttpRequest recordedHttpRequest)
+      throws IOException {
+    writeString(recordedHttpRequest.getMethod());
+    writeString(recordedHttpRequest.getUri().toString());
+    writeHttpMessage(recordedHttpRequest);
+  }
+
+  private void writeHttpResponse(RecordedHttpResponse recordedHttpResponse)
+      throws IOException {
+    _outputStream.writeInt(recordedHttpResponse.getStatus());
+    writeHttpMessage(recordedHttpResponse);
+  }
+
+  private void writeHttpMessage(RecordedHttpMessage recordedHttpMessage)
+      throws IOException {
+    writeHttpHeaders(recordedHttpMessage.getHeaders());
+    writeHttpBody(recordedHttpMessage.getHttpBody(), recordedHttpMessage.getCharset());
+  }
+
+  private void writeHttpHeaders(Multimap<String, String> headers)
+      throws IOException {
+    _outputStream.writeInt(headers.size());
+    for (Map.Entry<String, String> entry : headers.entries()) {
+      _outputStream.writeInt(_headerNames.get(entry.getKey()));
+      writeString(entry.getValue());
+    }
+  }
+
+  private void writeHttpBody(RecordedHttpBody httpBody, String charset)
+      throws IOException {
+    String bodyFileName = _sceneBodyFiles != null && httpBody != null ? _sceneBodyFiles.store(httpBody) : null;
+    if (httpBody == null) {
+      _outputStream.writeByte(SceneSerializationConstant.BINARY_BODY_NONE);
+    } else if (bodyFileName != null) {
+      _outputStream.writeByte(SceneSerializationConstant.BINARY_BODY_FILE);
+      writeString(bodyFileName);
+    } else if (httpBody instanceof RecordedEncodedHttpBody && _keepEncodedBodies) {
+      _outputStream.writeByte(SceneSerializationConstant.BINARY_BODY_ENCODED_RAW);
+      writeString(((RecordedEncodedHttpBody) httpBody).getEncodingName());
+      writeBytes(httpBody.getContent(charset));
+    } else if (httpBody instanceof RecordedEncodedHttpBody) {
+      _outputStream.writeByte(SceneSerializationConstant.BINARY_BODY_ENCODED);
+      writeString(((RecordedEncodedHttpBody) httpBody).getEncodingName());
+      writeHttpBody(((RecordedEncodedHttpBody) httpBody).getDecodedBody(), charset);
+    } else if (httpBody instanceof RecordedStringHttpBody) {
+      _outputStream.writeByte(SceneSerializationConstant.BINARY_BODY_STRING);
+      writeString(((RecordedStringHttpBody) httpBody).getContent());
+    } else {
+      // Byte bodies, as well as file bodies that are not kept in files of this scene
+      _outputStream.writeByte(SceneSerializationConstant.BINARY_BODY_BYTES);
+      writeBytes(httpBody.getContent(charset));
+    }
+  }
+
+  private void writeString(String value)
+      throws IOException {
+    writeBytes(value.getBytes(Charsets.UTF_8));
+  }
+
+  private void writeBytes(byte[] bytes)
+      throws IOException {
+    _outputStream.writeInt(bytes.length);
+    _outputStream.write(bytes);
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.serialization;
+
+import com.google.common.hash.Hashing;
+import com.linkedin.flashback.serializable.RecordedByteHttpBody;
+import com.linkedin.flashback.serializable.RecordedFileHttpBody;
+import com.linkedin.flashback.serializable.RecordedHttpBody;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * Side-car body files of one scene. Large bodies are stored as raw files in a directory next to the scene file,
+ * and the scene only refers to them by name. Files are named after the SHA-1 of their content, so equal bodies
+ * share a file and bodies that are already stored are never written again.
+ */
+class SceneBodyFiles {
+  private final File _directory;
+  private final int _threshold;
+  private final Set<String> _referencedNames = new HashSet<>();
+
+  /**
+   * @param threshold bodies larger than this number of bytes are stored in files, 0 to only keep
+   *                  bodies that are already stored in this directory
+   * */
+  SceneBodyFiles(String rootPath, String sceneName, int threshold) {
+    _directory = new File(rootPath, sceneName + SceneSerializationConstant.BODY_DIRECTORY_SUFFIX);
+    _threshold = threshold;
+  }
+
+  /**
+   * Store body in a file if it belongs there. Temporary files, which bodies spilled to while being recorded,
+   * always belong there and are moved into place rather than copied.
+   * @return name of the file that holds the body, or null if body should be serialized inline
+   * */
+  String store(RecordedHttpBody httpBody)
+      throws IOException {
+    if (httpBody instanceof RecordedFileHttpBody) {
+      RecordedFileHttpBody fileHttpBody = (RecordedFileHttpBody) httpBody;
+      File file = fileHttpBody.getFile();
+      if (_directory.getAbsoluteFile().equals(file.getAbsoluteFile().getParentFile()) && file.isFile()) {
+        _referencedNames.add(file.getName());
+        return file.getName();
+      }
+      if (!fileHttpBody.isTemporary() && _threshold <= 0) {
+        return null;
+      }
+      String name = hash(file);
+      File storedFile = new File(_directory, name);
+      if (fileHttpBody.isTemporary()) {
+        if (storedFile.isFile()) {
+          Files.delete(file.toPath());
+        } else {
+          moveIntoPlace(file, storedFile);
+        }
+        fileHttpBody.setStoredFile(storedFile);
+      } else if (!storedFile.isFile()) {
+        File tempFile = createTempFile(name);
+        Files.copy(file.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        moveIntoPlace(tempFile, storedFile);
+      }
+      _referencedNames.add(name);
+      return name;
+    }
+    if (!(httpBody instanceof RecordedByteHttpBody) || _threshold <= 0
+        || ((RecordedByteHttpBody) httpBody).getContent().length <= _threshold) {
+      return null;
+    }
+    byte[] content = ((RecordedByteHttpBody) httpBody).getContent();
+    String name = Hashing.sha1().hashBytes(content).toString();
+    File storedFile = new File(_directory, name);
+    if (!storedFile.isFile()) {
+      File tempFile = createTempFile(name);
+      Files.write(tempFile.toPath(), content);
+      moveIntoPlace(tempFile, storedFile);
+    }
+    _referencedNames.add(name);
+    return name;
+  }
+
+  /**
+   * Hash file content without reading it into memory at once
+   * */
+  private static String hash(File file)
+      throws IOException {
+    return com.google.common.io.Files.hash(file, Hashing.sha1()).toString();
+  }
+
+  private File createTempFile(String name) {
+    if (!_directory.isDirectory() && !_directory.mkdirs()) {
+      throw new IllegalStateException("Failed to create new directory: " + _directory);
+    }
+    return new File(_directory, name + SceneSerializationConstant.TEMP_FILE_SUFFIX);
+  }
+
+  /**
+   * Move file to its final name atomically, so a body file is either complete or not there at all. File that is
+   * on another file system is copied next to its final name first, because it can't be renamed across.
+   * */
+  private void moveIntoPlace(File file, File storedFile)
+      throws IOException {
+    File tempFile = createTempFile(storedFile.getName());
+    if (!tempFile.equals(file)) {
+      try {
+        Files.move(file.toPath(), storedFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        return;
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(file.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    Files.move(tempFile.toPath(), storedFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @return body stored in given file of this scene
+   * */
+  RecordedFileHttpBody resolve(String name) {
+    return new RecordedFileHttpBody(new File(_directory, name));
+  }
+
+  /**
+   * Delete body files that were not stored or kept since this instance was created. Does nothing
+   * if bodies are not stored in files, so files of a scene are left alone by writers that don't use them.
+   * */
+  void deleteUnreferenced() {
+    File[] files = _directory.listFiles();
+    if (_threshold <= 0 || files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (!_referencedNames.contains(file.getName()) && !file.delete()) {
+        throw new IllegalStateException("Failed to delete body file: " + file);
+      }
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.serialization;
+
+import com.linkedin.flashback.scene.Scene;
+import java.io.IOException;
+
+
+/**
+ * Convert scene files between {@link SceneFormat}s.
+ */
+public class SceneConverter {
+  private final SceneReader _sceneReader = new SceneReader();
+
+  /**
+   * Convert scene file in place
+   * @param rootPath scene root directory
+   * @param name scene name
+   * @param targetFormat format to convert the scene to
+   * */
+  public void convert(String rootPath, String name, SceneFormat targetFormat)
+      throws IOException {
+    convert(rootPath, name, rootPath, name, targetFormat);
+  }
+
+  /**
+   * Convert scene file and write it to a new location, source scene file is not changed.
+   * @param sourceRootPath root directory of the source scene
+   * @param sourceName name of the source scene
+   * @param targetRootPath root directory of the converted scene
+   * @param targetName name of the converted scene
+   * @param targetFormat format to convert the scene to
+   * */
+  public void convert(String sourceRootPath, String sourceName, String targetRootPath, String targetName,
+      SceneFormat targetFormat)
+      throws IOException {
+    Scene scene = _sceneReader.readScene(sourceRootPath, sourceName);
+    if (scene == null) {
+      throw new IllegalArgumentException("No scene " + sourceName + " found in " + sourceRootPath);
+    }
+    Scene targetScene = new Scene(targetName, null, targetRootPath, scene.getRecordedHttpExchangeList());
+    new SceneWriter(targetFormat).writeScene(targetScene);
+  }
+}
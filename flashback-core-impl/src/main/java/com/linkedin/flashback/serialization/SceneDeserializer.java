@@ -7,9 +7,11 @@ package com.linkedin.flashback.serialization;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.JsonToken;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
+import com.linkedin.flashback.http.HttpUtilities;
 import com.linkedin.flashback.scene.Scene;
 import com.linkedin.flashback.serializable.RecordedByteHttpBody;
 import com.linkedin.flashback.serializable.RecordedEncodedHttpBody;
@@ -25,6 +27,7 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import org.apache.log4j.Logger;
 
 
 /**
@@ -34,9 +37,22 @@ import java.util.List;
  * @author dvinegra
  */
 public class SceneDeserializer {
+  private static final Logger LOG = Logger.getLogger(SceneDeserializer.class);
   private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private final SceneBodyFiles _sceneBodyFiles;
   private JsonParser _jsonParser;
 
+  public SceneDeserializer() {
+    this(null);
+  }
+
+  /**
+   * @param sceneBodyFiles side-car files that bodies of the scene may refer to
+   * */
+  SceneDeserializer(SceneBodyFiles sceneBodyFiles) {
+    _sceneBodyFiles = sceneBodyFiles;
+  }
+
   public Scene deserialize(Reader reader)
       throws IOException {
     _jsonParser = JSON_FACTORY.createParser(reader);
@@ -48,6 +64,50 @@ public class SceneDeserializer {
     return new Scene(name, null, ".", createHttpExchangeList());
   }
 
+  /**
+   * Replay journal entries written by {@link SceneSerializer#serializeJournalEntry} on top of exchange list.
+   * Replay stops at the first incomplete entry, which could be left by a crash in the middle of writing.
+   *
+   * @param reader journal reader
+   * @param recordedHttpExchangeList exchanges of the scene, which will be updated in place
+   */
+  public void replayJournal(Reader reader, List<RecordedHttpExchange> recordedHttpExchangeList)
+      throws IOException {
+    _jsonParser = JSON_FACTORY.createParser(reader);
+    try {
+      while (_jsonParser.nextToken() == JsonToken.START_OBJECT) {
+        _jsonParser.nextToken();  // BASESIZE or POSITION FIELD_NAME
+        if (isValidOptionalField(SceneSerializationConstant.SCENE_TAG_JOURNAL_BASE_SIZE)) {
+          _jsonParser.nextToken();
+          int baseSize = _jsonParser.getValueAsInt();
+          skipEndObject();  // Entry END_OBJECT
+          if (baseSize > recordedHttpExchangeList.size()) {
+            throw new IllegalStateException("Invalid journal base size " + baseSize);
+          }
+          recordedHttpExchangeList.subList(baseSize, recordedHttpExchangeList.size()).clear();
+        } else {
+          validateRequiredField(SceneSerializationConstant.SCENE_TAG_JOURNAL_POSITION);
+          _jsonParser.nextToken();
+          int position = _jsonParser.getValueAsInt();
+          _jsonParser.nextToken();
+          validateRequiredField(SceneSerializationConstant.SCENE_TAG_HTTPEXCHANGE);
+          skipStartObject();
+          RecordedHttpExchange recordedHttpExchange = createHttpExchange();
+          skipEndObject();  // Entry END_OBJECT
+          if (position < recordedHttpExchangeList.size()) {
+            recordedHttpExchangeList.set(position, recordedHttpExchange);
+          } else if (position == recordedHttpExchangeList.size()) {
+            recordedHttpExchangeList.add(recordedHttpExchange);
+          } else {
+            throw new IllegalStateException("Invalid journal position " + position);
+          }
+        }
+      }
+    } catch (JsonProcessingException e) {
+      LOG.warn("Ignoring incomplete journal entry: " + e.getMessage());
+    }
+  }
+
   private List<RecordedHttpExchange> createHttpExchangeList()
       throws IOException {
     _jsonParser.nextToken();  //HTTPEXCHANGELIST FIELD_NAME
@@ -91,7 +151,7 @@ public class SceneDeserializer {
     //Create optional fields
     _jsonParser.nextToken();  // Move to next token
     Multimap<String, String> headers = createHeaders();
-    RecordedHttpBody recordedHttpBody = createHttpBody();
+    RecordedHttpBody recordedHttpBody = createHttpBody(headers);
     RecordedHttpRequest recordedHttpRequest = new RecordedHttpRequest(httpMethod, uri, headers, recordedHttpBody);
     //Check if reach to the end of object for http request
     if (!(_jsonParser.getCurrentName().equals(SceneSerializationConstant.SCENE_TAG_HTTPREQUEST)
@@ -133,7 +193,7 @@ public class SceneDeserializer {
 
     _jsonParser.nextToken();  // Move to next token
     Multimap<String, String> headers = createHeaders();
-    RecordedHttpBody recordedHttpBody = createHttpBody();
+    RecordedHttpBody recordedHttpBody = createHttpBody(headers);
     RecordedHttpResponse recordedHttpResponse = new RecordedHttpResponse(statusCode, headers, recordedHttpBody);
 
     //Check if reach to the end of object for http response
@@ -174,7 +234,7 @@ public class SceneDeserializer {
     return headers;
   }
 
-  private RecordedHttpBody createHttpBody()
+  private RecordedHttpBody createHttpBody(Multimap<String, String> headers)
       throws IOException {
     if (isValidOptionalField(SceneSerializationConstant.SCENE_TAG_ENCODED_HTTPBODY)) {
       skipStartObject();  // ENCODEDHTTPBODY
@@ -183,10 +243,21 @@ public class SceneDeserializer {
       _jsonParser.nextToken();  // HTTPBODYENCODING Value
       String encodingName = _jsonParser.getValueAsString();
       _jsonParser.nextToken();
-      RecordedHttpBody decodedBody = createHttpBody();  // Read in the "decoded" body content so that we can wrap it
+      if (isValidOptionalField(SceneSerializationConstant.SCENE_TAG_RAW_HTTPBODY)) {
+        _jsonParser.nextToken();  // Field
+        byte[] encodedContent = _jsonParser.getBinaryValue();
+        skipEndObject();
+        return new RecordedEncodedHttpBody(encodedContent, encodingName, HttpUtilities.getCharset(headers),
+            HttpUtilities.getContentType(headers));
+      }
+      RecordedHttpBody decodedBody = createHttpBody(headers);  // Read in the "decoded" body content so we can wrap it
       skipEndObject();
       return new RecordedEncodedHttpBody(decodedBody, encodingName);
     }
+    if (isValidOptionalField(SceneSerializationConstant.SCENE_TAG_FILE_HTTPBODY)) {
+      _jsonParser.nextToken();  // Field
+      return resolveBodyFile(_jsonParser.getValueAsString());
+    }
     if (isValidOptionalField(SceneSerializationConstant.SCENE_TAG_STRING_HTTPBODY)) {
       _jsonParser.nextToken();  // Field
       return new RecordedStringHttpBody(_jsonParser.getValueAsString());
@@ -198,6 +269,13 @@ public class SceneDeserializer {
     return null;
   }
 
+  private RecordedHttpBody resolveBodyFile(String name) {
+    if (_sceneBodyFiles == null) {
+      throw new IllegalStateException("Scene refers to body file " + name + " but its location is unknown");
+    }
+    return _sceneBodyFiles.resolve(name);
+  }
+
   private void validateRequiredField(String expectedFiledName)
       throws IOException {
     if (!expectedFiledName.equals(_jsonParser.getCurrentName())) {
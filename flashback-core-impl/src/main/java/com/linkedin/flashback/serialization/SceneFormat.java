@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.serialization;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+
+/**
+ * On-disk formats of scene file.
+ */
+public enum SceneFormat {
+  /**
+   * Pretty-printed json, see {@link SceneSerializer}
+   */
+  JSON,
+  /**
+   * Compact length-prefixed binary, see {@link SceneBinarySerializer}
+   */
+  BINARY;
+
+  /**
+   * Detect format of existing scene file by looking at its leading bytes.
+   * @param file scene file
+   * @return format of the file, or null if file doesn't exist or is empty
+   * */
+  public static SceneFormat detect(File file)
+      throws IOException {
+    if (!file.isFile() || file.length() == 0) {
+      return null;
+    }
+    byte[] magic = new byte[SceneSerializationConstant.BINARY_MAGIC.length];
+    try (InputStream inputStream = new FileInputStream(file)) {
+      int read = 0;
+      while (read < magic.length) {
+        int count = inputStream.read(magic, read, magic.length - read);
+        if (count < 0) {
+          return JSON;
+        }
+        read += count;
+      }
+    }
+    return Arrays.equals(magic, SceneSerializationConstant.BINARY_MAGIC) ? BINARY : JSON;
+  }
+}
@@ -7,36 +7,116 @@ package com.linkedin.flashback.serialization;
 
 import com.google.common.io.Files;
 import com.linkedin.flashback.scene.Scene;
+import com.linkedin.flashback.serializable.RecordedHttpExchange;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.List;
 
 
 /**
- * Read de-serialized scene from file.
+ * Read de-serialized scene from file. Format of the file is detected automatically.
  *
  * @author shfeng
  */
 public class SceneReader {
+  private final boolean _lazy;
+  private final SceneWriter _sceneWriter;
+
+  public SceneReader() {
+    this(false);
+  }
+
+  /**
+   * @param lazy if true, binary scene files are memory-mapped and recorded responses are only decoded
+   *             when they are played back, then softly retained until memory runs low. Json scene files are
+   *             always loaded eagerly.
+   * */
+  public SceneReader(boolean lazy) {
+    this(lazy, new SceneWriter());
+  }
+
+  /**
+   * @param lazy see {@link #SceneReader(boolean)}
+   * @param sceneWriter writer that compacts journal into the scene file. It should be configured the same way as
+   *                    the writer the scene was recorded with, otherwise compaction may change format of the scene
+   *                    or how its bodies are stored.
+   * */
+  public SceneReader(boolean lazy, SceneWriter sceneWriter) {
+    if (sceneWriter == null) {
+      throw new IllegalArgumentException("scene writer can't be null");
+    }
+    _lazy = lazy;
+    _sceneWriter = sceneWriter;
+  }
+
   /**
-   * Read scene from file and construct Scene object
+   * Read scene from file and construct Scene object. If a journal was left by journaled recording,
+   * it is replayed on top of the scene and compacted into the scene file with reader's scene writer.
    * @param name scene name
    * @return scene object de-serialized from file
    *
    * */
   public Scene readScene(String rootPath, String name)
       throws IOException {
+    Scene scene = readSceneFile(rootPath, name);
+    File journal = SceneWriter.getJournalFile(rootPath, name);
+    if (!journal.isFile()) {
+      return scene;
+    }
+    // Replay on a plain list, scene's copy-on-write list would copy itself on every entry
+    List<RecordedHttpExchange> recordedHttpExchangeList =
+        scene != null ? new ArrayList<>(scene.getRecordedHttpExchangeList()) : new ArrayList<>();
+    try (BufferedReader reader = Files.newReader(journal, Charset.forName(SceneSerializationConstant.FILE_CHARSET))) {
+      SceneDeserializer sceneDeserializer = new SceneDeserializer(new SceneBodyFiles(rootPath, name, 0));
+      sceneDeserializer.replayJournal(reader, recordedHttpExchangeList);
+    }
+    Scene compactedScene = new Scene(name, null, rootPath, recordedHttpExchangeList);
+    _sceneWriter.writeScene(compactedScene);
+    if (!journal.delete()) {
+      throw new IllegalStateException("Failed to delete journal: " + journal);
+    }
+    return compactedScene;
+  }
+
+  private Scene readSceneFile(String rootPath, String name)
+      throws IOException {
     File file = new File(rootPath, name);
+    SceneBodyFiles sceneBodyFiles = new SceneBodyFiles(rootPath, name, 0);
     if (file.isFile()) {
       if (file.length() == 0) {
         return new Scene(name, null, rootPath, new ArrayList<>());
       }
-      BufferedReader reader = Files.newReader(file, Charset.forName(SceneSerializationConstant.FILE_CHARSET));
-      SceneDeserializer sceneDeserializer = new SceneDeserializer();
-      return sceneDeserializer.deserialize(reader);
+      if (SceneFormat.detect(file) == SceneFormat.BINARY) {
+        if (_lazy) {
+          return readMappedScene(file, sceneBodyFiles);
+        }
+        SceneBinaryDeserializer sceneBinaryDeserializer = new SceneBinaryDeserializer(sceneBodyFiles);
+        return sceneBinaryDeserializer.deserialize(new BufferedInputStream(new FileInputStream(file)));
+      }
+      try (BufferedReader reader = Files.newReader(file, Charset.forName(SceneSerializationConstant.FILE_CHARSET))) {
+        SceneDeserializer sceneDeserializer = new SceneDeserializer(sceneBodyFiles);
+        return sceneDeserializer.deserialize(reader);
+      }
     }
     return null;
   }
+
+  private Scene readMappedScene(File file, SceneBodyFiles sceneBodyFiles)
+      throws IOException {
+    // Mapping stays valid after channel is closed
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      FileChannel fileChannel = randomAccessFile.getChannel();
+      MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+      SceneBinaryDeserializer sceneBinaryDeserializer = new SceneBinaryDeserializer(sceneBodyFiles);
+      return sceneBinaryDeserializer.deserialize(buffer);
+    }
+  }
 }
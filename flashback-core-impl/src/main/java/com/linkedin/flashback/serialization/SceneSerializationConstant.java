@@ -24,8 +24,25 @@ public final class SceneSerializationConstant {
   static final String SCENE_TAG_BINARY_HTTPBODY = "BINARYHTTPBODY";
   static final String SCENE_TAG_ENCODED_HTTPBODY = "ENCODEDHTTPBODY";
   static final String SCENE_TAG_HTTPBODY_ENCODING = "HTTPBODYENCODING";
+  static final String SCENE_TAG_RAW_HTTPBODY = "RAWHTTPBODY";
+  static final String SCENE_TAG_FILE_HTTPBODY = "FILEHTTPBODY";
   static final String SCENE_TAG_HTTPSTATUS_CODE = "HTTPSTATUSCODE";
+  static final String SCENE_TAG_JOURNAL_BASE_SIZE = "BASESIZE";
+  static final String SCENE_TAG_JOURNAL_POSITION = "POSITION";
   static final String FILE_CHARSET = "UTF-8";
+  static final String JOURNAL_FILE_SUFFIX = ".journal";
+  static final String TEMP_FILE_SUFFIX = ".tmp";
+  static final String BODY_DIRECTORY_SUFFIX = ".bodies";
+
+  // Binary scene format, see SceneBinarySerializer
+  static final byte[] BINARY_MAGIC = {(byte) 0xFB, 'S', 'C', 'N'};
+  static final int BINARY_VERSION = 1;
+  static final byte BINARY_BODY_NONE = 0;
+  static final byte BINARY_BODY_STRING = 1;
+  static final byte BINARY_BODY_BYTES = 2;
+  static final byte BINARY_BODY_ENCODED = 3;
+  static final byte BINARY_BODY_ENCODED_RAW = 4;
+  static final byte BINARY_BODY_FILE = 5;
 
   private SceneSerializationConstant() {
   }
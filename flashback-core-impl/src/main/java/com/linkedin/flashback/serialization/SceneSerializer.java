@@ -10,7 +10,6 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.google.common.collect.Multimap;
 import com.linkedin.flashback.scene.Scene;
-import com.linkedin.flashback.serializable.RecordedByteHttpBody;
 import com.linkedin.flashback.serializable.RecordedEncodedHttpBody;
 import com.linkedin.flashback.serializable.RecordedHttpBody;
 import com.linkedin.flashback.serializable.RecordedHttpExchange;
@@ -34,6 +33,29 @@ import java.util.Map;
 public class SceneSerializer {
   private JsonGenerator _jsonGenerator;
   private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private final boolean _keepEncodedBodies;
+  private final SceneBodyFiles _sceneBodyFiles;
+
+  public SceneSerializer() {
+    this(false);
+  }
+
+  /**
+   * @param keepEncodedBodies if true, gzip or deflate encoded bodies are stored as they go over the wire
+   *                          (base64) instead of decoded, so they don't need to be compressed again after loading.
+   *                          Scene files get smaller but encoded bodies are no longer human readable.
+   * */
+  public SceneSerializer(boolean keepEncodedBodies) {
+    this(keepEncodedBodies, null);
+  }
+
+  /**
+   * @param sceneBodyFiles side-car files to store large bodies in, or null to serialize all of bodies inline
+   * */
+  SceneSerializer(boolean keepEncodedBodies, SceneBodyFiles sceneBodyFiles) {
+    _keepEncodedBodies = keepEncodedBodies;
+    _sceneBodyFiles = sceneBodyFiles;
+  }
 
   public void serialize(Scene scene, Writer writer)
       throws IOException {
@@ -46,6 +68,37 @@ public class SceneSerializer {
     _jsonGenerator.close();
   }
 
+  /**
+   * Serialize one journal entry, which stores an exchange at given position of the scene.
+   * Entries are written in compact form, one per line, so they can be appended to the journal.
+   *
+   * @param baseSize if not null, write a header first to indicate a new recording session that
+   *                 keeps only first baseSize exchanges of the scene
+   * @param position position of the exchange in the scene
+   * @param recordedHttpExchange recorded exchange
+   * @param writer writer to append to
+   */
+  public void serializeJournalEntry(Integer baseSize, int position, RecordedHttpExchange recordedHttpExchange,
+      Writer writer)
+      throws IOException {
+    _jsonGenerator = JSON_FACTORY.createGenerator(writer);
+    _jsonGenerator.setRootValueSeparator(null);
+    if (baseSize != null) {
+      _jsonGenerator.writeStartObject();
+      _jsonGenerator.writeNumberField(SceneSerializationConstant.SCENE_TAG_JOURNAL_BASE_SIZE, baseSize);
+      _jsonGenerator.writeEndObject();
+      _jsonGenerator.writeRaw('\n');
+    }
+    _jsonGenerator.writeStartObject();
+    _jsonGenerator.writeNumberField(SceneSerializationConstant.SCENE_TAG_JOURNAL_POSITION, position);
+    _jsonGenerator.writeObjectFieldStart(SceneSerializationConstant.SCENE_TAG_HTTPEXCHANGE);
+    writeHttpExchange(recordedHttpExchange);
+    _jsonGenerator.writeEndObject();
+    _jsonGenerator.writeEndObject();
+    _jsonGenerator.writeRaw('\n');
+    _jsonGenerator.close();
+  }
+
   private void writeHttpExchanges(List<RecordedHttpExchange> recordedHttpExchanges)
       throws IOException {
     _jsonGenerator.writeObjectFieldStart(SceneSerializationConstant.SCENE_TAG_HTTPEXCHANGE_LIST);
@@ -95,7 +148,7 @@ public class SceneSerializer {
       writeHttpHeaders(recordedHttpMessage.getHeaders());
     }
     if (recordedHttpMessage.hasHttpBody()) {
-      writeHttpBody(recordedHttpMessage.getHttpBody());
+      writeHttpBody(recordedHttpMessage.getHttpBody(), recordedHttpMessage.getCharset());
     }
   }
 
@@ -108,20 +161,29 @@ public class SceneSerializer {
     _jsonGenerator.writeEndObject();
   }
 
-  private void writeHttpBody(RecordedHttpBody httpBody)
+  private void writeHttpBody(RecordedHttpBody httpBody, String charset)
       throws IOException {
-    if (httpBody instanceof RecordedEncodedHttpBody) {
+    String bodyFileName = _sceneBodyFiles != null ? _sceneBodyFiles.store(httpBody) : null;
+    if (bodyFileName != null) {
+      _jsonGenerator.writeStringField(SceneSerializationConstant.SCENE_TAG_FILE_HTTPBODY, bodyFileName);
+    } else if (httpBody instanceof RecordedEncodedHttpBody) {
       _jsonGenerator.writeObjectFieldStart(SceneSerializationConstant.SCENE_TAG_ENCODED_HTTPBODY);
       _jsonGenerator.writeStringField(SceneSerializationConstant.SCENE_TAG_HTTPBODY_ENCODING,
           ((RecordedEncodedHttpBody) httpBody).getEncodingName());
-      writeHttpBody(((RecordedEncodedHttpBody) httpBody).getDecodedBody());
+      if (_keepEncodedBodies) {
+        _jsonGenerator
+            .writeBinaryField(SceneSerializationConstant.SCENE_TAG_RAW_HTTPBODY, httpBody.getContent(charset));
+      } else {
+        writeHttpBody(((RecordedEncodedHttpBody) httpBody).getDecodedBody(), charset);
+      }
       _jsonGenerator.writeEndObject();
     } else if (httpBody instanceof RecordedStringHttpBody) {
       _jsonGenerator.writeStringField(SceneSerializationConstant.SCENE_TAG_STRING_HTTPBODY,
           ((RecordedStringHttpBody) httpBody).getContent());
     } else {
-      _jsonGenerator.writeBinaryField(SceneSerializationConstant.SCENE_TAG_BINARY_HTTPBODY,
-          ((RecordedByteHttpBody) httpBody).getContent());
+      // Byte bodies, as well as file bodies that are not kept in files of this scene
+      _jsonGenerator
+          .writeBinaryField(SceneSerializationConstant.SCENE_TAG_BINARY_HTTPBODY, httpBody.getContent(charset));
     }
   }
 }
@@ -7,30 +7,125 @@ package com.linkedin.flashback.serialization;
 
 import com.google.common.io.Files;
 import com.linkedin.flashback.scene.Scene;
+import com.linkedin.flashback.serializable.RecordedHttpExchange;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.file.StandardCopyOption;
 
 
 /**
- * Write serialized scene to file.
+ * Write serialized scene to file. Existing scene files keep their format, unless a format is
+ * given explicitly. New scene files are written as json by default.
  *
  * @author shfeng
  */
 public class SceneWriter {
+  private final SceneFormat _sceneFormat;
+  private final boolean _keepEncodedBodies;
+  private final int _bodyFileThreshold;
+
+  public SceneWriter() {
+    this(null);
+  }
+
+  /**
+   * @param sceneFormat format to write scene files in, or null to keep format of existing files
+   * */
+  public SceneWriter(SceneFormat sceneFormat) {
+    this(sceneFormat, false);
+  }
+
+  /**
+   * @param sceneFormat format to write scene files in, or null to keep format of existing files
+   * @param keepEncodedBodies if true, gzip or deflate encoded bodies are written as recorded instead of decoded,
+   *                          so replaying them doesn't need to compress them again
+   * */
+  public SceneWriter(SceneFormat sceneFormat, boolean keepEncodedBodies) {
+    this(sceneFormat, keepEncodedBodies, 0);
+  }
+
+  /**
+   * @param sceneFormat format to write scene files in, or null to keep format of existing files
+   * @param keepEncodedBodies if true, gzip or deflate encoded bodies are written as recorded instead of decoded
+   * @param bodyFileThreshold binary bodies larger than this number of bytes are written to side-car files in
+   *                          "&lt;scene name&gt;.bodies" directory next to the scene file, and replayed from there
+   *                          without being loaded into memory. 0 to write all of bodies into the scene file.
+   * */
+  public SceneWriter(SceneFormat sceneFormat, boolean keepEncodedBodies, int bodyFileThreshold) {
+    if (bodyFileThreshold < 0) {
+      throw new IllegalArgumentException("body file threshold can't be negative");
+    }
+    _sceneFormat = sceneFormat;
+    _keepEncodedBodies = keepEncodedBodies;
+    _bodyFileThreshold = bodyFileThreshold;
+  }
+
   /**
    * Store scene in file
    * */
   public void writeScene(Scene scene)
       throws IOException {
     File file = new File(scene.getSceneRoot(), scene.getName());
+    createParentDirectory(file);
+    SceneFormat sceneFormat = _sceneFormat;
+    if (sceneFormat == null) {
+      sceneFormat = SceneFormat.detect(file);
+    }
+    // Write to a temporary file and move it over the scene file afterwards, so the scene file is never left
+    // half-written, and exchanges still backed by memory-mapped scene file stay readable while writing.
+    File tempFile = new File(file.getPath() + SceneSerializationConstant.TEMP_FILE_SUFFIX);
+    SceneBodyFiles sceneBodyFiles = new SceneBodyFiles(scene.getSceneRoot(), scene.getName(), _bodyFileThreshold);
+    if (sceneFormat == SceneFormat.BINARY) {
+      SceneBinarySerializer sceneBinarySerializer = new SceneBinarySerializer(_keepEncodedBodies, sceneBodyFiles);
+      sceneBinarySerializer.serialize(scene, new BufferedOutputStream(new FileOutputStream(tempFile)));
+    } else {
+      BufferedWriter bufferedWriter =
+          Files.newWriter(tempFile, Charset.forName(SceneSerializationConstant.FILE_CHARSET));
+      SceneSerializer sceneSerializer = new SceneSerializer(_keepEncodedBodies, sceneBodyFiles);
+      sceneSerializer.serialize(scene, bufferedWriter);
+    }
+    java.nio.file.Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    // Bodies of exchanges that were dropped from the scene. Files being replayed stay readable until they're closed.
+    sceneBodyFiles.deleteUnreferenced();
+  }
+
+  /**
+   * Append one recorded http exchange to the journal of the scene. Cost only depends on the size
+   * of the exchange, not on the size of the scene.
+   * @param baseSize if not null, number of exchanges the journal starts from, see
+   *                 {@link SceneSerializer#serializeJournalEntry}
+   * @param position position of the exchange in the scene
+   * */
+  public void writeJournalEntry(Scene scene, Integer baseSize, int position, RecordedHttpExchange recordedHttpExchange)
+      throws IOException {
+    File file = getJournalFile(scene.getSceneRoot(), scene.getName());
+    createParentDirectory(file);
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+        Charset.forName(SceneSerializationConstant.FILE_CHARSET)))) {
+      SceneSerializer sceneSerializer = new SceneSerializer(_keepEncodedBodies,
+          new SceneBodyFiles(scene.getSceneRoot(), scene.getName(), _bodyFileThreshold));
+      sceneSerializer.serializeJournalEntry(baseSize, position, recordedHttpExchange, writer);
+    }
+  }
+
+  /**
+   * @return journal file that belongs to the scene file
+   * */
+  static File getJournalFile(String rootPath, String name) {
+    return new File(rootPath, name + SceneSerializationConstant.JOURNAL_FILE_SUFFIX);
+  }
+
+  private static void createParentDirectory(File file) {
     File parent = file.getParentFile();
     if (!parent.exists() && !parent.mkdirs()) {
       throw new IllegalStateException("Failed to create new directory: " + parent);
     }
-    BufferedWriter bufferedWriter = Files.newWriter(file, Charset.forName(SceneSerializationConstant.FILE_CHARSET));
-    SceneSerializer sceneSerializer = new SceneSerializer();
-    sceneSerializer.serialize(scene, bufferedWriter);
   }
 }
@@ -5,18 +5,33 @@
 
 package com.linkedin.flashback;
 
+import com.linkedin.flashback.matchrules.IndexableMatchRule;
+import com.linkedin.flashback.matchrules.MatchBody;
 import com.linkedin.flashback.matchrules.MatchRule;
+import com.linkedin.flashback.matchrules.MatchRuleUtils;
 import com.linkedin.flashback.scene.Scene;
 import com.linkedin.flashback.scene.SceneConfiguration;
 import com.linkedin.flashback.scene.SceneMode;
 import com.linkedin.flashback.serializable.RecordedHttpExchange;
 import com.linkedin.flashback.serializable.RecordedHttpRequest;
 import com.linkedin.flashback.serializable.RecordedHttpResponse;
+import com.linkedin.flashback.serializable.RecordedStringHttpBody;
 import com.linkedin.flashback.serialization.SceneWriter;
 import java.io.IOException;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import org.easymock.EasyMock;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -434,4 +449,257 @@ public class SceneAccessLayerTest {
     sceneAccessLayer.flush();
     EasyMock.verify(scene, sceneWriter, recordedHttpExchange1, recordedHttpExchange2, matchRule);
   }
+
+  @Test
+  public void testIndexedPlayback() {
+    RecordedHttpRequest recordedHttpRequest1 = EasyMock.createMock(RecordedHttpRequest.class);
+    RecordedHttpRequest recordedHttpRequest2 = EasyMock.createMock(RecordedHttpRequest.class);
+    RecordedHttpRequest recordedHttpRequest3 = EasyMock.createMock(RecordedHttpRequest.class);
+    RecordedHttpResponse recordedHttpResponse3 = EasyMock.createMock(RecordedHttpResponse.class);
+    RecordedHttpRequest incomingHttpRequest = EasyMock.createMock(RecordedHttpRequest.class);
+
+    List<RecordedHttpExchange> recordedHttpExchangeList = new ArrayList<>();
+    recordedHttpExchangeList.add(new RecordedHttpExchange(recordedHttpRequest1, null, null));
+    recordedHttpExchangeList.add(new RecordedHttpExchange(recordedHttpRequest2, null, null));
+    recordedHttpExchangeList.add(new RecordedHttpExchange(recordedHttpRequest3, recordedHttpResponse3, null));
+    Scene scene = new Scene(SCENE_NAME, SceneMode.PLAYBACK, ROOT_PATH, recordedHttpExchangeList);
+
+    // Only recorded requests in the same bucket as incoming request are tested
+    IndexableMatchRule matchRule = EasyMock.createMock(IndexableMatchRule.class);
+    EasyMock.expect(matchRule.getMatchKey(recordedHttpRequest1)).andReturn("a");
+    EasyMock.expect(matchRule.getMatchKey(recordedHttpRequest2)).andReturn("b");
+    EasyMock.expect(matchRule.getMatchKey(recordedHttpRequest3)).andReturn("a");
+    EasyMock.expect(matchRule.getMatchKey(incomingHttpRequest)).andReturn("a").times(2);
+    EasyMock.expect(matchRule.test(incomingHttpRequest, recordedHttpRequest1)).andReturn(false).times(2);
+    EasyMock.expect(matchRule.test(incomingHttpRequest, recordedHttpRequest3)).andReturn(true).times(2);
+    EasyMock.replay(matchRule);
+
+    SceneAccessLayer sceneAccessLayer =
+        new SceneAccessLayer(scene, EasyMock.createStrictMock(SceneWriter.class), matchRule);
+    Assert.assertTrue(sceneAccessLayer.hasMatchRequest(incomingHttpRequest));
+    Assert.assertEquals(sceneAccessLayer.playback(incomingHttpRequest), recordedHttpResponse3);
+    EasyMock.verify(matchRule);
+  }
+
+  @Test
+  public void testIndexedRecord()
+      throws URISyntaxException {
+    Scene scene = new Scene(new SceneConfiguration(ROOT_PATH, SceneMode.RECORD, SCENE_NAME));
+    SceneAccessLayer sceneAccessLayer =
+        new SceneAccessLayer(scene, EasyMock.createStrictMock(SceneWriter.class), MatchRuleUtils.matchMethodUri());
+    RecordedHttpRequest request1 = new RecordedHttpRequest("GET", new URI("http://www.example.org/1"), null, null);
+    RecordedHttpRequest request2 = new RecordedHttpRequest("GET", new URI("http://www.example.org/2"), null, null);
+    RecordedHttpRequest request3 = new RecordedHttpRequest("POST", new URI("http://www.example.org/1"), null, null);
+    RecordedHttpRequest request2Again =
+        new RecordedHttpRequest("GET", new URI("http://www.example.org:80/2"), null, null);
+    RecordedHttpResponse response1 = new RecordedHttpResponse(200, null, null);
+    RecordedHttpResponse response2 = new RecordedHttpResponse(201, null, null);
+    RecordedHttpResponse response3 = new RecordedHttpResponse(202, null, null);
+    RecordedHttpResponse response4 = new RecordedHttpResponse(203, null, null);
+
+    sceneAccessLayer.record(request1, response1);
+    sceneAccessLayer.record(request2, response2);
+    Assert.assertFalse(sceneAccessLayer.hasMatchRequest(request3));
+    sceneAccessLayer.record(request3, response3);
+    Assert.assertTrue(sceneAccessLayer.hasMatchRequest(request3));
+    sceneAccessLayer.record(request2Again, response4);
+
+    List<RecordedHttpExchange> recordedHttpExchangeList = scene.getRecordedHttpExchangeList();
+    Assert.assertEquals(recordedHttpExchangeList.size(), 3);
+    Assert.assertEquals(recordedHttpExchangeList.get(1).getRecordedHttpRequest(), request2Again);
+    Assert.assertEquals(recordedHttpExchangeList.get(1).getRecordedHttpResponse(), response4);
+    Assert.assertEquals(recordedHttpExchangeList.get(2).getRecordedHttpResponse(), response3);
+  }
+
+  @Test
+  public void testJournaledRecord()
+      throws IOException, URISyntaxException {
+    Scene scene = new Scene(new SceneConfiguration(ROOT_PATH, SceneMode.RECORD, SCENE_NAME));
+    SceneWriter sceneWriter = EasyMock.createStrictMock(SceneWriter.class);
+    SceneAccessLayer sceneAccessLayer =
+        new SceneAccessLayer(scene, sceneWriter, MatchRuleUtils.matchMethodUri(), true);
+    RecordedHttpRequest request1 = new RecordedHttpRequest("GET", new URI("http://www.example.org/1"), null, null);
+    RecordedHttpRequest request2 = new RecordedHttpRequest("GET", new URI("http://www.example.org/2"), null, null);
+    RecordedHttpResponse response1 = new RecordedHttpResponse(200, null, null);
+    RecordedHttpResponse response2 = new RecordedHttpResponse(201, null, null);
+    RecordedHttpResponse response3 = new RecordedHttpResponse(202, null, null);
+
+    sceneWriter.writeJournalEntry(EasyMock.same(scene), EasyMock.eq(0), EasyMock.eq(0),
+        EasyMock.anyObject(RecordedHttpExchange.class));
+    EasyMock.expectLastCall();
+    sceneWriter.writeJournalEntry(EasyMock.same(scene), EasyMock.isNull(Integer.class), EasyMock.eq(1),
+        EasyMock.anyObject(RecordedHttpExchange.class));
+    EasyMock.expectLastCall();
+    sceneWriter.writeJournalEntry(EasyMock.same(scene), EasyMock.isNull(Integer.class), EasyMock.eq(0),
+        EasyMock.anyObject(RecordedHttpExchange.class));
+    EasyMock.expectLastCall();
+    EasyMock.replay(sceneWriter);
+
+    sceneAccessLayer.record(request1, response1);
+    sceneAccessLayer.record(request2, response2);
+    sceneAccessLayer.record(request1, response3);
+    // Nothing left to write
+    sceneAccessLayer.flush();
+
+    EasyMock.verify(sceneWriter);
+    Assert.assertEquals(scene.getRecordedHttpExchangeList().size(), 2);
+    Assert.assertEquals(scene.getRecordedHttpExchangeList().get(0).getRecordedHttpResponse(), response3);
+  }
+
+  @Test
+  public void testConcurrentRecord()
+      throws Exception {
+    final int threads = 8;
+    final int requestsPerThread = 200;
+    Scene scene = new Scene(new SceneConfiguration(ROOT_PATH, SceneMode.RECORD, SCENE_NAME));
+    final SceneAccessLayer sceneAccessLayer =
+        new SceneAccessLayer(scene, EasyMock.createNiceMock(SceneWriter.class), MatchRuleUtils.matchMethodUri());
+    // Every thread records its own requests, and re-records a shared one that must not be duplicated
+    final RecordedHttpRequest sharedRequest =
+        new RecordedHttpRequest("GET", new URI("http://www.example.org/shared"), null, null);
+    runConcurrently(threads, thread -> {
+      for (int i = 0; i < requestsPerThread; i++) {
+        RecordedHttpRequest request =
+            new RecordedHttpRequest("GET", new URI("http://www.example.org/" + thread + "/" + i), null, null);
+        sceneAccessLayer.record(request, new RecordedHttpResponse(200, null, null));
+        sceneAccessLayer.record(sharedRequest, new RecordedHttpResponse(200, null, null));
+        Assert.assertTrue(sceneAccessLayer.hasMatchRequest(request));
+      }
+    });
+
+    List<RecordedHttpExchange> recordedHttpExchangeList = scene.getRecordedHttpExchangeList();
+    Assert.assertEquals(recordedHttpExchangeList.size(), threads * requestsPerThread + 1);
+    Set<URI> uris = new HashSet<>();
+    for (RecordedHttpExchange recordedHttpExchange : recordedHttpExchangeList) {
+      uris.add(recordedHttpExchange.getRecordedHttpRequest().getUri());
+    }
+    Assert.assertEquals(uris.size(), threads * requestsPerThread + 1);
+  }
+
+  @Test
+  public void testConcurrentSequentialPlayback()
+      throws Exception {
+    final int threads = 8;
+    final int exchanges = 2000;
+    RecordedHttpRequest request = new RecordedHttpRequest("GET", new URI("http://www.example.org/"), null, null);
+    List<RecordedHttpExchange> recordedHttpExchangeList = new ArrayList<>();
+    for (int i = 0; i < exchanges; i++) {
+      recordedHttpExchangeList.add(
+          new RecordedHttpExchange(request, new RecordedHttpResponse(i, null, null), new Date()));
+    }
+    Scene scene = new Scene(SCENE_NAME, SceneMode.SEQUENTIAL_PLAYBACK, ROOT_PATH, recordedHttpExchangeList);
+    final SceneAccessLayer sceneAccessLayer =
+        new SceneAccessLayer(scene, EasyMock.createNiceMock(SceneWriter.class), MatchRuleUtils.matchEntireRequest());
+    final ConcurrentLinkedQueue<Integer> servedStatuses = new ConcurrentLinkedQueue<>();
+    runConcurrently(threads, thread -> {
+      while (true) {
+        try {
+          servedStatuses.add(sceneAccessLayer.playback(request).getStatus());
+        } catch (IllegalStateException e) {
+          Assert.assertEquals(e.getMessage(), SceneAccessLayer.NO_MATCHING_RECORDING_FOUND);
+          return;
+        }
+      }
+    });
+
+    // Every recorded response is served exactly once
+    List<Integer> statuses = new ArrayList<>(servedStatuses);
+    Collections.sort(statuses);
+    Assert.assertEquals(statuses.size(), exchanges);
+    for (int i = 0; i < exchanges; i++) {
+      Assert.assertEquals(statuses.get(i).intValue(), i);
+    }
+  }
+
+  @Test
+  public void testConcurrentSequentialTryPlayback()
+      throws Exception {
+    final int threads = 8;
+    final int exchanges = 2000;
+    RecordedHttpRequest request = new RecordedHttpRequest("GET", new URI("http://www.example.org/"), null, null);
+    List<RecordedHttpExchange> recordedHttpExchangeList = new ArrayList<>();
+    for (int i = 0; i < exchanges; i++) {
+      recordedHttpExchangeList.add(
+          new RecordedHttpExchange(request, new RecordedHttpResponse(i, null, null), new Date()));
+    }
+    Scene scene = new Scene(SCENE_NAME, SceneMode.SEQUENTIAL_PLAYBACK, ROOT_PATH, recordedHttpExchangeList);
+    final SceneAccessLayer sceneAccessLayer =
+        new SceneAccessLayer(scene, EasyMock.createNiceMock(SceneWriter.class), MatchRuleUtils.matchEntireRequest());
+    final ConcurrentLinkedQueue<Integer> servedStatuses = new ConcurrentLinkedQueue<>();
+    // Misses come back as null, never as an exception, however threads race for the cursor
+    runConcurrently(threads, thread -> {
+      RecordedHttpResponse response;
+      while ((response = sceneAccessLayer.tryPlayback(request)) != null) {
+        servedStatuses.add(response.getStatus());
+      }
+    });
+
+    List<Integer> statuses = new ArrayList<>(servedStatuses);
+    Collections.sort(statuses);
+    Assert.assertEquals(statuses.size(), exchanges);
+    for (int i = 0; i < exchanges; i++) {
+      Assert.assertEquals(statuses.get(i).intValue(), i);
+    }
+  }
+
+  private interface ThreadBody {
+    void run(int thread)
+        throws Exception;
+  }
+
+  private static void runConcurrently(int threads, ThreadBody threadBody)
+      throws Exception {
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    try {
+      CountDownLatch startLatch = new CountDownLatch(1);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        final int thread = i;
+        futures.add(executorService.submit(() -> {
+          startLatch.await();
+          threadBody.run(thread);
+          return null;
+        }));
+      }
+      startLatch.countDown();
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testParallelScanPlayback()
+      throws URISyntaxException {
+    List<RecordedHttpExchange> recordedHttpExchangeList = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      String body = i == 3000 || i == 4000 ? "target" : i == 10 || i == 2000 ? "early" : "body" + i;
+      RecordedHttpRequest recordedHttpRequest =
+          new RecordedHttpRequest("POST", new URI("http://www.example.org/"), null, new RecordedStringHttpBody(body));
+      recordedHttpExchangeList.add(
+          new RecordedHttpExchange(recordedHttpRequest, new RecordedHttpResponse(i, null, null), new Date()));
+    }
+    Scene scene = new Scene(SCENE_NAME, SceneMode.PLAYBACK, ROOT_PATH, recordedHttpExchangeList);
+    SceneAccessLayer sceneAccessLayer =
+        new SceneAccessLayer(scene, EasyMock.createStrictMock(SceneWriter.class), new MatchBody());
+    ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+    URI uri = new URI("http://www.example.org/");
+    try {
+      sceneAccessLayer.setParallelScan(forkJoinPool, 1000);
+      RecordedHttpRequest incomingHttpRequest =
+          new RecordedHttpRequest("POST", uri, null, new RecordedStringHttpBody("target"));
+      Assert.assertEquals(sceneAccessLayer.playback(incomingHttpRequest).getStatus(), 3000);
+      // Calling thread's own range holds this match
+      RecordedHttpRequest earlyHttpRequest =
+          new RecordedHttpRequest("POST", uri, null, new RecordedStringHttpBody("early"));
+      Assert.assertEquals(sceneAccessLayer.playback(earlyHttpRequest).getStatus(), 10);
+      RecordedHttpRequest unmatchedHttpRequest =
+          new RecordedHttpRequest("POST", uri, null, new RecordedStringHttpBody("none"));
+      Assert.assertFalse(sceneAccessLayer.hasMatchRequest(unmatchedHttpRequest));
+    } finally {
+      forkJoinPool.shutdown();
+    }
+  }
 }
@@ -46,4 +46,104 @@ public class CompositeMatchRuleTest {
 
     Assert.assertFalse(compositeMatchRule.test(recordedHttpRequest1, recordedHttpRequest2));
   }
+
+  @Test
+  public void testMatchKey()
+      throws Exception {
+    RecordedHttpRequest recordedHttpRequest1 = new RecordedHttpRequest("get", new URI("google.com"), null, null);
+    RecordedHttpRequest recordedHttpRequest2 = new RecordedHttpRequest("get", new URI("google.com"), null, null);
+    RecordedHttpRequest recordedHttpRequest3 = new RecordedHttpRequest("post", new URI("google.com"), null, null);
+
+    CompositeMatchRule compositeMatchRule = new CompositeMatchRule();
+    compositeMatchRule.addRule(new MatchUri());
+    compositeMatchRule.addRule(new MatchMethod());
+    compositeMatchRule.addRule(new MatchBody());
+
+    Assert.assertNotNull(compositeMatchRule.getMatchKey(recordedHttpRequest1));
+    Assert.assertEquals(compositeMatchRule.getMatchKey(recordedHttpRequest1),
+        compositeMatchRule.getMatchKey(recordedHttpRequest2));
+    Assert.assertNotEquals(compositeMatchRule.getMatchKey(recordedHttpRequest1),
+        compositeMatchRule.getMatchKey(recordedHttpRequest3));
+  }
+
+  @Test
+  public void testNoMatchKeyWithoutIndexableRule()
+      throws Exception {
+    RecordedHttpRequest recordedHttpRequest = new RecordedHttpRequest("get", new URI("google.com"), null, null);
+
+    CompositeMatchRule compositeMatchRule = new CompositeMatchRule();
+    compositeMatchRule.addRule(new MatchBody());
+    compositeMatchRule.addRule(new MatchHeaders());
+
+    Assert.assertNull(compositeMatchRule.getMatchKey(recordedHttpRequest));
+  }
+
+  @Test
+  public void testCheapRuleTestedFirst()
+      throws Exception {
+    RecordedHttpRequest recordedHttpRequest1 = new RecordedHttpRequest("get", new URI("google.com"), null, null);
+    RecordedHttpRequest recordedHttpRequest2 = new RecordedHttpRequest("post", new URI("google.com"), null, null);
+
+    // Dummy rule throws when tested, so it must not be reached once method doesn't match
+    CompositeMatchRule compositeMatchRule = new CompositeMatchRule();
+    compositeMatchRule.addRule(new DummyMatchRule());
+    compositeMatchRule.addRule(new MatchMethod());
+
+    Assert.assertFalse(compositeMatchRule.test(recordedHttpRequest1, recordedHttpRequest2));
+    Assert.assertTrue(compositeMatchRule.getRuleStatistics().get(0).getMatchRule() instanceof MatchMethod);
+    // Counters are only kept when reordering adaptively
+    Assert.assertEquals(compositeMatchRule.getRuleStatistics().get(0).getTestCount(), 0);
+
+    CompositeMatchRule adaptiveCompositeMatchRule = new CompositeMatchRule(100);
+    adaptiveCompositeMatchRule.addRule(new DummyMatchRule());
+    adaptiveCompositeMatchRule.addRule(new MatchMethod());
+    Assert.assertFalse(adaptiveCompositeMatchRule.test(recordedHttpRequest1, recordedHttpRequest2));
+    Assert.assertEquals(adaptiveCompositeMatchRule.getRuleStatistics().get(0).getRejectionCount(), 1);
+    Assert.assertEquals(adaptiveCompositeMatchRule.getRuleStatistics().get(1).getTestCount(), 0);
+  }
+
+  @Test
+  public void testAdaptiveReorder()
+      throws Exception {
+    RecordedHttpRequest recordedHttpRequest = new RecordedHttpRequest("get", new URI("google.com"), null, null);
+    MatchRule neverRejects = new FixedResultMatchRule(10, true);
+    MatchRule alwaysRejects = new FixedResultMatchRule(20, false);
+
+    CompositeMatchRule compositeMatchRule = new CompositeMatchRule(10);
+    compositeMatchRule.addRule(neverRejects);
+    compositeMatchRule.addRule(alwaysRejects);
+    Assert.assertSame(compositeMatchRule.getRuleStatistics().get(0).getMatchRule(), neverRejects);
+
+    for (int i = 0; i < 10; i++) {
+      Assert.assertFalse(compositeMatchRule.test(recordedHttpRequest, recordedHttpRequest));
+    }
+    Assert.assertSame(compositeMatchRule.getRuleStatistics().get(0).getMatchRule(), alwaysRejects);
+    Assert.assertEquals(compositeMatchRule.getRuleStatistics().get(0).getRejectionRate(), 1.0);
+  }
+
+  private static class FixedResultMatchRule extends BaseMatchRule {
+    private final int _cost;
+    private final boolean _result;
+
+    FixedResultMatchRule(int cost, boolean result) {
+      _cost = cost;
+      _result = result;
+    }
+
+    @Override
+    public boolean test(RecordedHttpRequest incomingRequest, RecordedHttpRequest expectedRequest) {
+      return _result;
+    }
+
+    @Override
+    public int getCost() {
+      return _cost;
+    }
+
+    @Override
+    public String getMatchFailureDescriptionForRequests(RecordedHttpRequest incomingRequest,
+        RecordedHttpRequest expectedRequest) {
+      return "Fixed result";
+    }
+  }
 }
@@ -5,9 +5,11 @@
 
 package com.linkedin.flashback.matchrules;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.net.HttpHeaders;
+import com.linkedin.flashback.serializable.RecordedByteHttpBody;
 import com.linkedin.flashback.serializable.RecordedHttpRequest;
 import com.linkedin.flashback.serializable.RecordedStringHttpBody;
 import java.util.HashMap;
@@ -83,4 +85,15 @@ public class MatchBodyTest {
     MatchRule matchRule = new MatchBody();
     Assert.assertFalse(matchRule.test(recordedHttpRequest1, recordedHttpRequest2));
   }
+
+  @Test
+  public void testBodyDigest() {
+    RecordedHttpRequest request1 = new RecordedHttpRequest(null, null, null, new RecordedStringHttpBody("abc"));
+    RecordedHttpRequest request2 =
+        new RecordedHttpRequest(null, null, null, new RecordedByteHttpBody("abc".getBytes(Charsets.UTF_8)));
+    RecordedHttpRequest request3 = new RecordedHttpRequest(null, null, null, new RecordedStringHttpBody("abd"));
+    Assert.assertEquals(MatchBody.getBodyDigest(request1), MatchBody.getBodyDigest(request2));
+    Assert.assertNotEquals(MatchBody.getBodyDigest(request1), MatchBody.getBodyDigest(request3));
+    Assert.assertSame(MatchBody.getBodyDigest(request1), MatchBody.getBodyDigest(request1));
+  }
 }
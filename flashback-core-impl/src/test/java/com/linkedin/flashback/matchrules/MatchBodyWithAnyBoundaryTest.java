@@ -1,5 +1,6 @@
 package com.linkedin.flashback.matchrules;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.net.HttpHeaders;
@@ -118,4 +119,84 @@ public class MatchBodyWithAnyBoundaryTest {
     MatchRule matchRule = new MatchBodyWithAnyBoundary();
     Assert.assertFalse(matchRule.test(recordedHttpRequest1, recordedHttpRequest2));
   }
+
+  @Test
+  public void testBodyMatchForMultipartDataWithRegexBoundary() {
+    RecordedHttpBody incomingHttpBody = new RecordedStringHttpBody("--a+b.c*\nname=\"org\"\nMMM\n--a+b.c*--");
+    RecordedHttpBody expectedHttpBody = new RecordedStringHttpBody("--xyz$1\nname=\"org\"\nMMM\n--xyz$1--");
+    Multimap<String, String> headers1 = LinkedHashMultimap.create();
+    headers1.put(HttpHeaders.CONTENT_TYPE, "multipart/form-data; boundary=a+b.c*");
+    Multimap<String, String> headers2 = LinkedHashMultimap.create();
+    headers2.put(HttpHeaders.CONTENT_TYPE, "multipart/form-data; boundary=xyz$1");
+
+    RecordedHttpRequest recordedHttpRequest1 = new RecordedHttpRequest(null, null, headers1, incomingHttpBody);
+    RecordedHttpRequest recordedHttpRequest2 = new RecordedHttpRequest(null, null, headers2, expectedHttpBody);
+    MatchBodyWithAnyBoundary matchRule = new MatchBodyWithAnyBoundary();
+    Assert.assertTrue(matchRule.test(recordedHttpRequest1, recordedHttpRequest2));
+  }
+
+  @Test
+  public void testBodyNotMatchForMultipartDataWithDifferentPart() {
+    RecordedHttpBody incomingHttpBody = new RecordedStringHttpBody("--wxyz\nname=\"org\"\nMMM\n--wxyz--");
+    RecordedHttpBody expectedHttpBody = new RecordedStringHttpBody("--abcd\nname=\"org\"\nMMN\n--abcd--");
+    Multimap<String, String> headers1 = LinkedHashMultimap.create();
+    headers1.put(HttpHeaders.CONTENT_TYPE, "multipart/form-data; boundary=wxyz");
+    Multimap<String, String> headers2 = LinkedHashMultimap.create();
+    headers2.put(HttpHeaders.CONTENT_TYPE, "multipart/form-data; boundary=abcd");
+
+    RecordedHttpRequest recordedHttpRequest1 = new RecordedHttpRequest(null, null, headers1, incomingHttpBody);
+    RecordedHttpRequest recordedHttpRequest2 = new RecordedHttpRequest(null, null, headers2, expectedHttpBody);
+    MatchBodyWithAnyBoundary matchRule = new MatchBodyWithAnyBoundary();
+    Assert.assertFalse(matchRule.test(recordedHttpRequest1, recordedHttpRequest2));
+  }
+
+  @Test
+  public void testBodyMatchForOnlyOneMultipartRequest() {
+    RecordedHttpBody incomingHttpBody = new RecordedStringHttpBody("--wxyz\nname=\"org\"\nMMM\n--wxyz--");
+    RecordedHttpBody expectedHttpBody = new RecordedStringHttpBody("--wxyz\nname=\"org\"\nMMM\n--wxyz--");
+    Multimap<String, String> headers1 = LinkedHashMultimap.create();
+    headers1.put(HttpHeaders.CONTENT_TYPE, "multipart/form-data; boundary=wxyz");
+    Multimap<String, String> headers2 = LinkedHashMultimap.create();
+    headers2.put(HttpHeaders.CONTENT_TYPE, "text/plain");
+
+    RecordedHttpRequest recordedHttpRequest1 = new RecordedHttpRequest(null, null, headers1, incomingHttpBody);
+    RecordedHttpRequest recordedHttpRequest2 = new RecordedHttpRequest(null, null, headers2, expectedHttpBody);
+    MatchBodyWithAnyBoundary matchRule = new MatchBodyWithAnyBoundary();
+    Assert.assertTrue(matchRule.test(recordedHttpRequest1, recordedHttpRequest2));
+    Assert.assertTrue(matchRule.test(recordedHttpRequest2, recordedHttpRequest1));
+    // Multipart request has no key, so it's tested against every request
+    Assert.assertNull(matchRule.getMatchKey(recordedHttpRequest1));
+    Assert.assertNotNull(matchRule.getMatchKey(recordedHttpRequest2));
+
+    RecordedHttpRequest otherRequest = new RecordedHttpRequest(null, null, headers2,
+        new RecordedStringHttpBody("--abcd\nname=\"org\"\nMMM\n--abcd--"));
+    Assert.assertFalse(matchRule.test(recordedHttpRequest1, otherRequest));
+  }
+
+  @Test
+  public void testMatchKeyForNonMultipartRequests() {
+    RecordedHttpRequest recordedHttpRequest1 =
+        new RecordedHttpRequest(null, null, LinkedHashMultimap.create(), new RecordedStringHttpBody("abc"));
+    RecordedHttpRequest recordedHttpRequest2 =
+        new RecordedHttpRequest(null, null, LinkedHashMultimap.create(), new RecordedStringHttpBody("abc"));
+    RecordedHttpRequest recordedHttpRequest3 =
+        new RecordedHttpRequest(null, null, LinkedHashMultimap.create(), new RecordedStringHttpBody("abd"));
+    MatchBodyWithAnyBoundary matchRule = new MatchBodyWithAnyBoundary();
+    Assert.assertEquals(matchRule.getMatchKey(recordedHttpRequest1), matchRule.getMatchKey(recordedHttpRequest2));
+    Assert.assertNotEquals(matchRule.getMatchKey(recordedHttpRequest1), matchRule.getMatchKey(recordedHttpRequest3));
+  }
+
+  @Test
+  public void testEqualsWithAnyBoundary() {
+    byte[] boundary1 = "ab".getBytes(Charsets.UTF_8);
+    byte[] boundary2 = "xyz".getBytes(Charsets.UTF_8);
+    Assert.assertTrue(MatchBodyWithAnyBoundary.equalsWithAnyBoundary("1ab2ab".getBytes(Charsets.UTF_8), boundary1,
+        "1xyz2xyz".getBytes(Charsets.UTF_8), boundary2));
+    Assert.assertFalse(MatchBodyWithAnyBoundary.equalsWithAnyBoundary("1ab2ab".getBytes(Charsets.UTF_8), boundary1,
+        "1xyz2xy".getBytes(Charsets.UTF_8), boundary2));
+    Assert.assertFalse(MatchBodyWithAnyBoundary.equalsWithAnyBoundary("1ab2".getBytes(Charsets.UTF_8), boundary1,
+        "1ab2".getBytes(Charsets.UTF_8), boundary2));
+    Assert.assertTrue(MatchBodyWithAnyBoundary.equalsWithAnyBoundary("1ab2".getBytes(Charsets.UTF_8), null,
+        "1ab2".getBytes(Charsets.UTF_8), null));
+  }
 }
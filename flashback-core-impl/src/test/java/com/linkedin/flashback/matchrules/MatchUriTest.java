@@ -8,6 +8,8 @@ package com.linkedin.flashback.matchrules;
 import com.linkedin.flashback.serializable.RecordedHttpRequest;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -60,4 +62,78 @@ public class MatchUriTest {
     MatchRule matchRule = new MatchUri();
     Assert.assertFalse(matchRule.test(recordedHttpRequest1, recordedHttpRequest2));
   }
+
+  @Test
+  public void testMatchKeyDefaultPort()
+      throws Exception {
+    RecordedHttpRequest recordedHttpRequest1 = new RecordedHttpRequest(null, new URI("http://www.example.org/"), null, null);
+    RecordedHttpRequest recordedHttpRequest2 = new RecordedHttpRequest(null, new URI("http://www.example.org:80/"), null, null);
+    RecordedHttpRequest recordedHttpRequest3 = new RecordedHttpRequest(null, new URI("http://www.example.org:8080/"), null, null);
+    IndexableMatchRule matchRule = new MatchUri();
+    Assert.assertEquals(matchRule.getMatchKey(recordedHttpRequest1), matchRule.getMatchKey(recordedHttpRequest2));
+    Assert.assertNotEquals(matchRule.getMatchKey(recordedHttpRequest1), matchRule.getMatchKey(recordedHttpRequest3));
+  }
+
+  @Test
+  public void testMatchKeyWithQueryBlacklist()
+      throws Exception {
+    RecordedHttpRequest recordedHttpRequest1 =
+        new RecordedHttpRequest(null, new URI("http://www.example.org/?a=1&time=100"), null, null);
+    RecordedHttpRequest recordedHttpRequest2 =
+        new RecordedHttpRequest(null, new URI("http://www.example.org:80/?a=1&time=200"), null, null);
+    IndexableMatchRule matchRule =
+        new MatchUriWithQueryTransform(new MatchRuleBlacklistTransform(Collections.singleton("time")));
+    Assert.assertTrue(matchRule.test(recordedHttpRequest1, recordedHttpRequest2));
+    Assert.assertEquals(matchRule.getMatchKey(recordedHttpRequest1), matchRule.getMatchKey(recordedHttpRequest2));
+  }
+
+  @Test
+  public void testEqualRulesShareMatchKeys()
+      throws URISyntaxException {
+    AtomicInteger transformCount = new AtomicInteger();
+    MatchRuleMapTransform transform = map -> {
+      transformCount.incrementAndGet();
+      return map;
+    };
+    RecordedHttpRequest recordedHttpRequest =
+        new RecordedHttpRequest(null, new URI("http://www.example.org/?a=b"), null, null);
+    new MatchUriWithQueryTransform(transform).getMatchKey(recordedHttpRequest);
+    new MatchUriWithQueryTransform(transform).getMatchKey(recordedHttpRequest);
+    Assert.assertEquals(transformCount.get(), 1);
+
+    // Rules that work out keys differently don't share them
+    Object matchKey = new MatchUri().getMatchKey(recordedHttpRequest);
+    Assert.assertEquals(matchKey, new URI("http://www.example.org:80/?a=b"));
+    Assert.assertNotEquals(new MatchUriWithQueryTransform(new MatchRuleBlacklistTransform(Collections.singleton("a")))
+        .getMatchKey(recordedHttpRequest), matchKey);
+  }
+
+  @Test
+  public void testDifferentlyConfiguredRulesDontShareMatchKeys()
+      throws URISyntaxException {
+    RecordedHttpRequest recordedHttpRequest =
+        new RecordedHttpRequest(null, new URI("http://www.example.org/path"), null, null);
+    Assert.assertEquals(new PathPrefixMatchUri("/a").getMatchKey(recordedHttpRequest),
+        new URI("http://www.example.org/a/path"));
+    Assert.assertEquals(new PathPrefixMatchUri("/b").getMatchKey(recordedHttpRequest),
+        new URI("http://www.example.org/b/path"));
+    Assert.assertEquals(new PathPrefixMatchUri("/a").getMatchKey(recordedHttpRequest),
+        new URI("http://www.example.org/a/path"));
+  }
+
+  /**
+   * Rule whose state decides how URIs are turned into keys, without passing it anywhere
+   * */
+  private static class PathPrefixMatchUri extends MatchUri {
+    private final String _pathPrefix;
+
+    PathPrefixMatchUri(String pathPrefix) {
+      _pathPrefix = pathPrefix;
+    }
+
+    @Override
+    protected URI getUriMatchKey(URI uri) {
+      return URI.create(uri.getScheme() + "://" + uri.getHost() + _pathPrefix + uri.getPath());
+    }
+  }
 }
@@ -40,4 +40,20 @@ public class RecordedEncodedHttpBodyTest {
     Assert.assertTrue(decodedBody instanceof RecordedStringHttpBody);
     Assert.assertEquals(((RecordedStringHttpBody) decodedBody).getContent(), str);
   }
+
+  @Test
+  public void testDecodeLazily()
+      throws Exception {
+    RecordedEncodedHttpBody recordedEncodedHttpBody =
+        new RecordedEncodedHttpBody("not gzip".getBytes(), "gzip", "UTF-8", "text/html");
+    // Wire bytes are replayed as is, they're only decoded once the decoded body is asked for
+    Assert.assertTrue(recordedEncodedHttpBody.hasEncodedContent());
+    Assert.assertEquals(recordedEncodedHttpBody.getContent("UTF-8"), "not gzip".getBytes());
+    try {
+      recordedEncodedHttpBody.getDecodedBody();
+      Assert.fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
 }
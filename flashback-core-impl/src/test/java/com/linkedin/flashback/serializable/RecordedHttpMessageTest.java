@@ -9,11 +9,15 @@ import com.google.common.base.Charsets;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.net.HttpHeaders;
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -54,4 +58,63 @@ public class RecordedHttpMessageTest {
     RecordedHttpRequest recordedHttpRequest = new RecordedHttpRequest("GET", new URI("google.com"), headers, null);
     Assert.assertEquals(recordedHttpRequest.getContentType(), "text/html");
   }
+
+  @Test
+  public void testGetMatchFeatureComputedOnce()
+      throws URISyntaxException {
+    RecordedHttpRequest recordedHttpRequest = new RecordedHttpRequest("GET", new URI("google.com"), null, null);
+    Object key = new Object();
+    AtomicInteger count = new AtomicInteger();
+    Assert.assertEquals(recordedHttpRequest.getMatchFeature(key, r -> count.incrementAndGet()), Integer.valueOf(1));
+    Assert.assertEquals(recordedHttpRequest.getMatchFeature(key, r -> count.incrementAndGet()), Integer.valueOf(1));
+    Assert.assertEquals(recordedHttpRequest.getMatchFeature(new Object(), r -> count.incrementAndGet()),
+        Integer.valueOf(2));
+  }
+
+  @Test
+  public void testGetNullMatchFeatureComputedOnce()
+      throws URISyntaxException {
+    RecordedHttpRequest recordedHttpRequest = new RecordedHttpRequest("GET", new URI("google.com"), null, null);
+    Object key = new Object();
+    AtomicInteger count = new AtomicInteger();
+    Assert.assertNull(recordedHttpRequest.getMatchFeature(key, r -> count.incrementAndGet() > 0 ? null : "x"));
+    Assert.assertNull(recordedHttpRequest.getMatchFeature(key, r -> count.incrementAndGet() > 0 ? null : "x"));
+    Assert.assertEquals(count.get(), 1);
+  }
+
+  @Test
+  public void testEqualityUnaffectedByContentLengthUpdate() {
+    Multimap<String, String> headers = LinkedHashMultimap.create();
+    headers.put(HttpHeaders.CONTENT_LENGTH, "0");
+    RecordedHttpBody body = new RecordedEncodedHttpBody(new RecordedStringHttpBody("abc"), "gzip");
+    RecordedHttpResponse response1 = new RecordedHttpResponse(200, headers, body);
+    RecordedHttpResponse response2 = new RecordedHttpResponse(200, headers, body);
+    Assert.assertEquals(response1, response2);
+
+    // Content-Length of an encoded body is only worked out when headers are asked for
+    Assert.assertTrue(response1.getHeaders().containsKey(HttpHeaders.CONTENT_LENGTH));
+    Assert.assertEquals(response1, response2);
+    Assert.assertEquals(response1.hashCode(), response2.hashCode());
+  }
+
+  @Test
+  public void testContentLengthOfFileBodyWithoutReadingFile()
+      throws IOException {
+    File file = File.createTempFile("flashback-body-", ".tmp");
+    try {
+      Files.write(file.toPath(), new byte[1234]);
+      RecordedHttpBody body = new RecordedFileHttpBody(file) {
+        @Override
+        public byte[] getContent(String charSet) {
+          throw new AssertionError("file body must not be read to tell its length");
+        }
+      };
+      Multimap<String, String> headers = LinkedHashMultimap.create();
+      headers.put(HttpHeaders.CONTENT_LENGTH, "0");
+      RecordedHttpResponse response = new RecordedHttpResponse(200, headers, body);
+      Assert.assertTrue(response.getHeaders().get(HttpHeaders.CONTENT_LENGTH).contains("1234"));
+    } finally {
+      Assert.assertTrue(file.delete());
+    }
+  }
 }
@@ -8,11 +8,14 @@ package com.linkedin.flashback.serialization;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 import com.linkedin.flashback.scene.Scene;
+import com.linkedin.flashback.decorator.compression.GzipCompressor;
 import com.linkedin.flashback.serializable.RecordedByteHttpBody;
+import com.linkedin.flashback.serializable.RecordedEncodedHttpBody;
 import com.linkedin.flashback.serializable.RecordedHttpExchange;
 import com.linkedin.flashback.serializable.RecordedHttpRequest;
 import com.linkedin.flashback.serializable.RecordedHttpResponse;
 import com.linkedin.flashback.serializable.RecordedStringHttpBody;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -212,4 +215,24 @@ public class MockDataGenerator {
         + "        \"HTTPURI\" : \"https://www.yahoo.com\"%n" + "      },%n" + "      \"HTTPRESPONSE\" : {%n"
         + "        \"HTTPSTATUSCODE\" : 200%n" + "      }%n" + "    }%n" + "  }%n" + "}");
   }
+
+  static Scene getMockSceneWithEncodedBody()
+      throws URISyntaxException, IOException {
+    Multimap<String, String> responseHeaders = LinkedHashMultimap.create();
+    responseHeaders.put("Content-Type", "text/plain; charset=UTF-8");
+    responseHeaders.put("Content-Encoding", "gzip");
+    byte[] encodedContent = new GzipCompressor().compress(getEncodedBodyContent().getBytes("UTF-8"));
+    responseHeaders.put("Content-Length", Integer.toString(encodedContent.length));
+    RecordedHttpRequest recordedHttpRequest =
+        new RecordedHttpRequest("GET", new URI("http://www.example.org/"), LinkedHashMultimap.create(), null);
+    RecordedHttpResponse recordedHttpResponse = new RecordedHttpResponse(200, responseHeaders,
+        new RecordedEncodedHttpBody(encodedContent, "gzip", "UTF-8", "text/plain"));
+    List<RecordedHttpExchange> recordedHttpExchangeList = new ArrayList<>();
+    recordedHttpExchangeList.add(new RecordedHttpExchange(recordedHttpRequest, recordedHttpResponse, new Date()));
+    return new Scene("test", null, ".", recordedHttpExchangeList);
+  }
+
+  static String getEncodedBodyContent() {
+    return "Hello world, hello world, hello world";
+  }
 }
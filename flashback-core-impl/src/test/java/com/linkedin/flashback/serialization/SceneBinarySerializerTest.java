@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.serialization;
+
+import com.linkedin.flashback.scene.Scene;
+import com.linkedin.flashback.serializable.RecordedEncodedHttpBody;
+import com.linkedin.flashback.serializable.RecordedHttpExchange;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class SceneBinarySerializerTest {
+  @Test
+  public void testRoundTrip()
+      throws IOException, URISyntaxException {
+    assertRoundTrip(MockDataGenerator.getMockScene());
+  }
+
+  @Test
+  public void testRoundTripWithoutHeaders()
+      throws IOException, URISyntaxException {
+    assertRoundTrip(MockDataGenerator.getMockSceneWithoutHeaders());
+  }
+
+  @Test
+  public void testRoundTripWithoutBody()
+      throws IOException, URISyntaxException {
+    assertRoundTrip(MockDataGenerator.getMockSceneWithoutBody());
+  }
+
+  @Test
+  public void testRoundTripWithoutBodyAndHeaders()
+      throws IOException, URISyntaxException {
+    assertRoundTrip(MockDataGenerator.getMockSceneWithoutBodyAndHeader());
+  }
+
+  @Test
+  public void testSmallerThanJson()
+      throws IOException, URISyntaxException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new SceneBinarySerializer().serialize(MockDataGenerator.getMockScene(), outputStream);
+    Assert.assertTrue(outputStream.size() < MockDataGenerator.getSerializedScene().length());
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void testDeserializeJson()
+      throws IOException {
+    byte[] json = MockDataGenerator.getSerializedScene().getBytes();
+    new SceneBinaryDeserializer().deserialize(new ByteArrayInputStream(json));
+  }
+
+  @Test
+  public void testDeserializeBuffer()
+      throws IOException, URISyntaxException {
+    Scene expectedScene = MockDataGenerator.getMockScene();
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new SceneBinarySerializer().serialize(expectedScene, outputStream);
+    Scene scene = new SceneBinaryDeserializer().deserialize(ByteBuffer.wrap(outputStream.toByteArray()));
+
+    Assert.assertEquals(scene.getName(), expectedScene.getName());
+    List<RecordedHttpExchange> expectedExchanges = expectedScene.getRecordedHttpExchangeList();
+    List<RecordedHttpExchange> exchanges = scene.getRecordedHttpExchangeList();
+    Assert.assertEquals(exchanges.size(), expectedExchanges.size());
+    for (int i = 0; i < expectedExchanges.size(); i++) {
+      Assert.assertEquals(exchanges.get(i).getUpdateTime(), expectedExchanges.get(i).getUpdateTime());
+      Assert.assertEquals(exchanges.get(i).getRecordedHttpRequest(), expectedExchanges.get(i).getRecordedHttpRequest());
+      Assert.assertEquals(exchanges.get(i).getRecordedHttpResponse(),
+          expectedExchanges.get(i).getRecordedHttpResponse());
+    }
+  }
+
+  @Test
+  public void testDeserializeBufferReusesDecodedResponse()
+      throws IOException, URISyntaxException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new SceneBinarySerializer().serialize(MockDataGenerator.getMockScene(), outputStream);
+    Scene scene = new SceneBinaryDeserializer().deserialize(ByteBuffer.wrap(outputStream.toByteArray()));
+
+    RecordedHttpExchange exchange = scene.getRecordedHttpExchangeList().get(0);
+    Assert.assertSame(exchange.getRecordedHttpResponse(), exchange.getRecordedHttpResponse());
+  }
+
+  @Test
+  public void testRoundTripKeepEncodedBodies()
+      throws IOException, URISyntaxException {
+    Scene expectedScene = MockDataGenerator.getMockSceneWithEncodedBody();
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new SceneBinarySerializer(true).serialize(expectedScene, outputStream);
+    Scene scene = new SceneBinaryDeserializer().deserialize(new ByteArrayInputStream(outputStream.toByteArray()));
+
+    RecordedEncodedHttpBody expectedBody = (RecordedEncodedHttpBody) expectedScene.getRecordedHttpExchangeList()
+        .get(0).getRecordedHttpResponse().getHttpBody();
+    RecordedEncodedHttpBody httpBody =
+        (RecordedEncodedHttpBody) scene.getRecordedHttpExchangeList().get(0).getRecordedHttpResponse().getHttpBody();
+    Assert.assertTrue(httpBody.hasEncodedContent());
+    Assert.assertEquals(httpBody.getContent("UTF-8"), expectedBody.getContent("UTF-8"));
+    Assert.assertEquals(httpBody.getDecodedBody(), expectedBody.getDecodedBody());
+  }
+
+  private static void assertRoundTrip(Scene expectedScene)
+      throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new SceneBinarySerializer().serialize(expectedScene, outputStream);
+    Scene scene = new SceneBinaryDeserializer().deserialize(new ByteArrayInputStream(outputStream.toByteArray()));
+    Assert.assertEquals(scene, expectedScene);
+  }
+}
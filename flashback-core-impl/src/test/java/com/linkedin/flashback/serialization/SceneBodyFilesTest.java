@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.serialization;
+
+import com.google.common.collect.LinkedHashMultimap;
+import com.linkedin.flashback.scene.Scene;
+import com.linkedin.flashback.serializable.RecordedByteHttpBody;
+import com.linkedin.flashback.serializable.RecordedFileHttpBody;
+import com.linkedin.flashback.serializable.RecordedHttpBody;
+import com.linkedin.flashback.serializable.RecordedHttpExchange;
+import com.linkedin.flashback.serializable.RecordedHttpRequest;
+import com.linkedin.flashback.serializable.RecordedHttpResponse;
+import com.linkedin.flashback.serializable.RecordedStringHttpBody;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+public class SceneBodyFilesTest {
+  private static final String SCENE_NAME = "test";
+  private static final byte[] LARGE_CONTENT = new byte[4096];
+  private static final byte[] SMALL_CONTENT = new byte[16];
+
+  private File _rootPath;
+
+  @BeforeMethod
+  public void setUp()
+      throws IOException {
+    _rootPath = Files.createTempDirectory("flashback").toFile();
+  }
+
+  @AfterMethod
+  public void tearDown()
+      throws IOException {
+    FileUtils.deleteDirectory(_rootPath);
+  }
+
+  @Test
+  public void testJsonRoundTrip()
+      throws IOException, URISyntaxException {
+    assertRoundTrip(SceneFormat.JSON, false);
+  }
+
+  @Test
+  public void testBinaryRoundTrip()
+      throws IOException, URISyntaxException {
+    assertRoundTrip(SceneFormat.BINARY, false);
+  }
+
+  @Test
+  public void testMappedBinaryRoundTrip()
+      throws IOException, URISyntaxException {
+    assertRoundTrip(SceneFormat.BINARY, true);
+  }
+
+  @Test
+  public void testDeleteUnreferenced()
+      throws IOException, URISyntaxException {
+    SceneWriter sceneWriter = new SceneWriter(SceneFormat.JSON, false, 1024);
+    List<RecordedHttpExchange> recordedHttpExchanges = new ArrayList<>();
+    recordedHttpExchanges.add(createExchange("http://www.example.org/large", new RecordedByteHttpBody(LARGE_CONTENT)));
+    sceneWriter.writeScene(new Scene(SCENE_NAME, null, _rootPath.getPath(), recordedHttpExchanges));
+    Assert.assertEquals(getBodyDirectory().list().length, 1);
+
+    recordedHttpExchanges.set(0, createExchange("http://www.example.org/large", new RecordedStringHttpBody("small")));
+    sceneWriter.writeScene(new Scene(SCENE_NAME, null, _rootPath.getPath(), recordedHttpExchanges));
+    Assert.assertEquals(getBodyDirectory().list().length, 0);
+  }
+
+  @Test
+  public void testKeepBodyFilesWithoutThreshold()
+      throws IOException, URISyntaxException {
+    new SceneWriter(SceneFormat.JSON, false, 1024).writeScene(createScene());
+    Scene scene = new SceneReader().readScene(_rootPath.getPath(), SCENE_NAME);
+
+    // Bodies that are already in files of the scene stay there
+    new SceneWriter().writeScene(new Scene(SCENE_NAME, null, _rootPath.getPath(), scene.getRecordedHttpExchangeList()));
+    Assert.assertEquals(getBodyDirectory().list().length, 1);
+    scene = new SceneReader().readScene(_rootPath.getPath(), SCENE_NAME);
+    Assert.assertTrue(getResponseBody(scene, 0) instanceof RecordedFileHttpBody);
+  }
+
+  @Test
+  public void testMoveTemporaryBodyFile()
+      throws IOException, URISyntaxException {
+    File tempFile = new File(_rootPath, "spilled.tmp");
+    Files.write(tempFile.toPath(), LARGE_CONTENT);
+    RecordedFileHttpBody spilledBody = new RecordedFileHttpBody(tempFile, true);
+    List<RecordedHttpExchange> recordedHttpExchanges = new ArrayList<>();
+    recordedHttpExchanges.add(createExchange("http://www.example.org/large", spilledBody));
+
+    // Temporary files are moved into the scene even if writer doesn't store bodies in files otherwise
+    new SceneWriter().writeScene(new Scene(SCENE_NAME, null, _rootPath.getPath(), recordedHttpExchanges));
+    Assert.assertFalse(tempFile.exists());
+    Assert.assertEquals(getBodyDirectory().list().length, 1);
+    Assert.assertFalse(spilledBody.isTemporary());
+    Assert.assertEquals(spilledBody.getFile().getParentFile(), getBodyDirectory());
+
+    Scene scene = new SceneReader().readScene(_rootPath.getPath(), SCENE_NAME);
+    Assert.assertEquals(getResponseBody(scene, 0).getContent("UTF-8"), LARGE_CONTENT);
+  }
+
+  @Test
+  public void testCompactJournalWithConfiguredWriter()
+      throws IOException, URISyntaxException {
+    SceneWriter sceneWriter = new SceneWriter(SceneFormat.BINARY, false, 1024);
+    Scene scene = new Scene(SCENE_NAME, null, _rootPath.getPath(), new ArrayList<>());
+    sceneWriter.writeJournalEntry(scene, 0, 0,
+        createExchange("http://www.example.org/large", new RecordedByteHttpBody(LARGE_CONTENT)));
+    sceneWriter.writeJournalEntry(scene, null, 1,
+        createExchange("http://www.example.org/small", new RecordedByteHttpBody(SMALL_CONTENT)));
+
+    scene = new SceneReader(false, sceneWriter).readScene(_rootPath.getPath(), SCENE_NAME);
+    Assert.assertFalse(SceneWriter.getJournalFile(_rootPath.getPath(), SCENE_NAME).exists());
+    Assert.assertEquals(SceneFormat.detect(new File(_rootPath, SCENE_NAME)), SceneFormat.BINARY);
+    Assert.assertEquals(getBodyDirectory().list().length, 1);
+    Assert.assertTrue(getResponseBody(scene, 0) instanceof RecordedFileHttpBody);
+
+    scene = new SceneReader(true).readScene(_rootPath.getPath(), SCENE_NAME);
+    Assert.assertEquals(scene.getRecordedHttpExchangeList().size(), 2);
+    Assert.assertEquals(getResponseBody(scene, 0).getContent("UTF-8"), LARGE_CONTENT);
+    Assert.assertEquals(getResponseBody(scene, 1).getContent("UTF-8"), SMALL_CONTENT);
+  }
+
+  private void assertRoundTrip(SceneFormat sceneFormat, boolean lazy)
+      throws IOException, URISyntaxException {
+    new SceneWriter(sceneFormat, false, 1024).writeScene(createScene());
+    Assert.assertEquals(getBodyDirectory().list().length, 1);
+
+    Scene scene = new SceneReader(lazy).readScene(_rootPath.getPath(), SCENE_NAME);
+    RecordedHttpBody largeBody = getResponseBody(scene, 0);
+    Assert.assertTrue(largeBody instanceof RecordedFileHttpBody);
+    Assert.assertEquals(((RecordedFileHttpBody) largeBody).length(), LARGE_CONTENT.length);
+    Assert.assertEquals(largeBody.getContent("UTF-8"), LARGE_CONTENT);
+    RecordedHttpBody smallBody = getResponseBody(scene, 1);
+    Assert.assertTrue(smallBody instanceof RecordedByteHttpBody);
+    Assert.assertEquals(smallBody.getContent("UTF-8"), SMALL_CONTENT);
+  }
+
+  private Scene createScene()
+      throws URISyntaxException {
+    List<RecordedHttpExchange> recordedHttpExchanges = new ArrayList<>();
+    recordedHttpExchanges.add(createExchange("http://www.example.org/large", new RecordedByteHttpBody(LARGE_CONTENT)));
+    recordedHttpExchanges.add(createExchange("http://www.example.org/small", new RecordedByteHttpBody(SMALL_CONTENT)));
+    return new Scene(SCENE_NAME, null, _rootPath.getPath(), recordedHttpExchanges);
+  }
+
+  private static RecordedHttpExchange createExchange(String uri, RecordedHttpBody responseBody)
+      throws URISyntaxException {
+    RecordedHttpRequest recordedHttpRequest =
+        new RecordedHttpRequest("GET", new URI(uri), LinkedHashMultimap.create(), null);
+    RecordedHttpResponse recordedHttpResponse =
+        new RecordedHttpResponse(200, LinkedHashMultimap.create(), responseBody);
+    return new RecordedHttpExchange(recordedHttpRequest, recordedHttpResponse, new Date());
+  }
+
+  private static RecordedHttpBody getResponseBody(Scene scene, int index) {
+    return scene.getRecordedHttpExchangeList().get(index).getRecordedHttpResponse().getHttpBody();
+  }
+
+  private File getBodyDirectory() {
+    return new File(_rootPath, SCENE_NAME + ".bodies");
+  }
+}
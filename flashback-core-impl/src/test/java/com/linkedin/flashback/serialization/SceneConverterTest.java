@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.serialization;
+
+import com.google.common.io.Files;
+import com.linkedin.flashback.scene.Scene;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+
+public class SceneConverterTest {
+  private File _rootDir;
+
+  @BeforeMethod
+  public void setUp() {
+    _rootDir = Files.createTempDir();
+  }
+
+  @AfterMethod
+  public void tearDown()
+      throws IOException {
+    FileUtils.deleteDirectory(_rootDir);
+  }
+
+  @Test
+  public void testConvertBothWays()
+      throws IOException, URISyntaxException {
+    String rootPath = _rootDir.getPath();
+    Scene mockScene = MockDataGenerator.getMockScene();
+    Scene expectedScene = new Scene(mockScene.getName(), null, rootPath, mockScene.getRecordedHttpExchangeList());
+    File file = new File(rootPath, expectedScene.getName());
+    new SceneWriter().writeScene(expectedScene);
+    Assert.assertEquals(SceneFormat.detect(file), SceneFormat.JSON);
+
+    SceneConverter sceneConverter = new SceneConverter();
+    sceneConverter.convert(rootPath, expectedScene.getName(), SceneFormat.BINARY);
+    Assert.assertEquals(SceneFormat.detect(file), SceneFormat.BINARY);
+    Assert.assertEquals(new SceneReader().readScene(rootPath, expectedScene.getName()).getRecordedHttpExchangeList(),
+        expectedScene.getRecordedHttpExchangeList());
+
+    // Default writer keeps binary format of existing scene
+    new SceneWriter().writeScene(expectedScene);
+    Assert.assertEquals(SceneFormat.detect(file), SceneFormat.BINARY);
+
+    sceneConverter.convert(rootPath, expectedScene.getName(), rootPath, "converted", SceneFormat.JSON);
+    Assert.assertEquals(SceneFormat.detect(new File(rootPath, "converted")), SceneFormat.JSON);
+    Assert.assertEquals(new SceneReader().readScene(rootPath, "converted").getRecordedHttpExchangeList(),
+        expectedScene.getRecordedHttpExchangeList());
+  }
+}
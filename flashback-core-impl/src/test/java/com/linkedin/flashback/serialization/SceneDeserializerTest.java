@@ -6,7 +6,11 @@
 package com.linkedin.flashback.serialization;
 
 import com.linkedin.flashback.scene.Scene;
+import com.linkedin.flashback.serializable.RecordedHttpExchange;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -54,4 +58,29 @@ public class SceneDeserializerTest {
     Scene expectedScene = MockDataGenerator.getMockSceneWithoutBodyAndHeader();
     Assert.assertEquals(scene, expectedScene);
   }
+
+  @Test
+  public void testReplayJournal()
+      throws Exception {
+    List<RecordedHttpExchange> expectedExchanges = MockDataGenerator.getMockScene().getRecordedHttpExchangeList();
+    StringWriter stringWriter = new StringWriter();
+    new SceneSerializer().serializeJournalEntry(0, 0, expectedExchanges.get(1), stringWriter);
+    new SceneSerializer().serializeJournalEntry(null, 1, expectedExchanges.get(1), stringWriter);
+    new SceneSerializer().serializeJournalEntry(null, 0, expectedExchanges.get(0), stringWriter);
+    String journal = stringWriter.toString();
+
+    // Base size header drops exchanges that were there before the session
+    List<RecordedHttpExchange> recordedHttpExchangeList = new ArrayList<>(expectedExchanges);
+    recordedHttpExchangeList.add(expectedExchanges.get(0));
+    new SceneDeserializer().replayJournal(new StringReader(journal), recordedHttpExchangeList);
+    Assert.assertEquals(recordedHttpExchangeList, expectedExchanges);
+
+    // Incomplete entry at the end of the journal is ignored
+    recordedHttpExchangeList = new ArrayList<>();
+    String incompleteJournal = journal.substring(0, journal.length() - 10);
+    new SceneDeserializer().replayJournal(new StringReader(incompleteJournal), recordedHttpExchangeList);
+    Assert.assertEquals(recordedHttpExchangeList.size(), 2);
+    Assert.assertEquals(recordedHttpExchangeList.get(0), expectedExchanges.get(1));
+    Assert.assertEquals(recordedHttpExchangeList.get(1), expectedExchanges.get(1));
+  }
 }
@@ -5,7 +5,11 @@
 
 package com.linkedin.flashback.serialization;
 
+import com.linkedin.flashback.scene.Scene;
+import com.linkedin.flashback.serializable.RecordedEncodedHttpBody;
+import com.linkedin.flashback.serializable.RecordedHttpResponse;
 import java.io.IOException;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.URISyntaxException;
 import org.testng.Assert;
@@ -59,4 +63,24 @@ public class SceneSerializerTest {
     sceneSerializer.serialize(MockDataGenerator.getMockSceneWithoutBodyAndHeader(), stringWriter);
     Assert.assertEquals(MockDataGenerator.getSerializedSceneWithoutBodyAndHeader(), stringWriter.toString());
   }
+
+  @Test
+  public void testSerializationKeepEncodedBodies()
+      throws IOException, URISyntaxException {
+    Scene expectedScene = MockDataGenerator.getMockSceneWithEncodedBody();
+    byte[] expectedContent =
+        expectedScene.getRecordedHttpExchangeList().get(0).getRecordedHttpResponse().getHttpBody().getContent("UTF-8");
+    StringWriter stringWriter = new StringWriter();
+
+    new SceneSerializer(true).serialize(expectedScene, stringWriter);
+    Assert.assertTrue(stringWriter.toString().contains("RAWHTTPBODY"));
+    Scene scene = new SceneDeserializer().deserialize(new StringReader(stringWriter.toString()));
+
+    RecordedHttpResponse recordedHttpResponse = scene.getRecordedHttpExchangeList().get(0).getRecordedHttpResponse();
+    RecordedEncodedHttpBody httpBody = (RecordedEncodedHttpBody) recordedHttpResponse.getHttpBody();
+    Assert.assertTrue(httpBody.hasEncodedContent());
+    Assert.assertEquals(httpBody.getContent("UTF-8"), expectedContent);
+    Assert.assertEquals(httpBody.getDecodedBody().getContent("UTF-8"),
+        MockDataGenerator.getEncodedBodyContent().getBytes("UTF-8"));
+  }
 }
@@ -12,14 +12,17 @@ import com.google.common.collect.Multimap;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
 import com.linkedin.flashback.factory.RecordedHttpBodyFactory;
+import com.linkedin.flashback.serializable.RecordedFileHttpBody;
 import com.linkedin.flashback.serializable.RecordedHttpBody;
-import io.netty.buffer.ByteBufInputStream;
-import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpMessage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Iterator;
 
 
@@ -32,25 +35,82 @@ import java.util.Iterator;
 public abstract class RecordedHttpMessageBuilder {
   protected HttpMessage _nettyHttpMessage;
   private final Multimap<String, String> _headers = LinkedHashMultimap.create();
-  protected final CompositeByteBuf _bodyByteBuf = Unpooled.compositeBuffer();
+  // Body is copied once into a buffer sized from Content-Length, and its array is handed over to the recorded
+  // body. It's plain heap memory on purpose, so builders that are dropped without being released don't keep
+  // pooled memory away from the pool.
+  private ByteBuf _bodyByteBuf;
+  // Once body grows beyond spill threshold, it goes to a temporary file instead, so heap used for recording
+  // doesn't depend on payload size. The file belongs to the builder until body is built, or it's released.
+  private final int _spillThreshold;
+  private File _spillFile;
+  private OutputStream _spillOutputStream;
+  private boolean _released;
 
   private static final String DEFAULT_CONTENT_ENCODING = "identity";
   private static final String DEFAULT_CONTENT_TYPE = MediaType.OCTET_STREAM.toString();
   private static final String DEFAULT_CHARSET = Charsets.UTF_8.toString();
+  // Don't trust Content-Length blindly when pre-allocating, buffer still grows beyond it if needed.
+  private static final int MAX_INITIAL_BODY_CAPACITY = 16 * 1024 * 1024;
+  private static final byte[] EMPTY_BODY = new byte[0];
+  private static final String SPILL_FILE_PREFIX = "flashback-body-";
+  private static final String SPILL_FILE_SUFFIX = ".tmp";
 
-  protected RecordedHttpMessageBuilder(HttpMessage nettyHttpMessage) {
+  /**
+   * @param spillThreshold bodies larger than this number of bytes are captured in a temporary file, which
+   *                       becomes a {@link RecordedFileHttpBody}. 0 to keep all bodies in memory.
+   * */
+  protected RecordedHttpMessageBuilder(HttpMessage nettyHttpMessage, int spillThreshold) {
     _nettyHttpMessage = nettyHttpMessage;
+    _spillThreshold = spillThreshold;
     addHeaders(nettyHttpMessage);
   }
 
   /**
    *  Append http content to temporary byte buffer.
+   *  Content appended after the builder was released is ignored.
    *  @param chunk netty http content chunk
    * */
-  public void appendHttpContent(HttpContent chunk)
+  public synchronized void appendHttpContent(HttpContent chunk)
+      throws IOException {
+    ByteBuf content = chunk.content();
+    if (_released || !content.isReadable()) {
+      return;
+    }
+    if (_spillOutputStream == null && _spillThreshold > 0) {
+      int bufferedBytes = _bodyByteBuf == null ? 0 : _bodyByteBuf.readableBytes();
+      if (Math.max(getContentLength(), bufferedBytes + content.readableBytes()) > _spillThreshold) {
+        spillToFile();
+      }
+    }
+    // Chunk is forwarded as well, so copy without moving its reader index.
+    if (_spillOutputStream != null) {
+      content.getBytes(content.readerIndex(), _spillOutputStream, content.readableBytes());
+      return;
+    }
+    if (_bodyByteBuf == null) {
+      int initialCapacity = (int) Math.min(getContentLength(), MAX_INITIAL_BODY_CAPACITY);
+      _bodyByteBuf = Unpooled.buffer(Math.max(initialCapacity, content.readableBytes()));
+    }
+    _bodyByteBuf.writeBytes(content, content.readerIndex(), content.readableBytes());
+  }
+
+  /**
+   * Move body appended so far to a new temporary file, and append rest of it there. Once body is built, the
+   * file belongs to the recorded body, otherwise {@link #release()} deletes it.
+   * */
+  private void spillToFile()
       throws IOException {
-    _bodyByteBuf.addComponent(Unpooled.copiedBuffer(chunk.content()));
-    _bodyByteBuf.writerIndex(_bodyByteBuf.writerIndex() + chunk.content().readableBytes());
+    _spillFile = File.createTempFile(SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX);
+    try {
+      _spillOutputStream = new BufferedOutputStream(new FileOutputStream(_spillFile));
+    } catch (IOException e) {
+      deleteSpillFile();
+      throw e;
+    }
+    if (_bodyByteBuf != null) {
+      _bodyByteBuf.readBytes(_spillOutputStream, _bodyByteBuf.readableBytes());
+      _bodyByteBuf = null;
+    }
   }
 
   /**
@@ -75,6 +135,22 @@ public abstract class RecordedHttpMessageBuilder {
     return _headers;
   }
 
+  /**
+   * Get content length from headers, or 0 if it's unknown
+   *
+   * */
+  private long getContentLength() {
+    Iterator<String> header = _headers.get(HttpHeaders.CONTENT_LENGTH).iterator();
+    if (!header.hasNext()) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(header.next().trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
   /**
    * Get content type from headers
    *
@@ -123,12 +199,81 @@ public abstract class RecordedHttpMessageBuilder {
    * TODO: throw customized exception if failed to create http body
    *
    * */
-  protected RecordedHttpBody getBody() {
+  protected synchronized RecordedHttpBody getBody() {
+    if (_released) {
+      throw new IllegalStateException("Builder has been released");
+    }
     try {
-      InputStream byteBufInputStream = new ByteBufInputStream(_bodyByteBuf);
-      return RecordedHttpBodyFactory.create(getContentType(), getContentEncoding(), byteBufInputStream, getCharset());
+      if (_spillOutputStream != null) {
+        // Spilled body is kept as it came over the wire, without being decoded into memory. From now on
+        // the file belongs to the recorded body.
+        File spillFile = _spillFile;
+        closeSpillOutputStream();
+        _spillFile = null;
+        return new RecordedFileHttpBody(spillFile, true);
+      }
+      return RecordedHttpBodyFactory.create(getContentType(), getContentEncoding(), getBodyBytes(), getCharset());
     } catch (IOException e) {
+      release();
       throw new RuntimeException("Failed to create Httpbody");
     }
   }
+
+  /**
+   * Give up on the message, for example because connection closed before it was complete or its recording
+   * was dropped. Closes and deletes the temporary file body spilled to, unless it was already built into a
+   * recorded body. Can be called more than once, and from another thread than the one appending content.
+   * */
+  public synchronized void release() {
+    _released = true;
+    _bodyByteBuf = null;
+    if (_spillOutputStream != null) {
+      try {
+        closeSpillOutputStream();
+      } catch (IOException e) {
+        // File is deleted anyway
+      }
+    }
+    deleteSpillFile();
+  }
+
+  /**
+   * Temporary file body is spilled to, null if there's none or it has been built or released already.
+   * */
+  synchronized File getSpillFile() {
+    return _spillFile;
+  }
+
+  private void closeSpillOutputStream()
+      throws IOException {
+    OutputStream spillOutputStream = _spillOutputStream;
+    _spillOutputStream = null;
+    spillOutputStream.close();
+  }
+
+  private void deleteSpillFile() {
+    if (_spillFile != null) {
+      _spillFile.delete();
+      _spillFile = null;
+    }
+  }
+
+  /**
+   * Bytes of body appended so far. If the buffer is filled exactly, which is the normal case when
+   * Content-Length is known, its array is returned as is. It's safe to share because buffer has to
+   * allocate a new array to take any more content.
+   * */
+  private byte[] getBodyBytes() {
+    if (_bodyByteBuf == null) {
+      return EMPTY_BODY;
+    }
+    int length = _bodyByteBuf.readableBytes();
+    if (_bodyByteBuf.hasArray() && _bodyByteBuf.arrayOffset() == 0 && _bodyByteBuf.readerIndex() == 0
+        && _bodyByteBuf.array().length == length) {
+      return _bodyByteBuf.array();
+    }
+    byte[] bytes = new byte[length];
+    _bodyByteBuf.getBytes(_bodyByteBuf.readerIndex(), bytes);
+    return bytes;
+  }
 }
@@ -30,7 +30,14 @@ public class RecordedHttpRequestBuilder extends RecordedHttpMessageBuilder {
    * if not, we store relative path to _path.
    * */
   public RecordedHttpRequestBuilder(HttpRequest nettyHttpRequest) {
-    super(nettyHttpRequest);
+    this(nettyHttpRequest, 0);
+  }
+
+  /**
+   * @param spillThreshold request bodies larger than this number of bytes are captured in a temporary file
+   * */
+  public RecordedHttpRequestBuilder(HttpRequest nettyHttpRequest, int spillThreshold) {
+    super(nettyHttpRequest, spillThreshold);
     interpretHttpRequest(nettyHttpRequest);
   }
 
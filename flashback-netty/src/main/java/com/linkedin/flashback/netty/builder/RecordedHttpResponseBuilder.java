@@ -18,7 +18,14 @@ public class RecordedHttpResponseBuilder extends RecordedHttpMessageBuilder {
   private int _status;
 
   public RecordedHttpResponseBuilder(HttpResponse nettyHttpResponse) {
-    super(nettyHttpResponse);
+    this(nettyHttpResponse, 0);
+  }
+
+  /**
+   * @param spillThreshold response bodies larger than this number of bytes are captured in a temporary file
+   * */
+  public RecordedHttpResponseBuilder(HttpResponse nettyHttpResponse, int spillThreshold) {
+    super(nettyHttpResponse, spillThreshold);
     _status = nettyHttpResponse.getStatus().code();
   }
 
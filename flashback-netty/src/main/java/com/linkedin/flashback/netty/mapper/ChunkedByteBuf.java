@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.netty.mapper;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+
+
+/**
+ * {@link ChunkedInput} that hands out content of a buffer as zero-copy slices of at most given size.
+ * It takes over one reference to the buffer, which is released when input is closed.
+ */
+public class ChunkedByteBuf implements ChunkedInput<ByteBuf> {
+  private final ByteBuf _buf;
+  private final int _chunkSize;
+
+  public ChunkedByteBuf(ByteBuf buf, int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunk size must be positive");
+    }
+    _buf = buf;
+    _chunkSize = chunkSize;
+  }
+
+  @Override
+  public boolean isEndOfInput() {
+    return !_buf.isReadable();
+  }
+
+  @Override
+  public void close() {
+    _buf.release();
+  }
+
+  @Override
+  public ByteBuf readChunk(ChannelHandlerContext ctx) {
+    if (!_buf.isReadable()) {
+      return null;
+    }
+    // Each slice holds its own reference, since it's released once it's written
+    return _buf.readSlice(Math.min(_chunkSize, _buf.readableBytes())).retain();
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.netty.mapper;
+
+import com.linkedin.flashback.serializable.RecordedFileHttpBody;
+import com.linkedin.flashback.serializable.RecordedHttpResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+
+/**
+ * Recorded http response encoded in http wire format, ready to be written to client as is.
+ * Status line, headers and body are encoded once and kept in read-only buffers, {@link #encode(boolean)}
+ * only creates a zero-copy view over them, so the same instance can be replayed any number of times
+ * and from any thread.
+ *
+ * Framing headers are rewritten because the body is always replayed in full: Transfer-Encoding is dropped,
+ * Content-Length is set to the length of the replayed body and Connection tells client if the connection
+ * stays open.
+ *
+ * Bodies kept in side-car files are not loaded at all, only the head is encoded and the file is sent
+ * after it, see {@link #getBodyFile()}.
+ */
+public final class PreEncodedHttpResponse {
+  private static final byte[] CRLF = {'\r', '\n'};
+  private static final byte[] HEADER_SEPARATOR = {':', ' '};
+
+  private final ByteBuf _keepAliveHead;
+  private final ByteBuf _closeHead;
+  private final ByteBuf _body;
+  private final File _bodyFile;
+
+  private PreEncodedHttpResponse(ByteBuf keepAliveHead, ByteBuf closeHead, ByteBuf body, File bodyFile) {
+    _keepAliveHead = keepAliveHead;
+    _closeHead = closeHead;
+    _body = body;
+    _bodyFile = bodyFile;
+  }
+
+  public static PreEncodedHttpResponse from(RecordedHttpResponse recordedHttpResponse)
+      throws IOException {
+    File bodyFile = null;
+    long bodyLength;
+    byte[] body = new byte[0];
+    if (recordedHttpResponse.getHttpBody() instanceof RecordedFileHttpBody) {
+      bodyFile = ((RecordedFileHttpBody) recordedHttpResponse.getHttpBody()).getFile();
+      bodyLength = bodyFile.length();
+    } else {
+      if (recordedHttpResponse.hasHttpBody()) {
+        body = recordedHttpResponse.getHttpBody().getContent(recordedHttpResponse.getCharset());
+      }
+      bodyLength = body.length;
+    }
+    ByteBuf head = Unpooled.buffer();
+    HttpResponseStatus status = HttpResponseStatus.valueOf(recordedHttpResponse.getStatus());
+    writeAscii(head, "HTTP/1.1 " + status.code() + " " + status.reasonPhrase());
+    head.writeBytes(CRLF);
+    for (Map.Entry<String, String> header : recordedHttpResponse.getHeaders().entries()) {
+      String name = header.getKey();
+      if (name.equalsIgnoreCase(HttpHeaders.Names.TRANSFER_ENCODING) || name
+          .equalsIgnoreCase(HttpHeaders.Names.CONTENT_LENGTH) || name.equalsIgnoreCase(HttpHeaders.Names.CONNECTION)) {
+        continue;
+      }
+      writeHeader(head, name, header.getValue());
+    }
+    writeHeader(head, HttpHeaders.Names.CONTENT_LENGTH, Long.toString(bodyLength));
+    ByteBuf keepAliveHead = head.copy();
+    writeHeader(keepAliveHead, HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+    keepAliveHead.writeBytes(CRLF);
+    writeHeader(head, HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+    head.writeBytes(CRLF);
+    return new PreEncodedHttpResponse(readOnly(keepAliveHead), readOnly(head), readOnly(Unpooled.wrappedBuffer(body)),
+        bodyFile);
+  }
+
+  /**
+   * @param keepAlive true if connection stays open after this response
+   * @return whole response in http wire format, or only its head if body is in a file.
+   * It's a view on shared buffers which doesn't need to be released.
+   * */
+  public ByteBuf encode(boolean keepAlive) {
+    ByteBuf head = keepAlive ? _keepAliveHead : _closeHead;
+    if (!_body.isReadable()) {
+      return head.duplicate();
+    }
+    return Unpooled.wrappedBuffer(head.duplicate(), _body.duplicate());
+  }
+
+  /**
+   * @param keepAlive true if connection stays open after this response
+   * @return status line and headers in http wire format, to be followed by {@link #streamBody(int)} or body file.
+   * It's a view on shared buffer which doesn't need to be released.
+   * */
+  public ByteBuf encodeHead(boolean keepAlive) {
+    return (keepAlive ? _keepAliveHead : _closeHead).duplicate();
+  }
+
+  /**
+   * @param chunkSize max number of bytes in one chunk
+   * @return in-memory body as chunks that share content with this response
+   * */
+  public ChunkedByteBuf streamBody(int chunkSize) {
+    return new ChunkedByteBuf(_body.duplicate(), chunkSize);
+  }
+
+  /**
+   * @return number of bytes of in-memory body, 0 if body is in a file
+   * */
+  public int bodySize() {
+    return _body.readableBytes();
+  }
+
+  /**
+   * @return file whose whole content is the body, to be sent right after {@link #encode(boolean)}, or null if
+   * body is encoded in memory
+   * */
+  public File getBodyFile() {
+    return _bodyFile;
+  }
+
+  /**
+   * @return number of bytes held by this response
+   * */
+  public int size() {
+    return _keepAliveHead.readableBytes() + _closeHead.readableBytes() + _body.readableBytes();
+  }
+
+  private static void writeHeader(ByteBuf buf, String name, String value) {
+    writeAscii(buf, name);
+    buf.writeBytes(HEADER_SEPARATOR);
+    writeAscii(buf, value);
+    buf.writeBytes(CRLF);
+  }
+
+  private static void writeAscii(ByteBuf buf, String value) {
+    // Same as netty http encoder, which writes header characters as single bytes
+    buf.writeBytes(value.getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  /**
+   * Buffers are shared by all of writes, so they can't be modified or freed by any of them.
+   * */
+  private static ByteBuf readOnly(ByteBuf buf) {
+    return Unpooled.unreleasableBuffer(Unpooled.unmodifiableBuffer(buf));
+  }
+}
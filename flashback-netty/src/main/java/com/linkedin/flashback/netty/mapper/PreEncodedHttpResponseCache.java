@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.netty.mapper;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.linkedin.flashback.serializable.RecordedHttpResponse;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+
+/**
+ * Cache of {@link PreEncodedHttpResponse}s used in replay mode, so a recorded response is encoded once
+ * instead of every time it's replayed.
+ *
+ * Responses are looked up by identity and held weakly, so entries go away together with the scene they
+ * come from. Responses of lazily loaded scenes are decoded from disk on every playback and are never hit.
+ * Cache is bounded by total encoded size and is thread safe.
+ */
+public class PreEncodedHttpResponseCache {
+  public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+  private final Cache<RecordedHttpResponse, PreEncodedHttpResponse> _cache;
+
+  public PreEncodedHttpResponseCache() {
+    this(DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param maxBytes max total size of encoded responses kept in cache
+   * */
+  public PreEncodedHttpResponseCache(long maxBytes) {
+    _cache = CacheBuilder.newBuilder()
+        .weakKeys()
+        .maximumWeight(maxBytes)
+        .weigher((RecordedHttpResponse response, PreEncodedHttpResponse encoded) -> encoded.size())
+        .build();
+  }
+
+  /**
+   * @return encoded response, which is encoded and put in cache if it's not there yet
+   * */
+  public PreEncodedHttpResponse get(RecordedHttpResponse recordedHttpResponse)
+      throws IOException {
+    try {
+      return _cache.get(recordedHttpResponse, () -> PreEncodedHttpResponse.from(recordedHttpResponse));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException("Failed to encode response", e.getCause());
+    }
+  }
+}
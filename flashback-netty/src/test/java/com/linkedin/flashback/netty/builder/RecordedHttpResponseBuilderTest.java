@@ -5,15 +5,19 @@
 
 package com.linkedin.flashback.netty.builder;
 
+import com.linkedin.flashback.serializable.RecordedFileHttpBody;
 import com.linkedin.flashback.serializable.RecordedHttpResponse;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.DefaultHttpContent;
 import io.netty.handler.codec.http.DefaultLastHttpContent;
 import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
+import java.io.File;
 import java.io.IOException;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -46,4 +50,92 @@ public class RecordedHttpResponseBuilderTest {
     Assert.assertEquals((str1 + str2 + lastStr).getBytes(charset),
         recordedHttpResponse.getHttpBody().getContent(charset));
   }
+
+  @Test
+  public void testBuildWithContentLength()
+      throws IOException {
+    String charset = "UTF-8";
+    String str1 = "Hello world";
+    String str2 = "second content";
+    HttpResponse httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    httpResponse.headers().set(HttpHeaders.Names.CONTENT_LENGTH, (str1 + str2).length());
+    RecordedHttpResponseBuilder recordedHttpResponseBuilder = new RecordedHttpResponseBuilder(httpResponse);
+
+    ByteBuf content1 = Unpooled.copiedBuffer(str1.getBytes(charset));
+    recordedHttpResponseBuilder.appendHttpContent(new DefaultHttpContent(content1));
+    recordedHttpResponseBuilder.appendHttpContent(new DefaultHttpContent(Unpooled.EMPTY_BUFFER));
+    recordedHttpResponseBuilder
+        .appendHttpContent(new DefaultLastHttpContent(Unpooled.copiedBuffer(str2.getBytes(charset))));
+    RecordedHttpResponse recordedHttpResponse = recordedHttpResponseBuilder.build();
+
+    // Appended chunk is still forwarded, so it must be left readable
+    Assert.assertEquals(content1.readableBytes(), str1.length());
+    Assert.assertEquals((str1 + str2).getBytes(charset), recordedHttpResponse.getHttpBody().getContent(charset));
+  }
+
+  @Test
+  public void testBuildWithSpilledContent()
+      throws IOException {
+    String charset = "UTF-8";
+    String str1 = "Hello world";
+    String str2 = "second content";
+    HttpResponse httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    RecordedHttpResponseBuilder recordedHttpResponseBuilder = new RecordedHttpResponseBuilder(httpResponse, 16);
+
+    ByteBuf content1 = Unpooled.copiedBuffer(str1.getBytes(charset));
+    recordedHttpResponseBuilder.appendHttpContent(new DefaultHttpContent(content1));
+    recordedHttpResponseBuilder
+        .appendHttpContent(new DefaultLastHttpContent(Unpooled.copiedBuffer(str2.getBytes(charset))));
+    RecordedHttpResponse recordedHttpResponse = recordedHttpResponseBuilder.build();
+
+    Assert.assertEquals(content1.readableBytes(), str1.length());
+    Assert.assertTrue(recordedHttpResponse.getHttpBody() instanceof RecordedFileHttpBody);
+    RecordedFileHttpBody fileHttpBody = (RecordedFileHttpBody) recordedHttpResponse.getHttpBody();
+    Assert.assertTrue(fileHttpBody.isTemporary());
+    Assert.assertEquals((str1 + str2).getBytes(charset), fileHttpBody.getContent(charset));
+    Assert.assertTrue(fileHttpBody.getFile().delete());
+  }
+
+  @Test
+  public void testReleaseDeletesSpillFile()
+      throws IOException {
+    HttpResponse httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    RecordedHttpResponseBuilder recordedHttpResponseBuilder = new RecordedHttpResponseBuilder(httpResponse, 4);
+    recordedHttpResponseBuilder
+        .appendHttpContent(new DefaultHttpContent(Unpooled.copiedBuffer("Hello world".getBytes("UTF-8"))));
+    File spillFile = recordedHttpResponseBuilder.getSpillFile();
+    Assert.assertTrue(spillFile.exists());
+
+    recordedHttpResponseBuilder.release();
+    Assert.assertFalse(spillFile.exists());
+    Assert.assertNull(recordedHttpResponseBuilder.getSpillFile());
+    // Content of an abandoned message is ignored rather than spilled to a new file
+    recordedHttpResponseBuilder
+        .appendHttpContent(new DefaultLastHttpContent(Unpooled.copiedBuffer("again".getBytes("UTF-8"))));
+    Assert.assertNull(recordedHttpResponseBuilder.getSpillFile());
+    recordedHttpResponseBuilder.release();
+  }
+
+  @Test
+  public void testReleaseAfterBuildKeepsBodyFile()
+      throws IOException {
+    HttpResponse httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    RecordedHttpResponseBuilder recordedHttpResponseBuilder = new RecordedHttpResponseBuilder(httpResponse, 4);
+    recordedHttpResponseBuilder
+        .appendHttpContent(new DefaultLastHttpContent(Unpooled.copiedBuffer("Hello world".getBytes("UTF-8"))));
+    RecordedFileHttpBody fileHttpBody = (RecordedFileHttpBody) recordedHttpResponseBuilder.build().getHttpBody();
+
+    recordedHttpResponseBuilder.release();
+    Assert.assertTrue(fileHttpBody.getFile().exists());
+    Assert.assertTrue(fileHttpBody.getFile().delete());
+  }
+
+  @Test
+  public void testBuildWithoutContent()
+      throws IOException {
+    HttpResponse httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NO_CONTENT);
+    RecordedHttpResponseBuilder recordedHttpResponseBuilder = new RecordedHttpResponseBuilder(httpResponse);
+    RecordedHttpResponse recordedHttpResponse = recordedHttpResponseBuilder.build();
+    Assert.assertEquals(recordedHttpResponse.getHttpBody().getContent("UTF-8").length, 0);
+  }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.netty.mapper;
+
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+import com.linkedin.flashback.serializable.RecordedFileHttpBody;
+import com.linkedin.flashback.serializable.RecordedHttpResponse;
+import com.linkedin.flashback.serializable.RecordedStringHttpBody;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseDecoder;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class PreEncodedHttpResponseTest {
+  @Test
+  public void testEncodeWithBody()
+      throws Exception {
+    Multimap<String, String> headers = LinkedHashMultimap.create();
+    headers.put("key1", "value1");
+    headers.put("Transfer-Encoding", "chunked");
+    headers.put("Content-Length", "1000");
+    headers.put("Connection", "close");
+    RecordedHttpResponse recordedHttpResponse =
+        new RecordedHttpResponse(200, headers, new RecordedStringHttpBody("Hello world"));
+    PreEncodedHttpResponse preEncodedHttpResponse = PreEncodedHttpResponse.from(recordedHttpResponse);
+
+    Assert.assertEquals(preEncodedHttpResponse.encode(true).toString(StandardCharsets.ISO_8859_1),
+        "HTTP/1.1 200 OK\r\nkey1: value1\r\nContent-Length: 11\r\nConnection: keep-alive\r\n\r\nHello world");
+    Assert.assertEquals(preEncodedHttpResponse.encode(false).toString(StandardCharsets.ISO_8859_1),
+        "HTTP/1.1 200 OK\r\nkey1: value1\r\nContent-Length: 11\r\nConnection: close\r\n\r\nHello world");
+  }
+
+  @Test
+  public void testEncodeWithoutBody()
+      throws Exception {
+    Multimap<String, String> headers = LinkedHashMultimap.create();
+    headers.put("key1", "value1");
+    headers.put("key1", "value2");
+    RecordedHttpResponse recordedHttpResponse = new RecordedHttpResponse(404, headers, null);
+    PreEncodedHttpResponse preEncodedHttpResponse = PreEncodedHttpResponse.from(recordedHttpResponse);
+
+    FullHttpResponse fullHttpResponse = decode(preEncodedHttpResponse.encode(true));
+    Assert.assertEquals(fullHttpResponse.getStatus().code(), 404);
+    Assert.assertEquals(fullHttpResponse.headers().getAll("key1").size(), 2);
+    Assert.assertEquals(fullHttpResponse.headers().get("Content-Length"), "0");
+    Assert.assertEquals(fullHttpResponse.content().readableBytes(), 0);
+    fullHttpResponse.release();
+  }
+
+  @Test
+  public void testEncodeIsRepeatable()
+      throws Exception {
+    Multimap<String, String> headers = LinkedHashMultimap.create();
+    headers.put("key1", "value1");
+    RecordedHttpResponse recordedHttpResponse =
+        new RecordedHttpResponse(200, headers, new RecordedStringHttpBody("Hello world"));
+    PreEncodedHttpResponse preEncodedHttpResponse = PreEncodedHttpResponse.from(recordedHttpResponse);
+
+    // Consuming and releasing one encoded response must not affect the next one
+    ByteBuf first = preEncodedHttpResponse.encode(true);
+    String expected = first.toString(StandardCharsets.ISO_8859_1);
+    first.skipBytes(first.readableBytes());
+    first.release();
+    ByteBuf second = preEncodedHttpResponse.encode(true);
+    Assert.assertEquals(second.toString(StandardCharsets.ISO_8859_1), expected);
+
+    FullHttpResponse fullHttpResponse = decode(second);
+    Assert.assertEquals(fullHttpResponse.content().toString(StandardCharsets.UTF_8), "Hello world");
+    fullHttpResponse.release();
+  }
+
+  @Test
+  public void testEncodeWithBodyFile()
+      throws Exception {
+    File bodyFile = File.createTempFile("flashback", ".body");
+    try {
+      Files.write(bodyFile.toPath(), "Hello world".getBytes(StandardCharsets.UTF_8));
+      RecordedHttpResponse recordedHttpResponse =
+          new RecordedHttpResponse(200, LinkedHashMultimap.create(), new RecordedFileHttpBody(bodyFile));
+      PreEncodedHttpResponse preEncodedHttpResponse = PreEncodedHttpResponse.from(recordedHttpResponse);
+
+      // Only head is encoded, body is sent from the file
+      Assert.assertEquals(preEncodedHttpResponse.getBodyFile(), bodyFile);
+      Assert.assertEquals(preEncodedHttpResponse.encode(true).toString(StandardCharsets.ISO_8859_1),
+          "HTTP/1.1 200 OK\r\nContent-Length: 11\r\nConnection: keep-alive\r\n\r\n");
+    } finally {
+      Assert.assertTrue(bodyFile.delete());
+    }
+  }
+
+  @Test
+  public void testStreamBody()
+      throws Exception {
+    RecordedHttpResponse recordedHttpResponse =
+        new RecordedHttpResponse(200, LinkedHashMultimap.create(), new RecordedStringHttpBody("Hello world"));
+    PreEncodedHttpResponse preEncodedHttpResponse = PreEncodedHttpResponse.from(recordedHttpResponse);
+    Assert.assertEquals(preEncodedHttpResponse.bodySize(), 11);
+
+    EmbeddedChannel channel = new EmbeddedChannel(new ChunkedWriteHandler());
+    channel.writeOutbound(preEncodedHttpResponse.encodeHead(false), preEncodedHttpResponse.streamBody(4));
+    StringBuilder written = new StringBuilder();
+    int chunks = 0;
+    ByteBuf buf;
+    while ((buf = (ByteBuf) channel.readOutbound()) != null) {
+      written.append(buf.toString(StandardCharsets.ISO_8859_1));
+      buf.release();
+      chunks++;
+    }
+    // Head, then body in chunks of 4, 4 and 3 bytes
+    Assert.assertEquals(chunks, 4);
+    Assert.assertEquals(written.toString(), preEncodedHttpResponse.encode(false).toString(StandardCharsets.ISO_8859_1));
+  }
+
+  @Test
+  public void testCacheReturnsSameInstance()
+      throws Exception {
+    RecordedHttpResponse recordedHttpResponse =
+        new RecordedHttpResponse(200, LinkedHashMultimap.create(), new RecordedStringHttpBody("Hello world"));
+    PreEncodedHttpResponseCache cache = new PreEncodedHttpResponseCache();
+    Assert.assertSame(cache.get(recordedHttpResponse), cache.get(recordedHttpResponse));
+  }
+
+  private static FullHttpResponse decode(ByteBuf encoded) {
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpResponseDecoder(), new HttpObjectAggregator(1024));
+    channel.writeInbound(encoded);
+    return (FullHttpResponse) channel.readInbound();
+  }
+}
@@ -7,22 +7,30 @@ package com.linkedin.flashback.smartproxy;
 
 import com.linkedin.flashback.SceneAccessLayer;
 import com.linkedin.flashback.matchrules.MatchRule;
+import com.linkedin.flashback.netty.mapper.PreEncodedHttpResponseCache;
 import com.linkedin.flashback.scene.Scene;
 import com.linkedin.flashback.scene.SceneMode;
 import com.linkedin.flashback.smartproxy.proxycontroller.RecordController;
+import com.linkedin.flashback.smartproxy.proxycontroller.RecordingExecutor;
 import com.linkedin.flashback.smartproxy.proxycontroller.ReplayController;
+import com.linkedin.flashback.smartproxy.proxycontroller.ReplayOrRecordController;
+import com.linkedin.mitm.factory.KeyPairFactory;
 import com.linkedin.mitm.model.CertificateAuthority;
 import com.linkedin.mitm.model.Protocol;
+import com.linkedin.mitm.proxy.ProxyEventLoopGroups;
 import com.linkedin.mitm.proxy.ProxyServer;
+import com.linkedin.mitm.proxy.channel.Transport;
 import com.linkedin.mitm.proxy.connectionflow.steps.ConnectionFlowStep;
 import com.linkedin.mitm.proxy.dataflow.ProxyModeController;
 import com.linkedin.mitm.proxy.dataflow.ProxyModeControllerFactory;
 import com.linkedin.mitm.proxy.factory.ConnectionFlowFactory;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import org.apache.log4j.Logger;
 
 
@@ -81,21 +89,38 @@ import org.apache.log4j.Logger;
 public class FlashbackRunner implements AutoCloseable {
   private static final String MODULE = FlashbackRunner.class.getName();
   private static final Logger LOG = Logger.getLogger(MODULE);
+  private static final int DEFAULT_STREAMING_REPLAY_THRESHOLD = 1024 * 1024;
   private final ProxyServer _proxyServer;
   private final SceneAccessLayer _sceneAccessLayer;
+  // Only set in modes that record. Unless one is given to the builder, a new executor is started with the
+  // proxy server and closed when it stops, since a closed executor records on calling threads.
+  private volatile RecordingExecutor _recordingExecutor;
+  private final boolean _ownsRecordingExecutor;
   private boolean _running;
 
   private FlashbackRunner(final Builder builder) {
     _sceneAccessLayer = builder._sceneAccessLayer;
-    if (builder._sceneMode == SceneMode.RECORD || builder._sceneMode == SceneMode.SEQUENTIAL_RECORD) {
-      _proxyServer = createProxyServerInRecordMode(builder);
+    if (builder._parallelScanPool != null) {
+      _sceneAccessLayer.setParallelScan(builder._parallelScanPool, builder._parallelScanThreshold);
+    }
+    if (builder._sceneMode == SceneMode.RECORD || builder._sceneMode == SceneMode.SEQUENTIAL_RECORD
+        || builder._sceneMode == SceneMode.PLAYBACK_OR_RECORD) {
+      _ownsRecordingExecutor = builder._recordingExecutor == null;
+      _recordingExecutor = builder._recordingExecutor;
+      _proxyServer = builder._sceneMode == SceneMode.PLAYBACK_OR_RECORD ? createProxyServerInReplayOrRecordMode(builder)
+          : createProxyServerInRecordMode(builder);
     } else {
+      _ownsRecordingExecutor = false;
+      _recordingExecutor = null;
       _proxyServer = createProxyServerInReplayMode(builder);
     }
   }
 
   public void start()
       throws InterruptedException {
+    if (_ownsRecordingExecutor && (_recordingExecutor == null || _recordingExecutor.isClosed())) {
+      _recordingExecutor = new RecordingExecutor();
+    }
     _proxyServer.start();
     _running = true;
   }
@@ -104,12 +129,18 @@ public class FlashbackRunner implements AutoCloseable {
     if (!_running) {
       throw new IllegalStateException("Flashback proxy server is already stopped");
     }
-    _sceneAccessLayer.flush();
     _proxyServer.stop();
+    if (_ownsRecordingExecutor) {
+      _recordingExecutor.close();
+    } else {
+      flushRecordings();
+    }
+    _sceneAccessLayer.flush();
     _running = false;
   }
 
   public void setScene(Scene scene) {
+    flushRecordings();
     _sceneAccessLayer.flush();
     _sceneAccessLayer.setScene(scene);
   }
@@ -118,6 +149,15 @@ public class FlashbackRunner implements AutoCloseable {
     _sceneAccessLayer.setMatchRule(matchRule);
   }
 
+  /**
+   * Wait until exchanges recorded so far are in the scene
+   */
+  private void flushRecordings() {
+    if (_recordingExecutor != null) {
+      _recordingExecutor.flush();
+    }
+  }
+
   @Override
   public void close() {
     if (_running) {
@@ -129,10 +169,12 @@ public class FlashbackRunner implements AutoCloseable {
    * Create proxy server in replay mode
    */
   private ProxyServer createProxyServerInReplayMode(Builder builder) {
+    // Shared by all of requests, so each recorded response only gets encoded once
+    PreEncodedHttpResponseCache responseCache = new PreEncodedHttpResponseCache();
     ProxyModeControllerFactory proxyModeControllerFactory = new ProxyModeControllerFactory() {
       @Override
       public ProxyModeController create(HttpRequest httpRequest) {
-        return new ReplayController(_sceneAccessLayer, httpRequest);
+        return new ReplayController(_sceneAccessLayer, responseCache, builder._streamingReplayThreshold, httpRequest);
       }
     };
 
@@ -140,12 +182,15 @@ public class FlashbackRunner implements AutoCloseable {
     List<ConnectionFlowStep> httpReplayConnectionFlow = ConnectionFlowFactory.createClientOnlyHttpConnectionFlow();
     ProxyServer.Builder proxyServerBuilder =
         new ProxyServer.Builder().proxyModeControllerFactory(proxyModeControllerFactory)
-            .connectionFlow(Protocol.HTTP, httpReplayConnectionFlow).host(builder._host).port(builder._port);
+            .connectionFlow(Protocol.HTTP, httpReplayConnectionFlow).host(builder._host).port(builder._port)
+            .transport(builder._transport).eventLoopGroups(builder._eventLoopGroups);
     if (requiresHttps(builder)) {
       //Create Https connection flow for replay mode
-      List<ConnectionFlowStep> httpsReplayConnectionFlow = ConnectionFlowFactory
-          .createClientOnlyHttpsConnectionFlow(builder._rootCertificateInputStream, builder._rootCertificatePassphrase,
-              builder._certificateAuthority);
+      List<ConnectionFlowStep> httpsReplayConnectionFlow = builder._keyPairFactory == null
+          ? ConnectionFlowFactory.createClientOnlyHttpsConnectionFlow(builder._rootCertificateInputStream,
+              builder._rootCertificatePassphrase, builder._certificateAuthority)
+          : ConnectionFlowFactory.createClientOnlyHttpsConnectionFlow(builder._rootCertificateInputStream,
+              builder._rootCertificatePassphrase, builder._certificateAuthority, builder._keyPairFactory);
       proxyServerBuilder.connectionFlow(Protocol.HTTPS, httpsReplayConnectionFlow);
     }
     return proxyServerBuilder.build();
@@ -158,19 +203,58 @@ public class FlashbackRunner implements AutoCloseable {
     ProxyModeControllerFactory proxyModeControllerFactory = new ProxyModeControllerFactory() {
       @Override
       public ProxyModeController create(HttpRequest httpRequest) {
-        return new RecordController(_sceneAccessLayer, httpRequest);
+        return new RecordController(_sceneAccessLayer, _recordingExecutor, builder._bodySpillThreshold,
+            httpRequest);
       }
     };
     //Create Http connection flow for record mode
     List<ConnectionFlowStep> httpConnectionFlow = ConnectionFlowFactory.createFullHttpConnectionFlow();
     ProxyServer.Builder proxyServerBuilder =
         new ProxyServer.Builder().proxyModeControllerFactory(proxyModeControllerFactory)
-            .connectionFlow(Protocol.HTTP, httpConnectionFlow).host(builder._host).port(builder._port);
+            .connectionFlow(Protocol.HTTP, httpConnectionFlow).host(builder._host).port(builder._port)
+            .transport(builder._transport).eventLoopGroups(builder._eventLoopGroups);
     if (requiresHttps(builder)) {
       //Create Https connection flow for record mode
-      List<ConnectionFlowStep> httpsConnectionFlow = ConnectionFlowFactory
-          .createFullHttpsConnectionFlow(builder._rootCertificateInputStream, builder._rootCertificatePassphrase,
-              builder._certificateAuthority);
+      List<ConnectionFlowStep> httpsConnectionFlow = builder._keyPairFactory == null
+          ? ConnectionFlowFactory.createFullHttpsConnectionFlow(builder._rootCertificateInputStream,
+              builder._rootCertificatePassphrase, builder._certificateAuthority)
+          : ConnectionFlowFactory.createFullHttpsConnectionFlow(builder._rootCertificateInputStream,
+              builder._rootCertificatePassphrase, builder._certificateAuthority, builder._keyPairFactory);
+      proxyServerBuilder.connectionFlow(Protocol.HTTPS, httpsConnectionFlow);
+    }
+    return proxyServerBuilder.build();
+  }
+
+  /**
+   * Create proxy server in playback or record mode. Client connections are accepted the same way as in replay mode,
+   * server connections are only made for requests that have to be recorded.
+   */
+  private ProxyServer createProxyServerInReplayOrRecordMode(Builder builder) {
+    PreEncodedHttpResponseCache responseCache = new PreEncodedHttpResponseCache();
+    List<ConnectionFlowStep> httpServerConnectionFlow = ConnectionFlowFactory.createServerOnlyHttpConnectionFlow();
+    List<ConnectionFlowStep> httpsServerConnectionFlow =
+        requiresHttps(builder) ? ConnectionFlowFactory.createServerOnlyHttpsConnectionFlow() : null;
+    ProxyModeControllerFactory proxyModeControllerFactory = new ProxyModeControllerFactory() {
+      @Override
+      public ProxyModeController create(HttpRequest httpRequest) {
+        List<ConnectionFlowStep> serverConnectionFlow =
+            HttpMethod.CONNECT.equals(httpRequest.getMethod()) ? httpsServerConnectionFlow : httpServerConnectionFlow;
+        return new ReplayOrRecordController(_sceneAccessLayer, responseCache, _recordingExecutor, serverConnectionFlow,
+            builder._streamingReplayThreshold, builder._bodySpillThreshold, httpRequest);
+      }
+    };
+
+    List<ConnectionFlowStep> httpConnectionFlow = ConnectionFlowFactory.createClientOnlyHttpConnectionFlow();
+    ProxyServer.Builder proxyServerBuilder =
+        new ProxyServer.Builder().proxyModeControllerFactory(proxyModeControllerFactory)
+            .connectionFlow(Protocol.HTTP, httpConnectionFlow).host(builder._host).port(builder._port)
+            .transport(builder._transport).eventLoopGroups(builder._eventLoopGroups);
+    if (httpsServerConnectionFlow != null) {
+      List<ConnectionFlowStep> httpsConnectionFlow = builder._keyPairFactory == null
+          ? ConnectionFlowFactory.createClientOnlyHttpsConnectionFlow(builder._rootCertificateInputStream,
+              builder._rootCertificatePassphrase, builder._certificateAuthority)
+          : ConnectionFlowFactory.createClientOnlyHttpsConnectionFlow(builder._rootCertificateInputStream,
+              builder._rootCertificatePassphrase, builder._certificateAuthority, builder._keyPairFactory);
       proxyServerBuilder.connectionFlow(Protocol.HTTPS, httpsConnectionFlow);
     }
     return proxyServerBuilder.build();
@@ -192,7 +276,15 @@ public class FlashbackRunner implements AutoCloseable {
     private InputStream _rootCertificateInputStream;
     private String _rootCertificatePassphrase;
     private CertificateAuthority _certificateAuthority;
+    private KeyPairFactory _keyPairFactory;
     private SceneAccessLayer _sceneAccessLayer;
+    private Transport _transport = Transport.bestAvailable();
+    private ProxyEventLoopGroups _eventLoopGroups;
+    private int _streamingReplayThreshold = DEFAULT_STREAMING_REPLAY_THRESHOLD;
+    private int _bodySpillThreshold;
+    private RecordingExecutor _recordingExecutor;
+    private ForkJoinPool _parallelScanPool;
+    private int _parallelScanThreshold;
 
     /**
      * @param port proxy port number
@@ -257,6 +349,83 @@ public class FlashbackRunner implements AutoCloseable {
       return this;
     }
 
+    /**
+     * @param keyPairFactory Factory of key pairs for generated server certificates, i.e.
+     *                       new PooledKeyPairFactory(new ECKeyPairFactory()) for ECDSA P-256 keys
+     *                       pre-generated in background. Caller closes a pooled factory once it's done
+     *                       with the runner.
+     *                       Default: 1024-bit RSA keys generated as needed
+     */
+    public Builder keyPairFactory(KeyPairFactory keyPairFactory) {
+      _keyPairFactory = keyPairFactory;
+      return this;
+    }
+
+    /**
+     * @param transport Netty transport of proxy channels, falls back to NIO if it's not available.
+     *        Default: EPOLL on Linux, NIO elsewhere
+     */
+    public Builder transport(Transport transport) {
+      _transport = transport;
+      return this;
+    }
+
+    /**
+     * @param eventLoopGroups event loop groups shared with other runners, which are not shut down when this runner
+     *                        stops. Default: null, runner creates its own event loop groups
+     */
+    public Builder eventLoopGroups(ProxyEventLoopGroups eventLoopGroups) {
+      _eventLoopGroups = eventLoopGroups;
+      return this;
+    }
+
+    /**
+     * @param streamingReplayThreshold in replay mode, response bodies larger than this number of bytes are streamed
+     *                                 in chunks as client is ready to take them. 0 to always write whole responses.
+     *                                 Default: 1MB
+     */
+    public Builder streamingReplayThreshold(int streamingReplayThreshold) {
+      _streamingReplayThreshold = streamingReplayThreshold;
+      return this;
+    }
+
+    /**
+     * @param bodySpillThreshold in record mode, request and response bodies larger than this number of bytes are
+     *                           captured in temporary files, which scene writer moves next to the scene file.
+     *                           Bodies are kept as they came over the wire. 0 to capture all bodies in memory.
+     *                           Default: 0
+     */
+    public Builder bodySpillThreshold(int bodySpillThreshold) {
+      _bodySpillThreshold = bodySpillThreshold;
+      return this;
+    }
+
+    /**
+     * @param recordingExecutor executor that records exchanges off I/O threads in record mode, i.e. one with a
+     *                          different queue capacity or overflow policy, or one that is watched for metrics.
+     *                          It's flushed but not closed when this runner stops.
+     *                          Default: null, runner creates its own executor with a queue of 1024 that blocks
+     *                          when full
+     */
+    public Builder recordingExecutor(RecordingExecutor recordingExecutor) {
+      _recordingExecutor = recordingExecutor;
+      return this;
+    }
+
+    /**
+     * @param forkJoinPool pool that scans large scenes for matching requests in parallel when match rule can't
+     *                     narrow down candidates by match key, see {@link SceneAccessLayer#setParallelScan}. I/O
+     *                     thread waits for the scan, so this only shortens lookups in large scenes. Pool is not
+     *                     shut down when this runner stops.
+     * @param threshold scenes with at least this many exchanges are scanned in parallel
+     *        Default: null, scenes are always scanned in turn
+     */
+    public Builder parallelScan(ForkJoinPool forkJoinPool, int threshold) {
+      _parallelScanPool = forkJoinPool;
+      _parallelScanThreshold = threshold;
+      return this;
+    }
+
     /**
      * @param sceneAccessLayer Access layer to record/replay scenes.
      */
@@ -274,6 +443,15 @@ public class FlashbackRunner implements AutoCloseable {
       if (_sceneAccessLayer == null) {
         throw new IllegalStateException("scene access layer can't be null");
       }
+      if (_streamingReplayThreshold < 0) {
+        throw new IllegalStateException("streaming replay threshold can't be negative");
+      }
+      if (_bodySpillThreshold < 0) {
+        throw new IllegalStateException("body spill threshold can't be negative");
+      }
+      if (_parallelScanPool != null && _parallelScanThreshold <= 0) {
+        throw new IllegalStateException("parallel scan threshold must be positive");
+      }
     }
   }
 }
@@ -31,10 +31,28 @@ public class RecordController implements ProxyModeController {
   private final RecordedHttpRequestBuilder _clientRequestBuilder;
   private RecordedHttpResponseBuilder _serverResponseBuilder;
   private final SceneAccessLayer _sceneAccessLayer;
+  private final RecordingExecutor _recordingExecutor;
+  private final int _bodySpillThreshold;
+  // Guarded by this, since channel may close on client or server thread while the exchange is recorded.
+  private boolean _disconnected;
+  private boolean _handedOver;
 
   public RecordController(SceneAccessLayer sceneAccessLayer, HttpRequest httpRequest) {
-    _clientRequestBuilder = new RecordedHttpRequestBuilder(httpRequest);
+    this(sceneAccessLayer, null, 0, httpRequest);
+  }
+
+  /**
+   * @param recordingExecutor executor that builds and records exchanges off I/O thread, or null to record
+   *                          them on I/O thread
+   * @param bodySpillThreshold request and response bodies larger than this number of bytes are captured in
+   *                           temporary files rather than in memory, 0 to keep all bodies in memory
+   * */
+  public RecordController(SceneAccessLayer sceneAccessLayer, RecordingExecutor recordingExecutor,
+      int bodySpillThreshold, HttpRequest httpRequest) {
+    _clientRequestBuilder = new RecordedHttpRequestBuilder(httpRequest, bodySpillThreshold);
     _sceneAccessLayer = sceneAccessLayer;
+    _recordingExecutor = recordingExecutor;
+    _bodySpillThreshold = bodySpillThreshold;
   }
 
   @Override
@@ -63,7 +81,7 @@ public class RecordController implements ProxyModeController {
   @Override
   public void handleReadFromServer(HttpObject httpObject) {
     if (httpObject instanceof HttpResponse) {
-      _serverResponseBuilder = new RecordedHttpResponseBuilder((HttpResponse) httpObject);
+      setServerResponseBuilder(new RecordedHttpResponseBuilder((HttpResponse) httpObject, _bodySpillThreshold));
     }
 
     try {
@@ -71,11 +89,53 @@ public class RecordController implements ProxyModeController {
         _serverResponseBuilder.appendHttpContent((HttpContent) httpObject);
       }
 
-      if (httpObject instanceof LastHttpContent) {
-        _sceneAccessLayer.record(_clientRequestBuilder.build(), _serverResponseBuilder.build());
+      if (httpObject instanceof LastHttpContent && handOver()) {
+        // Builders are complete and nothing appends to them anymore, so they can be built on another thread.
+        RecordedHttpRequestBuilder clientRequestBuilder = _clientRequestBuilder;
+        RecordedHttpResponseBuilder serverResponseBuilder = _serverResponseBuilder;
+        Runnable recording =
+            () -> _sceneAccessLayer.record(clientRequestBuilder.build(), serverResponseBuilder.build());
+        if (_recordingExecutor != null) {
+          _recordingExecutor.execute(recording, () -> {
+            clientRequestBuilder.release();
+            serverResponseBuilder.release();
+          });
+        } else {
+          recording.run();
+        }
       }
     } catch (IOException e) {
       throw new RuntimeException("HRFS: Failed to record HttpContent", e);
     }
   }
+
+  /**
+   * Release builders of an exchange that won't be recorded, deleting bodies they spilled to files.
+   * */
+  @Override
+  public synchronized void handleDisconnect() {
+    if (!_handedOver && !_disconnected) {
+      _clientRequestBuilder.release();
+      if (_serverResponseBuilder != null) {
+        _serverResponseBuilder.release();
+      }
+    }
+    _disconnected = true;
+  }
+
+  private synchronized void setServerResponseBuilder(RecordedHttpResponseBuilder serverResponseBuilder) {
+    _serverResponseBuilder = serverResponseBuilder;
+    if (_disconnected) {
+      serverResponseBuilder.release();
+    }
+  }
+
+  /**
+   * @return true if exchange is complete and its builders now belong to recording, false if connection
+   * closed before and they have been released
+   * */
+  private synchronized boolean handOver() {
+    _handedOver = !_disconnected;
+    return _handedOver;
+  }
 }
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.smartproxy.proxycontroller;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Executor that records http exchanges on a background thread, so building recorded messages and updating
+ * the scene doesn't hold up I/O threads forwarding responses to clients. Recordings are queued in a bounded
+ * queue and run one at a time in the order they were queued, which keeps sequential scenes and scene journals
+ * in order. What happens when the queue is full is decided by {@link OverflowPolicy}.
+ */
+public class RecordingExecutor implements AutoCloseable {
+  private static final String MODULE = RecordingExecutor.class.getName();
+  private static final Logger LOG = Logger.getLogger(MODULE);
+  public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+  public static final int DEFAULT_SAMPLE_INTERVAL = 10;
+  private static final long CLOSED_CHECK_INTERVAL_MS = 100;
+
+  /**
+   * What to do with a recording when the queue is full
+   */
+  public enum OverflowPolicy {
+    // Caller waits until there is room, so nothing is lost but I/O thread is held up
+    BLOCK,
+    // Recording is dropped
+    DROP,
+    // Caller waits for one out of every sample interval recordings, the others are dropped
+    SAMPLE
+  }
+
+  private final BlockingQueue<Runnable> _queue;
+  private final OverflowPolicy _overflowPolicy;
+  private final int _sampleInterval;
+  private final Thread _recordingThread;
+  private final AtomicLong _overflowCount = new AtomicLong();
+  private final AtomicLong _recordedCount = new AtomicLong();
+  private final AtomicLong _droppedCount = new AtomicLong();
+  private final AtomicLong _failedCount = new AtomicLong();
+  private final AtomicInteger _maxQueueSize = new AtomicInteger();
+  // Queued by close(), recording thread stops once it gets there
+  private final Runnable _stopMarker = () -> { };
+  // Held by recordings that run on their callers after close, so they still run one at a time
+  private final Object _closedRecordingLock = new Object();
+  private volatile boolean _closed;
+
+  /**
+   * @param queueCapacity max number of recordings waiting for recording thread
+   * @param overflowPolicy what to do with a recording when the queue is full
+   * @param sampleInterval with {@link OverflowPolicy#SAMPLE}, one out of this many overflowing recordings is kept
+   * */
+  public RecordingExecutor(int queueCapacity, OverflowPolicy overflowPolicy, int sampleInterval) {
+    if (queueCapacity <= 0) {
+      throw new IllegalArgumentException("queue capacity must be positive");
+    }
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("overflow policy can't be null");
+    }
+    if (sampleInterval <= 0) {
+      throw new IllegalArgumentException("sample interval must be positive");
+    }
+    _queue = new ArrayBlockingQueue<>(queueCapacity);
+    _overflowPolicy = overflowPolicy;
+    _sampleInterval = sampleInterval;
+    _recordingThread = new Thread(this::run, "flashback-recording");
+    _recordingThread.setDaemon(true);
+    _recordingThread.start();
+  }
+
+  public RecordingExecutor(int queueCapacity, OverflowPolicy overflowPolicy) {
+    this(queueCapacity, overflowPolicy, DEFAULT_SAMPLE_INTERVAL);
+  }
+
+  public RecordingExecutor() {
+    this(DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+  }
+
+  /**
+   * Queue recording, or handle it according to overflow policy if the queue is full.
+   * Failed recordings are logged and counted, they never reach the caller.
+   * */
+  public void execute(Runnable recording) {
+    execute(recording, null);
+  }
+
+  /**
+   * Queue recording, or handle it according to overflow policy if the queue is full. Once executor is closed,
+   * recording runs on calling thread instead, after recording thread has finished recordings queued before.
+   * Failed recordings are logged and counted, they never reach the
+   * caller.
+   * @param onDrop run instead of recording if it's dropped, to release whatever recording holds, may be null
+   * */
+  public void execute(Runnable recording, Runnable onDrop) {
+    Runnable task = () -> {
+      try {
+        recording.run();
+        _recordedCount.incrementAndGet();
+      } catch (RuntimeException e) {
+        _failedCount.incrementAndGet();
+        LOG.error("Failed to record http exchange", e);
+      }
+    };
+    try {
+      if (enqueue(task, false)) {
+        _maxQueueSize.accumulateAndGet(_queue.size(), Math::max);
+        return;
+      }
+      long overflowCount = _overflowCount.incrementAndGet();
+      if (_overflowPolicy == OverflowPolicy.BLOCK
+          || (_overflowPolicy == OverflowPolicy.SAMPLE && overflowCount % _sampleInterval == 0)) {
+        enqueue(task, true);
+        return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    _droppedCount.incrementAndGet();
+    LOG.debug("Recording queue is full, dropped http exchange");
+    if (onDrop != null) {
+      onDrop.run();
+    }
+  }
+
+  /**
+   * Wait until all of recordings queued so far are done, so scene can be written or replaced.
+   * Once executor is closed, only waits for recording thread to stop, since recordings are done by their callers
+   * from then on.
+   * Must not be called from a recording.
+   * */
+  public void flush() {
+    CountDownLatch done = new CountDownLatch(1);
+    try {
+      enqueue(done::countDown, true);
+      done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for recordings", e);
+    }
+  }
+
+  /**
+   * Finish queued recordings and stop recording thread. Recordings executed afterwards run on calling thread,
+   * once recording thread is done.
+   * */
+  @Override
+  public synchronized void close() {
+    if (_closed) {
+      return;
+    }
+    _closed = true;
+    try {
+      _queue.put(_stopMarker);
+      _recordingThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for recordings", e);
+    }
+  }
+
+  public boolean isClosed() {
+    return _closed;
+  }
+
+  /**
+   * Queue task for recording thread, or run it on calling thread once executor is closed.
+   * @param wait true to wait for room if the queue is full
+   * @return false if the queue was full and task wasn't queued
+   * */
+  private boolean enqueue(Runnable task, boolean wait)
+      throws InterruptedException {
+    if (!_closed) {
+      if (wait) {
+        while (!_queue.offer(task, CLOSED_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+          if (_closed) {
+            runAfterClose(task);
+            return true;
+          }
+        }
+      } else if (!_queue.offer(task)) {
+        return false;
+      }
+      // Recording thread may have stopped after closing was checked, then task is taken back and run here
+      if (!_closed || !_queue.remove(task)) {
+        return true;
+      }
+    }
+    runAfterClose(task);
+    return true;
+  }
+
+  /**
+   * Run task on calling thread once recording thread has stopped. Recording thread may still be finishing
+   * tasks queued while closing, running the task before them would record out of order.
+   * */
+  private void runAfterClose(Runnable task)
+      throws InterruptedException {
+    if (Thread.currentThread() != _recordingThread) {
+      _recordingThread.join();
+    }
+    synchronized (_closedRecordingLock) {
+      task.run();
+    }
+  }
+
+  /**
+   * @return number of recordings waiting for recording thread
+   * */
+  public int getQueueSize() {
+    return _queue.size();
+  }
+
+  /**
+   * @return highest number of recordings that were waiting for recording thread at once
+   * */
+  public int getMaxQueueSize() {
+    return _maxQueueSize.get();
+  }
+
+  /**
+   * @return number of recordings that found the queue full, whether they were kept or dropped
+   * */
+  public long getOverflowCount() {
+    return _overflowCount.get();
+  }
+
+  public long getRecordedCount() {
+    return _recordedCount.get();
+  }
+
+  public long getDroppedCount() {
+    return _droppedCount.get();
+  }
+
+  public long getFailedCount() {
+    return _failedCount.get();
+  }
+
+  private void run() {
+    try {
+      Runnable task;
+      while ((task = _queue.take()) != _stopMarker) {
+        task.run();
+      }
+    } catch (InterruptedException e) {
+      LOG.warn("Recording thread interrupted");
+    }
+    // Tasks queued while closing are done here, later ones by their callers
+    Runnable task;
+    while ((task = _queue.poll()) != null) {
+      task.run();
+    }
+    LOG.debug("Stopped recording thread");
+  }
+}
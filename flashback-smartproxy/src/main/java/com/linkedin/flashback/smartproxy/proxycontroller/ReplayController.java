@@ -7,7 +7,8 @@ package com.linkedin.flashback.smartproxy.proxycontroller;
 
 import com.linkedin.flashback.SceneAccessLayer;
 import com.linkedin.flashback.netty.builder.RecordedHttpRequestBuilder;
-import com.linkedin.flashback.netty.mapper.NettyHttpResponseMapper;
+import com.linkedin.flashback.netty.mapper.PreEncodedHttpResponse;
+import com.linkedin.flashback.netty.mapper.PreEncodedHttpResponseCache;
 import com.linkedin.flashback.serializable.RecordedHttpRequest;
 import com.linkedin.flashback.serializable.RecordedHttpResponse;
 import com.linkedin.flashback.smartproxy.utils.NoMatchResponseGenerator;
@@ -15,9 +16,9 @@ import com.linkedin.mitm.proxy.channel.ChannelMediator;
 import com.linkedin.mitm.proxy.dataflow.ProxyModeController;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
-import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.LastHttpContent;
 import java.io.IOException;
 import org.apache.log4j.Logger;
@@ -25,20 +26,44 @@ import org.apache.log4j.Logger;
 
 /**
  * Replay controller which playback http response based on matched http request
- * New instance gets created for each new connection coming.
+ * New instance gets created for each new request coming. If client asks for keep-alive,
+ * the client connection is kept open for following requests.
  *
  * @author shfeng
  */
 public class ReplayController implements ProxyModeController {
   private static final Logger LOG = Logger.getLogger(ReplayController.class);
+  private static final int STREAMING_CHUNK_SIZE = 64 * 1024;
 
   private final RecordedHttpRequestBuilder _clientRequestBuilder;
   private final SceneAccessLayer _sceneAccessLayer;
-
+  private final PreEncodedHttpResponseCache _responseCache;
+  private final int _streamingThreshold;
+  private boolean _keepAlive;
 
   public ReplayController(SceneAccessLayer sceneAccessLayer, HttpRequest httpRequest) {
+    this(sceneAccessLayer, new PreEncodedHttpResponseCache(0), httpRequest);
+  }
+
+  /**
+   * @param responseCache cache of encoded responses, which should be shared by all of controllers of one scene
+   * */
+  public ReplayController(SceneAccessLayer sceneAccessLayer, PreEncodedHttpResponseCache responseCache,
+      HttpRequest httpRequest) {
+    this(sceneAccessLayer, responseCache, 0, httpRequest);
+  }
+
+  /**
+   * @param responseCache cache of encoded responses, which should be shared by all of controllers of one scene
+   * @param streamingThreshold bodies larger than this number of bytes are streamed in chunks as client channel
+   *                           becomes writable, rather than written in one go. 0 to never stream.
+   * */
+  public ReplayController(SceneAccessLayer sceneAccessLayer, PreEncodedHttpResponseCache responseCache,
+      int streamingThreshold, HttpRequest httpRequest) {
     _clientRequestBuilder = new RecordedHttpRequestBuilder(httpRequest);
     _sceneAccessLayer = sceneAccessLayer;
+    _responseCache = responseCache;
+    _streamingThreshold = streamingThreshold;
   }
 
   @Override
@@ -52,6 +77,7 @@ public class ReplayController implements ProxyModeController {
         HttpRequest httpRequest = (HttpRequest) httpObject;
         _clientRequestBuilder.interpretHttpRequest(httpRequest);
         _clientRequestBuilder.addHeaders(httpRequest);
+        _keepAlive = HttpHeaders.isKeepAlive(httpRequest);
       }
 
       if (httpObject instanceof HttpContent) {
@@ -59,8 +85,7 @@ public class ReplayController implements ProxyModeController {
       }
 
       if (httpObject instanceof LastHttpContent) {
-        HttpResponse httpResponse = playBack();
-        channelMediator.writeToClientAndDisconnect(httpResponse);
+        playBack(channelMediator);
       }
     } catch (IOException e) {
       throw new RuntimeException("HRFC: Failed to replay HttpContent", e);
@@ -73,22 +98,54 @@ public class ReplayController implements ProxyModeController {
   }
 
   /**
-   * If found matched request, then return response accordingly.
-   * Otherwise, return bad request.
-   *
-   * @return bad request if not matched request/response found in the scene.
+   * Client relies on message length to find the end of response on a persistent connection, so
+   * recorded framing headers are replaced by the actual length of the replayed body.
+   * */
+  private static void setKeepAliveHeaders(FullHttpResponse httpResponse) {
+    httpResponse.headers().remove(HttpHeaders.Names.TRANSFER_ENCODING);
+    HttpHeaders.setContentLength(httpResponse, httpResponse.content().readableBytes());
+    httpResponse.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+  }
+
+  /**
+   * If found matched request, then write response accordingly.
+   * Otherwise, write bad request.
    * */
-  private FullHttpResponse playBack()
+  private void playBack(ChannelMediator channelMediator)
       throws IOException {
     RecordedHttpRequest recordedHttpRequest = _clientRequestBuilder.build();
-    boolean found = _sceneAccessLayer.hasMatchRequest(recordedHttpRequest);
-    if (!found) {
+    RecordedHttpResponse recordedHttpResponse = _sceneAccessLayer.tryPlayback(recordedHttpRequest);
+    if (recordedHttpResponse == null) {
       if (LOG.isDebugEnabled()) {
         LOG.debug(_sceneAccessLayer.getMatchFailureDescription(recordedHttpRequest));
       }
-      return NoMatchResponseGenerator.generateNoMatchResponse(recordedHttpRequest);
+      FullHttpResponse httpResponse = NoMatchResponseGenerator.generateNoMatchResponse(recordedHttpRequest);
+      if (_keepAlive) {
+        setKeepAliveHeaders(httpResponse);
+        channelMediator.writeToClientAndKeepAlive(httpResponse);
+      } else {
+        channelMediator.writeToClientAndDisconnect(httpResponse);
+      }
+      return;
+    }
+    writeResponse(channelMediator, _responseCache, _streamingThreshold, recordedHttpResponse, _keepAlive);
+  }
+
+  /**
+   * Write recorded response back to client in its encoded form, from a file, in chunks or in one go.
+   * */
+  static void writeResponse(ChannelMediator channelMediator, PreEncodedHttpResponseCache responseCache,
+      int streamingThreshold, RecordedHttpResponse recordedHttpResponse, boolean keepAlive)
+      throws IOException {
+    PreEncodedHttpResponse encodedResponse = responseCache.get(recordedHttpResponse);
+    if (encodedResponse.getBodyFile() != null) {
+      channelMediator.writeEncodedToClient(encodedResponse.encode(keepAlive), encodedResponse.getBodyFile(),
+          keepAlive);
+    } else if (streamingThreshold > 0 && encodedResponse.bodySize() > streamingThreshold) {
+      channelMediator.writeEncodedToClient(encodedResponse.encodeHead(keepAlive),
+          encodedResponse.streamBody(STREAMING_CHUNK_SIZE), keepAlive);
+    } else {
+      channelMediator.writeEncodedToClient(encodedResponse.encode(keepAlive), keepAlive);
     }
-    RecordedHttpResponse recordedHttpResponse = _sceneAccessLayer.playback(recordedHttpRequest);
-    return NettyHttpResponseMapper.from(recordedHttpResponse);
   }
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.smartproxy.proxycontroller;
+
+import com.linkedin.flashback.SceneAccessLayer;
+import com.linkedin.flashback.netty.builder.RecordedHttpRequestBuilder;
+import com.linkedin.flashback.netty.builder.RecordedHttpResponseBuilder;
+import com.linkedin.flashback.netty.mapper.PreEncodedHttpResponseCache;
+import com.linkedin.flashback.serializable.RecordedFileHttpBody;
+import com.linkedin.flashback.serializable.RecordedHttpRequest;
+import com.linkedin.flashback.serializable.RecordedHttpResponse;
+import com.linkedin.mitm.proxy.channel.ChannelMediator;
+import com.linkedin.mitm.proxy.connectionflow.ConnectionFlowProcessor;
+import com.linkedin.mitm.proxy.connectionflow.steps.ConnectionFlowStep;
+import com.linkedin.mitm.proxy.dataflow.ProxyModeController;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Controller which plays back matched http responses like {@link ReplayController}, and forwards requests that
+ * don't match any recorded request to server and records their responses like {@link RecordController}.
+ * Client connection is accepted without connecting to server. Server is only connected once a whole request
+ * turned out not to match, so request is held until then.
+ * New instance gets created for each new request coming.
+ */
+public class ReplayOrRecordController implements ProxyModeController {
+  private static final Logger LOG = Logger.getLogger(ReplayOrRecordController.class);
+
+  private final HttpRequest _initialRequest;
+  private final RecordedHttpRequestBuilder _clientRequestBuilder;
+  private RecordedHttpResponseBuilder _serverResponseBuilder;
+  private final SceneAccessLayer _sceneAccessLayer;
+  private final PreEncodedHttpResponseCache _responseCache;
+  private final RecordingExecutor _recordingExecutor;
+  private final List<ConnectionFlowStep> _serverConnectionFlow;
+  private final int _streamingThreshold;
+  private final int _bodySpillThreshold;
+  // Request read so far, released once it's played back or written to server. Guarded by this.
+  private final List<HttpObject> _heldHttpObjects = new ArrayList<>();
+  private RecordedHttpRequest _recordedHttpRequest;
+  private boolean _keepAlive;
+  // Set once request didn't match, from then on everything read from client goes to server. Guarded by this.
+  private boolean _recording;
+  private boolean _connected;
+  // Set once connection closed, or once exchange went to recording, whatever comes first. Guarded by this.
+  private boolean _disconnected;
+  private boolean _handedOver;
+
+  /**
+   * @param initialRequest request this controller is created from, which decides what server to connect to
+   * @param responseCache cache of encoded responses, which should be shared by all of controllers of one scene
+   * @param recordingExecutor executor that records exchanges off I/O thread, or null to record them on I/O thread
+   * @param serverConnectionFlow connection flow that connects to server once client connection is already
+   *                             done, i.e. {@link com.linkedin.mitm.proxy.factory.ConnectionFlowFactory
+   *                             #createServerOnlyHttpConnectionFlow()}
+   * @param streamingThreshold played back bodies larger than this number of bytes are streamed in chunks,
+   *                           0 to never stream
+   * @param bodySpillThreshold recorded bodies larger than this number of bytes are captured in temporary files,
+   *                           0 to keep all bodies in memory
+   * */
+  public ReplayOrRecordController(SceneAccessLayer sceneAccessLayer, PreEncodedHttpResponseCache responseCache,
+      RecordingExecutor recordingExecutor, List<ConnectionFlowStep> serverConnectionFlow, int streamingThreshold,
+      int bodySpillThreshold, HttpRequest initialRequest) {
+    _initialRequest = initialRequest;
+    _clientRequestBuilder = new RecordedHttpRequestBuilder(initialRequest, bodySpillThreshold);
+    _sceneAccessLayer = sceneAccessLayer;
+    _responseCache = responseCache;
+    _recordingExecutor = recordingExecutor;
+    _serverConnectionFlow = serverConnectionFlow;
+    _streamingThreshold = streamingThreshold;
+    _bodySpillThreshold = bodySpillThreshold;
+  }
+
+  @Override
+  public void handleReadFromClient(ChannelMediator channelMediator, HttpObject httpObject) {
+    if (channelMediator == null) {
+      throw new IllegalStateException("HRFC: ChannelMediator can't be null");
+    }
+    if (forwardOrHold(channelMediator, httpObject)) {
+      return;
+    }
+
+    try {
+      if (httpObject instanceof HttpRequest) {
+        HttpRequest httpRequest = (HttpRequest) httpObject;
+        _clientRequestBuilder.interpretHttpRequest(httpRequest);
+        _clientRequestBuilder.addHeaders(httpRequest);
+        _keepAlive = HttpHeaders.isKeepAlive(httpRequest);
+      }
+
+      if (httpObject instanceof HttpContent) {
+        _clientRequestBuilder.appendHttpContent((HttpContent) httpObject);
+      }
+
+      if (httpObject instanceof LastHttpContent) {
+        _recordedHttpRequest = _clientRequestBuilder.build();
+        RecordedHttpResponse recordedHttpResponse = _sceneAccessLayer.tryPlayback(_recordedHttpRequest);
+        if (recordedHttpResponse != null) {
+          // Played back request isn't recorded, so a body it spilled to a file is of no use anymore
+          RecordedFileHttpBody.discard(_recordedHttpRequest.getHttpBody());
+          releaseHeldHttpObjects();
+          ReplayController.writeResponse(channelMediator, _responseCache, _streamingThreshold,
+              recordedHttpResponse, _keepAlive);
+        } else {
+          connectToServer(channelMediator);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("HRFC: Failed to replay HttpContent", e);
+    }
+  }
+
+  @Override
+  public void handleReadFromServer(HttpObject httpObject) {
+    if (httpObject instanceof HttpResponse) {
+      setServerResponseBuilder(new RecordedHttpResponseBuilder((HttpResponse) httpObject, _bodySpillThreshold));
+    }
+
+    try {
+      if (httpObject instanceof HttpContent) {
+        _serverResponseBuilder.appendHttpContent((HttpContent) httpObject);
+      }
+
+      if (httpObject instanceof LastHttpContent && handOver()) {
+        RecordedHttpRequest recordedHttpRequest = _recordedHttpRequest;
+        RecordedHttpResponseBuilder serverResponseBuilder = _serverResponseBuilder;
+        Runnable recording = () -> _sceneAccessLayer.record(recordedHttpRequest, serverResponseBuilder.build());
+        if (_recordingExecutor != null) {
+          _recordingExecutor.execute(recording, () -> {
+            RecordedFileHttpBody.discard(recordedHttpRequest.getHttpBody());
+            serverResponseBuilder.release();
+          });
+        } else {
+          recording.run();
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("HRFS: Failed to record HttpContent", e);
+    }
+  }
+
+  /**
+   * Release request held for server and builders of an exchange that won't be recorded, deleting bodies they
+   * spilled to files.
+   * */
+  @Override
+  public synchronized void handleDisconnect() {
+    releaseHeldHttpObjects();
+    if (!_handedOver && !_disconnected) {
+      _clientRequestBuilder.release();
+      if (_recordedHttpRequest != null && _recording) {
+        RecordedFileHttpBody.discard(_recordedHttpRequest.getHttpBody());
+      }
+      if (_serverResponseBuilder != null) {
+        _serverResponseBuilder.release();
+      }
+    }
+    _disconnected = true;
+  }
+
+  private synchronized void setServerResponseBuilder(RecordedHttpResponseBuilder serverResponseBuilder) {
+    _serverResponseBuilder = serverResponseBuilder;
+    if (_disconnected) {
+      serverResponseBuilder.release();
+    }
+  }
+
+  /**
+   * @return true if exchange is complete and it now belongs to recording, false if connection closed before
+   * and its builders have been released
+   * */
+  private synchronized boolean handOver() {
+    _handedOver = !_disconnected;
+    return _handedOver;
+  }
+
+  /**
+   * Forward http object to server if request didn't match and server is connected, otherwise hold it until
+   * it's known whether it goes to server. Request is matched once it's read whole, so everything is held until then.
+   * @return true if http object is forwarded to server or held only because server is being connected
+   * */
+  private synchronized boolean forwardOrHold(ChannelMediator channelMediator, HttpObject httpObject) {
+    if (_connected) {
+      channelMediator.writeToServer(httpObject);
+      return true;
+    }
+    // Client channel handler releases http object after reading, so it's retained while it's held.
+    _heldHttpObjects.add(ReferenceCountUtil.retain(httpObject));
+    return _recording;
+  }
+
+  /**
+   * Connect to server the way connection flow would have done it before reading request, and write the held
+   * request once it's connected. Client is not read from until then.
+   * */
+  private void connectToServer(ChannelMediator channelMediator) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("No matching recording, connecting to server: "
+          + _sceneAccessLayer.getMatchFailureDescription(_recordedHttpRequest));
+    }
+    synchronized (this) {
+      _recording = true;
+    }
+    // Https controllers are created from CONNECT request, so server address comes from either request's uri.
+    new ConnectionFlowProcessor(channelMediator, _initialRequest, _serverConnectionFlow).startConnectionFlow(() -> {
+      synchronized (this) {
+        for (HttpObject httpObject : _heldHttpObjects) {
+          channelMediator.writeToServer(httpObject);
+        }
+        releaseHeldHttpObjects();
+        _connected = true;
+      }
+      channelMediator.resumeReadingFromClientChannel();
+    });
+  }
+
+  private synchronized void releaseHeldHttpObjects() {
+    for (HttpObject httpObject : _heldHttpObjects) {
+      ReferenceCountUtil.release(httpObject);
+    }
+    _heldHttpObjects.clear();
+  }
+}
@@ -14,19 +14,49 @@
 
 package com.linkedin.flashback.smartproxy;
 
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
 import com.linkedin.flashback.SceneAccessLayer;
 import com.linkedin.flashback.factory.SceneFactory;
 import com.linkedin.flashback.matchrules.MatchRuleUtils;
+import com.linkedin.flashback.scene.Scene;
 import com.linkedin.flashback.scene.SceneConfiguration;
 import com.linkedin.flashback.scene.SceneMode;
+import com.linkedin.flashback.serializable.RecordedByteHttpBody;
+import com.linkedin.flashback.serializable.RecordedHttpExchange;
+import com.linkedin.flashback.serializable.RecordedHttpRequest;
+import com.linkedin.flashback.serializable.RecordedHttpResponse;
+import com.linkedin.flashback.serialization.SceneWriter;
+import com.linkedin.flashback.smartproxy.proxycontroller.RecordingExecutor;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.FileUtils;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.commons.io.IOUtils;
 import org.apache.http.util.EntityUtils;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -78,6 +108,214 @@ public class FlashbackRunnerTest {
     }
   }
 
+  @Test
+  public void testReplayHttpKeepAlive() throws InterruptedException, IOException {
+    URL flashbackScene = getClass().getResource(FLASHBACK_SCENE_DIR);
+    String rootPath = flashbackScene.getPath();
+    SceneConfiguration sceneConfiguration = new SceneConfiguration(rootPath, SCENE_MODE, HTTP_SCENE);
+    try (FlashbackRunner flashbackRunner = new FlashbackRunner.Builder().mode(SCENE_MODE)
+        .sceneAccessLayer(
+            new SceneAccessLayer(SceneFactory.create(sceneConfiguration), MatchRuleUtils.matchEntireRequest()))
+        .build()) {
+      flashbackRunner.start();
+      try (Socket socket = new Socket(PROXY_HOST, PROXY_PORT)) {
+        OutputStream outputStream = socket.getOutputStream();
+        InputStream inputStream = socket.getInputStream();
+
+        // Both requests go over the same connection
+        outputStream.write(createKeepAliveRequest("http://www.example.org/", "www.example.org"));
+        Assert.assertTrue(readResponseBody(inputStream).contains("I am from Flashback scene, not http://example.org"));
+
+        outputStream.write(createKeepAliveRequest("http://www.nba.com/", "www.nba.com"));
+        Assert.assertTrue(readResponseBody(inputStream).contains("I am from Flashback scene, not http://www.nba.com"));
+      }
+    }
+  }
+
+  @Test
+  public void testReplayBodyFile() throws InterruptedException, IOException, URISyntaxException {
+    File rootPath = Files.createTempDirectory("flashback").toFile();
+    try {
+      byte[] content = new byte[256 * 1024];
+      new Random(0).nextBytes(content);
+      Multimap<String, String> responseHeaders = LinkedHashMultimap.create();
+      responseHeaders.put("Content-Type", "image/png");
+      RecordedHttpRequest recordedHttpRequest =
+          new RecordedHttpRequest("GET", new URI("http://www.example.org/image.png"), LinkedHashMultimap.create(),
+              null);
+      RecordedHttpResponse recordedHttpResponse =
+          new RecordedHttpResponse(200, responseHeaders, new RecordedByteHttpBody(content));
+      List<RecordedHttpExchange> recordedHttpExchanges = new ArrayList<>();
+      recordedHttpExchanges.add(new RecordedHttpExchange(recordedHttpRequest, recordedHttpResponse, new Date()));
+      new SceneWriter(null, false, 1024).writeScene(
+          new Scene(HTTP_SCENE, SCENE_MODE, rootPath.getPath(), recordedHttpExchanges));
+      Assert.assertEquals(new File(rootPath, HTTP_SCENE + ".bodies").list().length, 1);
+
+      SceneConfiguration sceneConfiguration = new SceneConfiguration(rootPath.getPath(), SCENE_MODE, HTTP_SCENE);
+      try (FlashbackRunner flashbackRunner = new FlashbackRunner.Builder().mode(SCENE_MODE)
+          .sceneAccessLayer(
+              new SceneAccessLayer(SceneFactory.create(sceneConfiguration), MatchRuleUtils.matchMethodUri()))
+          .build()) {
+        flashbackRunner.start();
+        try (Socket socket = new Socket(PROXY_HOST, PROXY_PORT)) {
+          OutputStream outputStream = socket.getOutputStream();
+          InputStream inputStream = socket.getInputStream();
+
+          // Body file is sent on every replay
+          outputStream.write(createKeepAliveRequest("http://www.example.org/image.png", "www.example.org"));
+          Assert.assertEquals(readResponseContent(inputStream), content);
+          outputStream.write(createKeepAliveRequest("http://www.example.org/image.png", "www.example.org"));
+          Assert.assertEquals(readResponseContent(inputStream), content);
+        }
+      }
+    } finally {
+      FileUtils.deleteDirectory(rootPath);
+    }
+  }
+
+  @Test
+  public void testReplayStreaming() throws InterruptedException, IOException, URISyntaxException {
+    byte[] content = new byte[256 * 1024];
+    new Random(0).nextBytes(content);
+    Multimap<String, String> responseHeaders = LinkedHashMultimap.create();
+    responseHeaders.put("Content-Type", "application/octet-stream");
+    responseHeaders.put("Transfer-Encoding", "chunked");
+    RecordedHttpRequest recordedHttpRequest =
+        new RecordedHttpRequest("GET", new URI("http://www.example.org/archive.zip"), LinkedHashMultimap.create(),
+            null);
+    RecordedHttpResponse recordedHttpResponse =
+        new RecordedHttpResponse(200, responseHeaders, new RecordedByteHttpBody(content));
+    List<RecordedHttpExchange> recordedHttpExchanges = new ArrayList<>();
+    recordedHttpExchanges.add(new RecordedHttpExchange(recordedHttpRequest, recordedHttpResponse, new Date()));
+    Scene scene = new Scene(HTTP_SCENE, SCENE_MODE, ".", recordedHttpExchanges);
+    try (FlashbackRunner flashbackRunner = new FlashbackRunner.Builder().mode(SCENE_MODE)
+        .sceneAccessLayer(new SceneAccessLayer(scene, MatchRuleUtils.matchMethodUri()))
+        .streamingReplayThreshold(1024)
+        .build()) {
+      flashbackRunner.start();
+      try (Socket socket = new Socket(PROXY_HOST, PROXY_PORT)) {
+        OutputStream outputStream = socket.getOutputStream();
+        InputStream inputStream = socket.getInputStream();
+
+        // Streamed response is framed by Content-Length, so connection stays usable
+        outputStream.write(createKeepAliveRequest("http://www.example.org/archive.zip", "www.example.org"));
+        Assert.assertEquals(readResponseContent(inputStream), content);
+        outputStream.write(createKeepAliveRequest("http://www.example.org/archive.zip", "www.example.org"));
+        Assert.assertEquals(readResponseContent(inputStream), content);
+      }
+    }
+  }
+
+  @Test
+  public void testReplayOrRecord() throws InterruptedException, IOException, URISyntaxException {
+    AtomicInteger upstreamRequests = new AtomicInteger();
+    HttpServer upstream = HttpServer.create(new InetSocketAddress(PROXY_HOST, 0), 0);
+    upstream.createContext("/", exchange -> {
+      upstreamRequests.incrementAndGet();
+      byte[] body = ("I am from upstream " + exchange.getRequestURI().getPath()).getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain");
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    });
+    upstream.start();
+    File rootPath = Files.createTempDirectory("flashback").toFile();
+    RecordingExecutor recordingExecutor = new RecordingExecutor();
+    try {
+      String upstreamUrl = "http://" + PROXY_HOST + ":" + upstream.getAddress().getPort();
+      Multimap<String, String> responseHeaders = LinkedHashMultimap.create();
+      responseHeaders.put("Content-Type", "text/plain");
+      RecordedHttpRequest recordedHttpRequest =
+          new RecordedHttpRequest("GET", new URI(upstreamUrl + "/recorded"), LinkedHashMultimap.create(), null);
+      RecordedHttpResponse recordedHttpResponse = new RecordedHttpResponse(200, responseHeaders,
+          new RecordedByteHttpBody("I am from Flashback scene".getBytes(StandardCharsets.UTF_8)));
+      List<RecordedHttpExchange> recordedHttpExchanges = new ArrayList<>();
+      recordedHttpExchanges.add(new RecordedHttpExchange(recordedHttpRequest, recordedHttpResponse, new Date()));
+      Scene scene = new Scene(HTTP_SCENE, SceneMode.PLAYBACK_OR_RECORD, rootPath.getPath(), recordedHttpExchanges);
+      try (FlashbackRunner flashbackRunner = new FlashbackRunner.Builder().mode(SceneMode.PLAYBACK_OR_RECORD)
+          .sceneAccessLayer(new SceneAccessLayer(scene, MatchRuleUtils.matchMethodUri()))
+          .recordingExecutor(recordingExecutor)
+          .build()) {
+        flashbackRunner.start();
+        HttpClient client = HttpClientBuilder.create().setProxy(new HttpHost(PROXY_HOST, PROXY_PORT)).build();
+
+        HttpResponse httpResponse = client.execute(new HttpGet(upstreamUrl + "/recorded"));
+        Assert.assertEquals(EntityUtils.toString(httpResponse.getEntity()), "I am from Flashback scene");
+        Assert.assertEquals(upstreamRequests.get(), 0);
+
+        httpResponse = client.execute(new HttpGet(upstreamUrl + "/new"));
+        Assert.assertEquals(EntityUtils.toString(httpResponse.getEntity()), "I am from upstream /new");
+        Assert.assertEquals(upstreamRequests.get(), 1);
+
+        // Recorded response is played back from now on
+        recordingExecutor.flush();
+        httpResponse = client.execute(new HttpGet(upstreamUrl + "/new"));
+        Assert.assertEquals(EntityUtils.toString(httpResponse.getEntity()), "I am from upstream /new");
+        Assert.assertEquals(upstreamRequests.get(), 1);
+      }
+      Assert.assertEquals(recordingExecutor.getRecordedCount(), 1);
+      Assert.assertEquals(scene.getRecordedHttpExchangeList().size(), 2);
+    } finally {
+      recordingExecutor.close();
+      upstream.stop(0);
+      FileUtils.deleteDirectory(rootPath);
+    }
+  }
+
+  private static byte[] createKeepAliveRequest(String url, String host) {
+    return String.format("GET %s HTTP/1.1\r\nHost: %s\r\nProxy-Connection: Keep-Alive\r\n"
+        + "User-Agent: Apache-HttpClient/4.3.1 (java 1.5)\r\nAccept-Encoding: gzip,deflate\r\n\r\n", url, host)
+        .getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Read one response as text
+   * */
+  private static String readResponseBody(InputStream inputStream) throws IOException {
+    return new String(readResponseContent(inputStream), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read one response, using its Content-Length to find where it ends
+   * */
+  private static byte[] readResponseContent(InputStream inputStream) throws IOException {
+    int contentLength = -1;
+    boolean gzip = false;
+    String line;
+    while (!(line = readLine(inputStream)).isEmpty()) {
+      String lowerCaseLine = line.toLowerCase(Locale.ROOT);
+      if (lowerCaseLine.startsWith("content-length:")) {
+        contentLength = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+      } else if (lowerCaseLine.startsWith("content-encoding:")) {
+        gzip = lowerCaseLine.contains("gzip");
+      }
+    }
+    Assert.assertTrue(contentLength >= 0, "Response on persistent connection must have Content-Length");
+    byte[] body = new byte[contentLength];
+    int offset = 0;
+    while (offset < contentLength) {
+      int read = inputStream.read(body, offset, contentLength - offset);
+      Assert.assertTrue(read > 0, "Connection closed before end of response");
+      offset += read;
+    }
+    if (gzip) {
+      body = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(body)));
+    }
+    return body;
+  }
+
+  private static String readLine(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = inputStream.read()) != '\n') {
+      Assert.assertTrue(b >= 0, "Connection closed before end of headers");
+      if (b != '\r') {
+        line.write(b);
+      }
+    }
+    return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+  }
+
   @Test
   public void testNotMatchUrl() throws IOException, InterruptedException {
     URL flashbackScene = getClass().getResource(FLASHBACK_SCENE_DIR);
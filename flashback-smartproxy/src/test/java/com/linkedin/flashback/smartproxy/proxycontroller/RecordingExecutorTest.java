@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.flashback.smartproxy.proxycontroller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class RecordingExecutorTest {
+
+  @Test
+  public void testRecordInOrder() {
+    List<Integer> recorded = Collections.synchronizedList(new ArrayList<>());
+    List<Integer> expected = new ArrayList<>();
+    try (RecordingExecutor recordingExecutor = new RecordingExecutor(4, RecordingExecutor.OverflowPolicy.BLOCK)) {
+      for (int i = 0; i < 100; i++) {
+        final int position = i;
+        recordingExecutor.execute(() -> recorded.add(position));
+        expected.add(i);
+      }
+      recordingExecutor.execute(() -> {
+        throw new IllegalStateException("failed");
+      });
+      recordingExecutor.flush();
+      Assert.assertEquals(recorded, expected);
+      Assert.assertEquals(recordingExecutor.getRecordedCount(), 100);
+      Assert.assertEquals(recordingExecutor.getFailedCount(), 1);
+      Assert.assertEquals(recordingExecutor.getDroppedCount(), 0);
+      Assert.assertTrue(recordingExecutor.getMaxQueueSize() <= 4);
+    }
+  }
+
+  @Test
+  public void testDropWhenFull()
+      throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    try (RecordingExecutor recordingExecutor = new RecordingExecutor(1, RecordingExecutor.OverflowPolicy.DROP)) {
+      fillQueue(recordingExecutor, release);
+      AtomicInteger onDropCount = new AtomicInteger();
+      for (int i = 0; i < 10; i++) {
+        recordingExecutor.execute(() -> { }, onDropCount::incrementAndGet);
+      }
+      release.countDown();
+      recordingExecutor.flush();
+      Assert.assertEquals(onDropCount.get(), 10);
+      Assert.assertEquals(recordingExecutor.getOverflowCount(), 10);
+      Assert.assertEquals(recordingExecutor.getDroppedCount(), 10);
+      Assert.assertEquals(recordingExecutor.getRecordedCount(), 2);
+    }
+  }
+
+  @Test
+  public void testSampleWhenFull()
+      throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    try (RecordingExecutor recordingExecutor = new RecordingExecutor(1, RecordingExecutor.OverflowPolicy.SAMPLE, 5)) {
+      fillQueue(recordingExecutor, release);
+      // Fifth overflowing recording waits for room, so let recording thread go a bit later
+      Thread releaser = new Thread(() -> {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        release.countDown();
+      });
+      releaser.start();
+      for (int i = 0; i < 10; i++) {
+        recordingExecutor.execute(() -> { });
+      }
+      recordingExecutor.flush();
+      // First four overflowing recordings are dropped, the fifth is kept, the rest depend on timing
+      Assert.assertTrue(recordingExecutor.getDroppedCount() >= 4);
+      Assert.assertTrue(recordingExecutor.getOverflowCount() - recordingExecutor.getDroppedCount() >= 1);
+      Assert.assertEquals(recordingExecutor.getRecordedCount() + recordingExecutor.getDroppedCount(), 12);
+    }
+  }
+
+  @Test(timeOut = 10000)
+  public void testExecuteAfterClose() {
+    List<Integer> recorded = Collections.synchronizedList(new ArrayList<>());
+    RecordingExecutor recordingExecutor = new RecordingExecutor(1, RecordingExecutor.OverflowPolicy.BLOCK);
+    recordingExecutor.execute(() -> recorded.add(0));
+    recordingExecutor.close();
+    Assert.assertTrue(recordingExecutor.isClosed());
+    Assert.assertEquals(recorded, Collections.singletonList(0));
+
+    // Closed executor records on calling thread, and doesn't wait for recording thread anymore
+    for (int i = 1; i < 4; i++) {
+      final int position = i;
+      recordingExecutor.execute(() -> recorded.add(position));
+    }
+    recordingExecutor.flush();
+    recordingExecutor.close();
+    Assert.assertEquals(recorded, Arrays.asList(0, 1, 2, 3));
+    Assert.assertEquals(recordingExecutor.getRecordedCount(), 4);
+  }
+
+  @Test(timeOut = 10000)
+  public void testExecuteWhileClosingWaitsForQueuedRecordings()
+      throws InterruptedException {
+    List<Integer> recorded = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingExecutor recordingExecutor = new RecordingExecutor(2, RecordingExecutor.OverflowPolicy.BLOCK);
+    recordingExecutor.execute(() -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    started.await();
+    recordingExecutor.execute(() -> recorded.add(0));
+
+    Thread closer = new Thread(recordingExecutor::close);
+    closer.start();
+    while (!recordingExecutor.isClosed()) {
+      Thread.sleep(1);
+    }
+    // Late recording has to wait until recording thread is done with the one queued before it
+    Thread lateRecorder = new Thread(() -> recordingExecutor.execute(() -> recorded.add(1)));
+    lateRecorder.start();
+    while (lateRecorder.isAlive() && lateRecorder.getState() != Thread.State.WAITING
+        && lateRecorder.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+    Assert.assertTrue(recorded.isEmpty());
+
+    release.countDown();
+    closer.join();
+    lateRecorder.join();
+    Assert.assertEquals(recorded, Arrays.asList(0, 1));
+    Assert.assertEquals(recordingExecutor.getRecordedCount(), 3);
+  }
+
+  /**
+   * Hold recording thread until released and fill the queue behind it
+   * */
+  private static void fillQueue(RecordingExecutor recordingExecutor, CountDownLatch release)
+      throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    recordingExecutor.execute(() -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    started.await();
+    recordingExecutor.execute(() -> { });
+  }
+}
@@ -15,6 +15,7 @@ import com.linkedin.flashback.scene.SceneConfiguration;
 import com.linkedin.flashback.scene.SceneMode;
 import com.linkedin.flashback.smartproxy.FlashbackRunner;
 import com.linkedin.mitm.model.CertificateAuthority;
+import com.linkedin.mitm.proxy.ProxyEventLoopGroups;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -40,6 +41,7 @@ public class FlashbackBaseTest {
    * */
   private String _proxyHost = "localhost";
   private int _proxyPort = 5556;
+  private ProxyEventLoopGroups _eventLoopGroups;
   /**
    * SSL settings
    * */
@@ -101,6 +103,15 @@ public class FlashbackBaseTest {
     _proxyPort = proxyPort;
   }
 
+  /**
+   * Set event loop groups shared with other flashback instances. This method need be invoked before
+   * flashbackGlobalSetUp method, otherwise proxy will create event loop groups of its own
+   * @param eventLoopGroups shared event loop groups, which are not shut down by flashback
+   */
+  protected void setEventLoopGroups(ProxyEventLoopGroups eventLoopGroups) {
+    _eventLoopGroups = eventLoopGroups;
+  }
+
   /**
    * Set default scene mode
    * By default, it's playback mode.
@@ -299,7 +310,7 @@ public class FlashbackBaseTest {
       throws InterruptedException {
     FlashbackRunner.Builder flashbackBuilder =
         new FlashbackRunner.Builder().sceneAccessLayer(new SceneAccessLayer(_defaultScene, _defaultMatchRule))
-            .host(_proxyHost).port(_proxyPort).mode(_defaultSceneMode);
+            .host(_proxyHost).port(_proxyPort).mode(_defaultSceneMode).eventLoopGroups(_eventLoopGroups);
     if (_certificateAuthority != null && _rootCertificateInputStream != null && _rootCertificatePassphrase != null) {
       flashbackBuilder.certificateAuthority(_certificateAuthority).rootCertificateInputStream(_rootCertificateInputStream)
           .rootCertificatePassphrase(_rootCertificatePassphrase);
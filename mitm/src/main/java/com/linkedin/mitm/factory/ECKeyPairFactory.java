@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.mitm.factory;
+
+import com.linkedin.mitm.services.RandomNumberGenerator;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.ECGenParameterSpec;
+
+
+/**
+ * Generate elliptic curve public key and private key pair on NIST P-256 curve.
+ * Generating EC key pair is much cheaper than generating RSA key pair of comparable strength.
+ */
+public class ECKeyPairFactory implements KeyPairFactory {
+  private static final String KEYGEN_ALGORITHM = "EC";
+  private static final String CURVE_NAME = "secp256r1";
+
+  @Override
+  public KeyPair create()
+      throws NoSuchAlgorithmException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance(KEYGEN_ALGORITHM);
+    try {
+      generator.initialize(new ECGenParameterSpec(CURVE_NAME), RandomNumberGenerator.getInstance().getSecureRandom());
+    } catch (InvalidAlgorithmParameterException e) {
+      throw new NoSuchAlgorithmException("Curve " + CURVE_NAME + " is not supported", e);
+    }
+    return generator.generateKeyPair();
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.mitm.factory;
+
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Key pair factory that hands out key pairs pre-generated by a background thread, so callers on
+ * I/O threads don't have to wait for key generation. The pool is refilled as soon as a key pair is taken.
+ * If the pool is drained, key pair is generated by the caller.
+ */
+public class PooledKeyPairFactory implements KeyPairFactory, AutoCloseable {
+  private static final String MODULE = PooledKeyPairFactory.class.getName();
+  private static final Logger LOG = Logger.getLogger(MODULE);
+  public static final int DEFAULT_POOL_SIZE = 16;
+
+  private final KeyPairFactory _keyPairFactory;
+  private final BlockingQueue<KeyPair> _pool;
+  private final Thread _refillThread;
+
+  /**
+   * @param keyPairFactory factory that actually generates key pairs
+   * @param poolSize number of key pairs to keep ready
+   * */
+  public PooledKeyPairFactory(KeyPairFactory keyPairFactory, int poolSize) {
+    _keyPairFactory = keyPairFactory;
+    _pool = new ArrayBlockingQueue<>(poolSize);
+    _refillThread = new Thread(this::refill, "key-pair-pool");
+    _refillThread.setDaemon(true);
+    _refillThread.start();
+  }
+
+  public PooledKeyPairFactory(KeyPairFactory keyPairFactory) {
+    this(keyPairFactory, DEFAULT_POOL_SIZE);
+  }
+
+  @Override
+  public KeyPair create()
+      throws NoSuchAlgorithmException {
+    KeyPair keyPair = _pool.poll();
+    if (keyPair == null) {
+      LOG.debug("Key pair pool is drained, generating key pair");
+      return _keyPairFactory.create();
+    }
+    return keyPair;
+  }
+
+  /**
+   * Stop refilling the pool, waiting for a key pair being generated meanwhile. Pooled key pairs are still
+   * handed out, and the caller generates them once the pool is drained.
+   * */
+  @Override
+  public void close() {
+    _refillThread.interrupt();
+    try {
+      _refillThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return true until refill thread has stopped
+   * */
+  boolean isRefilling() {
+    return _refillThread.isAlive();
+  }
+
+  private void refill() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        // Blocks while pool is full
+        _pool.put(_keyPairFactory.create());
+      }
+    } catch (InterruptedException e) {
+      LOG.debug("Stopped refilling key pair pool");
+    } catch (NoSuchAlgorithmException | RuntimeException e) {
+      LOG.error("Failed to generate key pair, stopped refilling key pair pool", e);
+    }
+  }
+}
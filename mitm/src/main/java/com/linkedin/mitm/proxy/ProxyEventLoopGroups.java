@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.mitm.proxy;
+
+import com.linkedin.mitm.proxy.channel.Transport;
+import com.linkedin.mitm.proxy.factory.NamedThreadFactory;
+import io.netty.channel.EventLoopGroup;
+
+
+/**
+ * Event loop groups that run a proxy server: acceptor group accepts client connections, upstream worker group
+ * serves client channels and downstream worker group serves channels to servers.
+ * One instance can be shared by any number of {@link ProxyServer}s, which then don't create threads of their own.
+ * Shared groups are not shut down when proxy servers stop, owner should close them once all of proxies are stopped.
+ *
+ * <pre>
+ *   {@code
+ *    try (ProxyEventLoopGroups eventLoopGroups = new ProxyEventLoopGroups(Transport.bestAvailable(), 1, 4, 4, 80)) {
+ *      ProxyServer proxyServer1 = new ProxyServer.Builder().eventLoopGroups(eventLoopGroups).port(5555)...build();
+ *      ProxyServer proxyServer2 = new ProxyServer.Builder().eventLoopGroups(eventLoopGroups).port(5556)...build();
+ *      ...
+ *    }
+ * }
+ * </pre>
+ */
+public class ProxyEventLoopGroups implements AutoCloseable {
+  static final int DEFAULT_ACCEPTOR_THREADS = 2;
+  static final int DEFAULT_WORKER_THREADS = 8;
+  static final int DEFAULT_IO_RATIO = 80;
+  private static final int ACCEPTOR_IO_RATIO = 50;
+
+  private final Transport _transport;
+  private final EventLoopGroup _acceptorGroup;
+  private final EventLoopGroup _upstreamWorkerGroup;
+  private final EventLoopGroup _downstreamWorkerGroup;
+
+  /**
+   * Create new event loop groups
+   *
+   * @param transport transport of event loops, falls back to NIO if it's not available.
+   * @param acceptorThreads number of threads accepting client connections
+   * @param upstreamWorkerThreads number of threads serving client channels
+   * @param downstreamWorkerThreads number of threads serving server channels
+   * @param ioRatio percentage of time worker threads spend on I/O, between 1 and 100
+   * */
+  public ProxyEventLoopGroups(Transport transport, int acceptorThreads, int upstreamWorkerThreads,
+      int downstreamWorkerThreads, int ioRatio) {
+    if (acceptorThreads <= 0 || upstreamWorkerThreads <= 0 || downstreamWorkerThreads <= 0) {
+      throw new IllegalArgumentException("number of threads must be positive");
+    }
+    if (ioRatio <= 0 || ioRatio > 100) {
+      throw new IllegalArgumentException("io ratio must be between 1 and 100");
+    }
+    _transport = transport.resolve();
+    _acceptorGroup = _transport.newEventLoopGroup(acceptorThreads, new NamedThreadFactory("Client acceptor group"),
+        ACCEPTOR_IO_RATIO);
+    _upstreamWorkerGroup =
+        _transport.newEventLoopGroup(upstreamWorkerThreads, new NamedThreadFactory("Client worker group"), ioRatio);
+    _downstreamWorkerGroup =
+        _transport.newEventLoopGroup(downstreamWorkerThreads, new NamedThreadFactory("Server worker group"), ioRatio);
+  }
+
+  /**
+   * Wrap existing event loop groups, which must all be of the same transport.
+   * */
+  public ProxyEventLoopGroups(EventLoopGroup acceptorGroup, EventLoopGroup upstreamWorkerGroup,
+      EventLoopGroup downstreamWorkerGroup) {
+    _transport = Transport.of(acceptorGroup);
+    if (Transport.of(upstreamWorkerGroup) != _transport || Transport.of(downstreamWorkerGroup) != _transport) {
+      throw new IllegalArgumentException("event loop groups must use the same transport");
+    }
+    _acceptorGroup = acceptorGroup;
+    _upstreamWorkerGroup = upstreamWorkerGroup;
+    _downstreamWorkerGroup = downstreamWorkerGroup;
+  }
+
+  public Transport getTransport() {
+    return _transport;
+  }
+
+  public EventLoopGroup getAcceptorGroup() {
+    return _acceptorGroup;
+  }
+
+  public EventLoopGroup getUpstreamWorkerGroup() {
+    return _upstreamWorkerGroup;
+  }
+
+  public EventLoopGroup getDownstreamWorkerGroup() {
+    return _downstreamWorkerGroup;
+  }
+
+  /**
+   * Shut down all of event loop groups
+   * */
+  @Override
+  public void close() {
+    _acceptorGroup.shutdownGracefully();
+    _upstreamWorkerGroup.shutdownGracefully();
+    _downstreamWorkerGroup.shutdownGracefully();
+  }
+}
@@ -7,11 +7,13 @@ package com.linkedin.mitm.proxy;
 
 import com.linkedin.mitm.proxy.channel.ChannelMediator;
 import com.linkedin.mitm.proxy.channel.ClientChannelHandler;
+import io.netty.channel.ChannelConfig;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 
 
@@ -29,18 +31,39 @@ public class ProxyInitializer extends ChannelInitializer<SocketChannel> {
 
   @Override
   public void initChannel(SocketChannel socketChannel) {
+    setWriteBufferWaterMarks(socketChannel.config());
     ChannelPipeline channelPipeline = socketChannel.pipeline();
     channelPipeline.addLast("decoder", new HttpRequestDecoder());
+    // In front of encoder, so already encoded responses can be streamed with regard to channel writability
+    channelPipeline.addLast("chunker", new ChunkedWriteHandler());
     channelPipeline.addLast("encoder", new HttpResponseEncoder());
     channelPipeline.addLast("idle", new IdleStateHandler(0, 0, _proxyServer.getClientConnectionIdleTimeout()));
     ChannelMediator channelMediator = new ChannelMediator(socketChannel,
         _proxyServer.getProxyModeControllerFactory(),
         _proxyServer.getDownstreamWorkerGroup(),
         _proxyServer.getServerConnectionIdleTimeout(),
-        _proxyServer.getAllChannels());
+        _proxyServer.getAllChannels(),
+        _proxyServer.getUpstreamChannelPool());
     ClientChannelHandler clientChannelHandler =
         new ClientChannelHandler(channelMediator, _proxyServer.getConnectionFlowRegistry());
 
     channelPipeline.addLast("handler", clientChannelHandler);
   }
+
+  /**
+   * Client channel turns unwritable above high water mark, which makes proxy stop reading from server
+   * until it turns writable again below low water mark.
+   * */
+  private void setWriteBufferWaterMarks(ChannelConfig config) {
+    int highWaterMark = _proxyServer.getWriteBufferHighWaterMark();
+    int lowWaterMark = _proxyServer.getWriteBufferLowWaterMark();
+    // Netty rejects a high water mark below current low one and vice versa, so order depends on new values.
+    if (highWaterMark >= config.getWriteBufferLowWaterMark()) {
+      config.setWriteBufferHighWaterMark(highWaterMark);
+      config.setWriteBufferLowWaterMark(lowWaterMark);
+    } else {
+      config.setWriteBufferLowWaterMark(lowWaterMark);
+      config.setWriteBufferHighWaterMark(highWaterMark);
+    }
+  }
 }
@@ -6,21 +6,20 @@
 package com.linkedin.mitm.proxy;
 
 import com.linkedin.mitm.model.Protocol;
+import com.linkedin.mitm.proxy.channel.Transport;
+import com.linkedin.mitm.proxy.channel.UpstreamChannelPool;
 import com.linkedin.mitm.proxy.connectionflow.steps.ConnectionFlowStep;
 import com.linkedin.mitm.proxy.dataflow.ProxyModeControllerFactory;
-import com.linkedin.mitm.proxy.factory.NamedThreadFactory;
 import io.netty.bootstrap.ChannelFactory;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelException;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoopGroup;
 import io.netty.channel.ServerChannel;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.ChannelGroupFuture;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.util.concurrent.GlobalEventExecutor;
-import java.nio.channels.spi.SelectorProvider;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -55,11 +54,13 @@ public class ProxyServer {
   private final int _port;
   private final Map<Protocol, List<ConnectionFlowStep>> _connectionFlowRegistry;
   private final ProxyModeControllerFactory _proxyModeControllerFactory;
-  private final NioEventLoopGroup _acceptorGroup;                   //acceptor thread pool
-  private final NioEventLoopGroup _upstreamWorkerGroup;             //upstream worker thread pool
-  private final NioEventLoopGroup _downstreamWorkerGroup;           //downstream worker thread pool
+  private final ProxyEventLoopGroups _eventLoopGroups;
+  private final boolean _ownsEventLoopGroups;
   private final int _serverConnectionIdleTimeout;
   private final int _clientConnectionIdleTimeout;
+  private final UpstreamChannelPool _upstreamChannelPool;
+  private final int _writeBufferHighWaterMark;
+  private final int _writeBufferLowWaterMark;
   private final ChannelGroup _allChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
 
   /**
@@ -68,11 +69,11 @@ public class ProxyServer {
   public void start()
       throws InterruptedException {
     ServerBootstrap serverBootstrap = new ServerBootstrap();
-    serverBootstrap.group(_acceptorGroup, _upstreamWorkerGroup);
+    serverBootstrap.group(_eventLoopGroups.getAcceptorGroup(), _eventLoopGroups.getUpstreamWorkerGroup());
     serverBootstrap.channelFactory(new ChannelFactory<ServerChannel>() {
       @Override
       public ServerChannel newChannel() {
-        return new NioServerSocketChannel();
+        return _eventLoopGroups.getTransport().newServerChannel();
       }
     });
     serverBootstrap.childHandler(new ProxyInitializer(this));
@@ -94,6 +95,9 @@ public class ProxyServer {
    * Stop proxy server
    * */
   public void stop() {
+    if (_upstreamChannelPool != null) {
+      _upstreamChannelPool.close();
+    }
     ChannelGroupFuture future = _allChannels.close().awaitUninterruptibly();
     if (!future.isSuccess()) {
       final Iterator<ChannelFuture> iter = future.iterator();
@@ -104,9 +108,9 @@ public class ProxyServer {
         }
       }
     }
-    _acceptorGroup.shutdownGracefully();
-    _upstreamWorkerGroup.shutdownGracefully();
-    _downstreamWorkerGroup.shutdownGracefully();
+    if (_ownsEventLoopGroups) {
+      _eventLoopGroups.close();
+    }
   }
 
   /**
@@ -127,8 +131,12 @@ public class ProxyServer {
     return _proxyModeControllerFactory;
   }
 
-  NioEventLoopGroup getDownstreamWorkerGroup() {
-    return _downstreamWorkerGroup;
+  EventLoopGroup getDownstreamWorkerGroup() {
+    return _eventLoopGroups.getDownstreamWorkerGroup();
+  }
+
+  UpstreamChannelPool getUpstreamChannelPool() {
+    return _upstreamChannelPool;
   }
 
   int getServerConnectionIdleTimeout() {
@@ -139,21 +147,29 @@ public class ProxyServer {
     return _clientConnectionIdleTimeout;
   }
 
+  int getWriteBufferHighWaterMark() {
+    return _writeBufferHighWaterMark;
+  }
+
+  int getWriteBufferLowWaterMark() {
+    return _writeBufferLowWaterMark;
+  }
+
   private ProxyServer(final Builder builder) {
-    _acceptorGroup =
-        new NioEventLoopGroup(2, new NamedThreadFactory("Client acceptor group"), SelectorProvider.provider());
-    _upstreamWorkerGroup =
-        new NioEventLoopGroup(8, new NamedThreadFactory("Client worker group"), SelectorProvider.provider());
-    _upstreamWorkerGroup.setIoRatio(80);
-    _downstreamWorkerGroup =
-        new NioEventLoopGroup(8, new NamedThreadFactory("Server worker group"), SelectorProvider.provider());
-    _downstreamWorkerGroup.setIoRatio(80);
+    _ownsEventLoopGroups = builder._eventLoopGroups == null;
+    _eventLoopGroups = _ownsEventLoopGroups ? new ProxyEventLoopGroups(builder._transport, builder._acceptorThreads,
+        builder._upstreamWorkerThreads, builder._downstreamWorkerThreads, builder._ioRatio) : builder._eventLoopGroups;
+    LOG.info(String.format("Using %s transport", _eventLoopGroups.getTransport()));
     _host = builder._host;
     _port = builder._port;
     _serverConnectionIdleTimeout = builder._serverChannelIdleTimeout;
     _clientConnectionIdleTimeout = builder._clientChannelIdleTimeout;
     _connectionFlowRegistry = builder._connectionFlowRegistry;
     _proxyModeControllerFactory = builder._proxyModeControllerFactory;
+    _upstreamChannelPool =
+        builder._maxIdleServerConnections > 0 ? new UpstreamChannelPool(builder._maxIdleServerConnections) : null;
+    _writeBufferHighWaterMark = builder._writeBufferHighWaterMark;
+    _writeBufferLowWaterMark = builder._writeBufferLowWaterMark;
   }
 
   public static class Builder {
@@ -161,6 +177,15 @@ public class ProxyServer {
     private int _port = 5555;
     private int _clientChannelIdleTimeout = 40000;
     private int _serverChannelIdleTimeout = 4000;
+    private int _maxIdleServerConnections = 8;
+    private int _writeBufferHighWaterMark = 64 * 1024;
+    private int _writeBufferLowWaterMark = 32 * 1024;
+    private Transport _transport = Transport.bestAvailable();
+    private int _acceptorThreads = ProxyEventLoopGroups.DEFAULT_ACCEPTOR_THREADS;
+    private int _upstreamWorkerThreads = ProxyEventLoopGroups.DEFAULT_WORKER_THREADS;
+    private int _downstreamWorkerThreads = ProxyEventLoopGroups.DEFAULT_WORKER_THREADS;
+    private int _ioRatio = ProxyEventLoopGroups.DEFAULT_IO_RATIO;
+    private ProxyEventLoopGroups _eventLoopGroups;
     private ProxyModeControllerFactory _proxyModeControllerFactory;
     private final Map<Protocol, List<ConnectionFlowStep>> _connectionFlowRegistry = new HashMap<>();
 
@@ -202,6 +227,93 @@ public class ProxyServer {
       return this;
     }
 
+    /**
+     * @param maxIdleServerConnections max number of idle proxy to server connections kept alive for reuse
+     *                                 per host, port and protocol. Idle connections are closed after server
+     *                                 idle timeout. 0 disables reusing server connections.
+     *        Default: 8
+     * */
+    public Builder maxIdleServerConnections(int maxIdleServerConnections) {
+      _maxIdleServerConnections = maxIdleServerConnections;
+      return this;
+    }
+
+    /**
+     * @param highWaterMark number of bytes pending in client channel's outbound buffer above which proxy stops
+     *                      reading from server channel.
+     *        Default: 65536
+     * */
+    public Builder writeBufferHighWaterMark(int highWaterMark) {
+      _writeBufferHighWaterMark = highWaterMark;
+      return this;
+    }
+
+    /**
+     * @param lowWaterMark number of bytes pending in client channel's outbound buffer below which proxy resumes
+     *                     reading from server channel.
+     *        Default: 32768
+     * */
+    public Builder writeBufferLowWaterMark(int lowWaterMark) {
+      _writeBufferLowWaterMark = lowWaterMark;
+      return this;
+    }
+
+    /**
+     * @param transport Netty transport of proxy channels. If it's not available on current platform,
+     *                  proxy falls back to NIO.
+     *        Default: EPOLL on Linux, NIO elsewhere
+     * */
+    public Builder transport(Transport transport) {
+      _transport = transport;
+      return this;
+    }
+
+    /**
+     * @param threads number of threads accepting client connections.
+     *        Default: 2
+     * */
+    public Builder acceptorThreads(int threads) {
+      _acceptorThreads = threads;
+      return this;
+    }
+
+    /**
+     * @param threads number of threads serving client to proxy channels.
+     *        Default: 8
+     * */
+    public Builder upstreamWorkerThreads(int threads) {
+      _upstreamWorkerThreads = threads;
+      return this;
+    }
+
+    /**
+     * @param threads number of threads serving proxy to server channels.
+     *        Default: 8
+     * */
+    public Builder downstreamWorkerThreads(int threads) {
+      _downstreamWorkerThreads = threads;
+      return this;
+    }
+
+    /**
+     * @param ioRatio percentage of time worker threads spend on I/O rather than on other tasks.
+     *        Default: 80
+     * */
+    public Builder ioRatio(int ioRatio) {
+      _ioRatio = ioRatio;
+      return this;
+    }
+
+    /**
+     * @param eventLoopGroups event loop groups shared with other proxy servers. When set, transport, thread counts
+     *                        and io ratio of this builder are ignored and the groups are not shut down on stop.
+     *        Default: null, proxy server creates and owns its event loop groups
+     * */
+    public Builder eventLoopGroups(ProxyEventLoopGroups eventLoopGroups) {
+      _eventLoopGroups = eventLoopGroups;
+      return this;
+    }
+
     /**
      * @param timeout client channel idle timeout
      *        Default: 40000
@@ -236,6 +348,10 @@ public class ProxyServer {
       if (proxyServer.getConnectionFlowRegistry().isEmpty()) {
         throw new IllegalStateException("connection flow registry can't be empty");
       }
+      if (proxyServer.getWriteBufferLowWaterMark() < 0
+          || proxyServer.getWriteBufferHighWaterMark() < proxyServer.getWriteBufferLowWaterMark()) {
+        throw new IllegalStateException("write buffer water marks must satisfy 0 <= low <= high");
+      }
     }
   }
 }
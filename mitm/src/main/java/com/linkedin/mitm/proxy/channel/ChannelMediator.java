@@ -5,28 +5,42 @@
 
 package com.linkedin.mitm.proxy.channel;
 
+import com.linkedin.mitm.model.Protocol;
 import com.linkedin.mitm.proxy.dataflow.ProxyModeController;
 import com.linkedin.mitm.proxy.dataflow.ProxyModeControllerFactory;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.EventLoopGroup;
 import io.netty.channel.group.ChannelGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpRequestEncoder;
 import io.netty.handler.codec.http.HttpResponseDecoder;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.Promise;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
 import javax.net.ssl.SSLEngine;
+import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 
 
@@ -43,25 +57,51 @@ public class ChannelMediator {
   private static final Logger LOG = Logger.getLogger(MODULE);
   private final ProxyModeControllerFactory _proxyModeControllerFactory;
   private ProxyModeController _proxyModeController;
-  private final NioEventLoopGroup _upstreamWorkerGroup;
+  private HttpRequest _initialRequest;
+  private final EventLoopGroup _upstreamWorkerGroup;
+  private final Transport _transport;
   private final int _serverConnectionIdleTimeoutMsec;
   private final Channel _clientChannel;
   private final ChannelGroup _allChannelGroup;
+  private final UpstreamChannelPool _upstreamChannelPool;
   private Channel _serverChannel;
+  private InetSocketAddress _remoteAddress;
+  private Protocol _protocol = Protocol.HTTP;
+  private volatile boolean _serverKeepAlive = true;
+  private volatile boolean _requestComplete;
 
   public ChannelMediator(Channel clientChannel, final ProxyModeControllerFactory proxyModeControllerFactory,
-      final NioEventLoopGroup upstreamWorkerGroup, final int timeout, final ChannelGroup channelGroup) {
+      final EventLoopGroup upstreamWorkerGroup, final int timeout, final ChannelGroup channelGroup) {
+    this(clientChannel, proxyModeControllerFactory, upstreamWorkerGroup, timeout, channelGroup, null);
+  }
+
+  /**
+   * @param upstreamChannelPool pool of idle server channels to reuse, or null to connect to server for every request
+   * */
+  public ChannelMediator(Channel clientChannel, final ProxyModeControllerFactory proxyModeControllerFactory,
+      final EventLoopGroup upstreamWorkerGroup, final int timeout, final ChannelGroup channelGroup,
+      final UpstreamChannelPool upstreamChannelPool) {
     _clientChannel = clientChannel;
     _proxyModeControllerFactory = proxyModeControllerFactory;
     _upstreamWorkerGroup = upstreamWorkerGroup;
+    _transport = Transport.of(upstreamWorkerGroup);
     _serverConnectionIdleTimeoutMsec = timeout;
     _allChannelGroup = channelGroup;
+    _upstreamChannelPool = upstreamChannelPool;
   }
 
   public void initializeProxyModeController(HttpRequest initialRequest) {
+    _initialRequest = initialRequest;
     _proxyModeController = _proxyModeControllerFactory.create(initialRequest);
   }
 
+  /**
+   * Set protocol of proxy to server connection, which decides what server channels can be reused.
+   * */
+  public void setProtocol(Protocol protocol) {
+    _protocol = protocol;
+  }
+
   /**
    * register open channels in global channel group for bulk operations such as shutdown.
    * */
@@ -75,6 +115,12 @@ public class ChannelMediator {
    * */
   public ChannelFuture writeToServer(HttpObject httpObject) {
     HttpObject result = _proxyModeController.handleWriteToServer(httpObject);
+    if (result instanceof HttpRequest) {
+      _serverKeepAlive = HttpHeaders.isKeepAlive((HttpRequest) result);
+    }
+    if (result instanceof LastHttpContent) {
+      _requestComplete = true;
+    }
     return writeToChannel(_serverChannel, result);
   }
 
@@ -84,7 +130,127 @@ public class ChannelMediator {
    * */
   public ChannelFuture writeToClient(HttpObject httpObject) {
     HttpObject result = _proxyModeController.handleWriteToClient(httpObject);
-    return writeToChannel(_clientChannel, result);
+    ChannelFuture future = writeToChannel(_clientChannel, result);
+    stopReadingFromServerChannelIfClientIsBusy();
+    return future;
+  }
+
+  /**
+   * Resume reading from server channel once client channel drained its outbound buffer below low water mark.
+   * */
+  public void onClientChannelWritabilityChanged() {
+    Channel serverChannel = _serverChannel;
+    if (serverChannel != null && _clientChannel.isWritable()) {
+      serverChannel.config().setAutoRead(true);
+    }
+  }
+
+  /**
+   * Let controller of the current exchange know client or server channel closed, so that it can release
+   * what it holds for an exchange that won't complete.
+   * */
+  public void onChannelInactive() {
+    ProxyModeController proxyModeController = _proxyModeController;
+    if (proxyModeController != null) {
+      proxyModeController.handleDisconnect();
+    }
+  }
+
+  /**
+   * Write last content back to client and keep client channel open, so that client can send
+   * next request over the same connection. Next request gets a new {@link ProxyModeController}.
+   * */
+  public ChannelFuture writeToClientAndKeepAlive(HttpObject httpObject) {
+    _proxyModeController.handleWriteToClient(httpObject);
+    _proxyModeController = null;
+    return writeToChannel(_clientChannel, httpObject);
+  }
+
+  /**
+   * Write response that is already encoded in http wire format back to client. It bypasses http encoder
+   * of client channel as well as {@link ProxyModeController#handleWriteToClient}.
+   *
+   * @param encodedResponse whole response including status line, headers and body
+   * @param keepAlive true to keep client channel open for next request, false to close both channels
+   * */
+  public ChannelFuture writeEncodedToClient(ByteBuf encodedResponse, boolean keepAlive) {
+    return completeEncodedWrite(writeEncoded(encodedResponse, true), keepAlive);
+  }
+
+  /**
+   * Write response whose status line and headers are already encoded in http wire format, and stream its body
+   * chunk by chunk. Next chunk is only read once client channel is writable again, so a slow client doesn't make
+   * the whole body pile up in outbound buffer. Requires {@link ChunkedWriteHandler} in front of http encoder.
+   *
+   * @param encodedHead status line and headers, including the empty line that ends them
+   * @param body encoded body, which is closed once it's written
+   * @param keepAlive true to keep client channel open for next request, false to close both channels
+   * */
+  public ChannelFuture writeEncodedToClient(ByteBuf encodedHead, ChunkedInput<ByteBuf> body, boolean keepAlive) {
+    writeEncoded(encodedHead, false);
+    return completeEncodedWrite(writeEncoded(body, true), keepAlive);
+  }
+
+  /**
+   * Write response whose status line and headers are already encoded in http wire format, and whose body
+   * is the whole content of a file. Body goes from file to socket with sendfile, without being copied into
+   * user space. Over https it has to be encrypted, so file is streamed in chunks instead, or memory-mapped
+   * if client channel can't stream.
+   *
+   * @param encodedHead status line and headers, including the empty line that ends them
+   * @param bodyFile file that holds the body, which must not change while it's being sent
+   * @param keepAlive true to keep client channel open for next request, false to close both channels
+   * */
+  public ChannelFuture writeEncodedToClient(ByteBuf encodedHead, File bodyFile, boolean keepAlive)
+      throws IOException {
+    Object body;
+    RandomAccessFile randomAccessFile = null;
+    try {
+      randomAccessFile = new RandomAccessFile(bodyFile, "r");
+      FileChannel fileChannel = randomAccessFile.getChannel();
+      if (_clientChannel.pipeline().get(SslHandler.class) != null
+          && _clientChannel.pipeline().get(ChunkedWriteHandler.class) != null) {
+        // Chunked file closes the file once it's written
+        body = new ChunkedNioFile(fileChannel);
+      } else if (_clientChannel.pipeline().get(SslHandler.class) != null) {
+        // Mapping stays valid after file is closed
+        body = Unpooled.wrappedBuffer(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size()));
+        randomAccessFile.close();
+      } else {
+        // File region closes the file once it's written
+        body = new DefaultFileRegion(fileChannel, 0, fileChannel.size());
+      }
+    } catch (IOException e) {
+      IOUtils.closeQuietly(randomAccessFile);
+      encodedHead.release();
+      throw e;
+    }
+    writeEncoded(encodedHead, false);
+    return completeEncodedWrite(writeEncoded(body, true), keepAlive);
+  }
+
+  private ChannelFuture writeEncoded(Object encoded, boolean flush) {
+    ChannelHandlerContext encoderContext = _clientChannel.pipeline().context(HttpResponseEncoder.class);
+    // Writing from encoder's context passes the buffer on to handlers in front of encoder, i.e. ssl handler.
+    if (encoderContext != null) {
+      return flush ? encoderContext.writeAndFlush(encoded) : encoderContext.write(encoded);
+    }
+    return flush ? _clientChannel.writeAndFlush(encoded) : _clientChannel.write(encoded);
+  }
+
+  private ChannelFuture completeEncodedWrite(ChannelFuture future, boolean keepAlive) {
+    if (keepAlive) {
+      _proxyModeController = null;
+    } else {
+      future.addListener(f -> {
+        if (f.isSuccess()) {
+          disconnectBothChannels();
+        } else {
+          throw new IllegalStateException("Failed to write to client channel");
+        }
+      });
+    }
+    return future;
   }
 
   /**
@@ -101,6 +267,43 @@ public class ChannelMediator {
     });
   }
 
+  /**
+   * Write last content back to client and close client channel. Server channel is returned to the
+   * upstream channel pool if both request and response allow to keep the connection alive and the
+   * whole request has been written to server, otherwise both channels are closed.
+   * */
+  public void writeToClientAndReleaseServerChannel(HttpObject httpObject) {
+    if (_upstreamChannelPool == null || !_serverKeepAlive || !_requestComplete) {
+      writeToClientAndDisconnect(httpObject);
+      return;
+    }
+    // Once released, channel may be acquired by another mediator right away, so it has to be ready for the
+    // next exchange and not be touched here anymore: it must read again, and state of this exchange is reset.
+    Channel serverChannel = _serverChannel;
+    serverChannel.config().setAutoRead(true);
+    _serverChannel = null;
+    _serverKeepAlive = true;
+    _requestComplete = false;
+    if (!_upstreamChannelPool.release(_remoteAddress, _protocol, serverChannel)) {
+      _serverChannel = serverChannel;
+      writeToClientAndDisconnect(httpObject);
+      return;
+    }
+    _proxyModeController.handleWriteToClient(httpObject);
+    writeToChannel(_clientChannel, httpObject).addListener(future -> {
+      if (future.isSuccess()) {
+        disconnect(_clientChannel).addListener(clientFuture -> {
+          if (!clientFuture.isSuccess()) {
+            LOG.error(
+                String.format("Failed to close client channel %s because: %s", _clientChannel, clientFuture.cause()));
+          }
+        });
+      } else {
+        throw new IllegalStateException("Failed to write to client channel");
+      }
+    });
+  }
+
   /**
    * Disconnect both client to proxy and proxy to server channels
    * */
@@ -129,8 +332,19 @@ public class ChannelMediator {
     if (remoteAddress == null) {
       throw new IllegalStateException("remote address is null");
     }
+    _remoteAddress = remoteAddress;
+    if (_upstreamChannelPool != null) {
+      Channel pooledChannel = _upstreamChannelPool.acquire(remoteAddress, _protocol);
+      if (pooledChannel != null) {
+        pooledChannel.pipeline().replace(UpstreamChannelPool.HANDLER_NAME, UpstreamChannelPool.HANDLER_NAME,
+            new ServerChannelHandler(this));
+        _serverChannel = pooledChannel;
+        // Complete on client channel's event loop, so that the rest of connection flow doesn't race with client reads.
+        return _clientChannel.newSucceededFuture();
+      }
+    }
     Bootstrap bootstrap = new Bootstrap().group(_upstreamWorkerGroup);
-    bootstrap.channelFactory(NioSocketChannel::new);
+    bootstrap.channelFactory(_transport::newSocketChannel);
     ServerChannelHandler serverChannelHandler = new ServerChannelHandler(this);
 
     bootstrap.handler(new ChannelInitializer<Channel>() {
@@ -148,6 +362,12 @@ public class ChannelMediator {
    * Read data from client channel
    * */
   public void readFromClientChannel(HttpObject httpObject) {
+    if (_proxyModeController == null && httpObject instanceof HttpRequest) {
+      // Create controller the same way a new connection would: Https controllers are created from the
+      // CONNECT request which opened the tunnel, Http controllers from the request itself.
+      HttpRequest httpRequest = _protocol == Protocol.HTTPS ? _initialRequest : (HttpRequest) httpObject;
+      _proxyModeController = _proxyModeControllerFactory.create(httpRequest);
+    }
     _proxyModeController.handleReadFromClient(this, httpObject);
   }
 
@@ -164,6 +384,10 @@ public class ChannelMediator {
    * @param sslEngine provided by JDK with complicated ssl handshaking logic
    * */
   public Future<Channel> handshakeWithServer(SSLEngine sslEngine) {
+    if (_serverChannel != null && _serverChannel.pipeline().get(SslHandler.class) != null) {
+      // Reused server channel, handshake is already done.
+      return _clientChannel.eventLoop().newSucceededFuture(_serverChannel);
+    }
     return handshake(sslEngine, true, _serverChannel);
   }
 
@@ -192,6 +416,23 @@ public class ChannelMediator {
     return _clientChannel.newSucceededFuture();
   }
 
+  /**
+   * Stop reading from server channel while client channel's outbound buffer is above high water mark, so
+   * a fast server and a slow client don't make the response pile up in proxy memory. Reading is resumed by
+   * {@link #onClientChannelWritabilityChanged()}.
+   * */
+  private void stopReadingFromServerChannelIfClientIsBusy() {
+    Channel serverChannel = _serverChannel;
+    if (serverChannel == null || _clientChannel.isWritable()) {
+      return;
+    }
+    serverChannel.config().setAutoRead(false);
+    // Client channel is served by another event loop, it may have become writable before reading was stopped.
+    if (_clientChannel.isWritable()) {
+      serverChannel.config().setAutoRead(true);
+    }
+  }
+
   /**
    * Create {@link io.netty.handler.ssl.SslHandler} and send TCP handshaking using
    * {@link javax.net.ssl.SSLEngine}
@@ -217,7 +458,7 @@ public class ChannelMediator {
     pipeline.addLast("decoder", new HttpResponseDecoder());
     pipeline.addLast("encoder", new HttpRequestEncoder());
     pipeline.addLast("idle", new IdleStateHandler(0, 0, idleTimeoutMsec / 1000));
-    pipeline.addLast("handler", serverChannelHandler);
+    pipeline.addLast(UpstreamChannelPool.HANDLER_NAME, serverChannelHandler);
   }
 
   /**
@@ -65,6 +65,20 @@ public class ClientChannelHandler extends SimpleChannelInboundHandler<HttpObject
     super.channelRegistered(ctx);
   }
 
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx)
+      throws Exception {
+    _channelMediator.onClientChannelWritabilityChanged();
+    super.channelWritabilityChanged(ctx);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx)
+      throws Exception {
+    _channelMediator.onChannelInactive();
+    super.channelInactive(ctx);
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
       throws Exception {
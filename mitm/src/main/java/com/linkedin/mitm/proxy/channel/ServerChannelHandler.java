@@ -9,7 +9,9 @@ import com.linkedin.mitm.proxy.factory.ErrorResponseFactory;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
 import org.apache.log4j.Logger;
 
 /**
@@ -24,6 +26,7 @@ public class ServerChannelHandler extends SimpleChannelInboundHandler<HttpObject
   private static final Logger LOG = Logger.getLogger(MODULE);
 
   private final ChannelMediator _channelMediator;
+  private boolean _keepAlive;
 
   public ServerChannelHandler(ChannelMediator channelMediator) {
     _channelMediator = channelMediator;
@@ -33,8 +36,15 @@ public class ServerChannelHandler extends SimpleChannelInboundHandler<HttpObject
   protected void channelRead0(ChannelHandlerContext channelHandlerContext, HttpObject httpObject)
       throws Exception {
     _channelMediator.readFromServerChannel(httpObject);
+    if (httpObject instanceof HttpResponse) {
+      _keepAlive = HttpHeaders.isKeepAlive((HttpResponse) httpObject);
+    }
     if (httpObject instanceof DefaultLastHttpContent) {
-      _channelMediator.writeToClientAndDisconnect(httpObject);
+      if (_keepAlive) {
+        _channelMediator.writeToClientAndReleaseServerChannel(httpObject);
+      } else {
+        _channelMediator.writeToClientAndDisconnect(httpObject);
+      }
     } else {
       _channelMediator.writeToClient(httpObject);
     }
@@ -48,6 +58,13 @@ public class ServerChannelHandler extends SimpleChannelInboundHandler<HttpObject
     super.channelRegistered(ctx);
   }
 
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx)
+      throws Exception {
+    _channelMediator.onChannelInactive();
+    super.channelInactive(ctx);
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
       throws Exception {
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.mitm.proxy.channel;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.PlatformDependent;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.ThreadFactory;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Netty transports the proxy can run on. Event loop groups and channels must come from the same transport.
+ * EPOLL uses Linux native edge-triggered epoll and is only available on Linux, NIO works everywhere.
+ */
+public enum Transport {
+  NIO {
+    @Override
+    public boolean isAvailable() {
+      return true;
+    }
+
+    @Override
+    public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory, int ioRatio) {
+      NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup(threads, threadFactory, SelectorProvider.provider());
+      eventLoopGroup.setIoRatio(ioRatio);
+      return eventLoopGroup;
+    }
+
+    @Override
+    public ServerChannel newServerChannel() {
+      return new NioServerSocketChannel();
+    }
+
+    @Override
+    public Channel newSocketChannel() {
+      return new NioSocketChannel();
+    }
+  },
+
+  EPOLL {
+    @Override
+    public boolean isAvailable() {
+      // Native epoll transport of this netty version also relies on sun.misc.Unsafe for its buffers,
+      // which may not be accessible on newer JVMs even if the native library loads.
+      return Epoll.isAvailable() && PlatformDependent.hasUnsafe();
+    }
+
+    @Override
+    public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory, int ioRatio) {
+      EpollEventLoopGroup eventLoopGroup = new EpollEventLoopGroup(threads, threadFactory);
+      eventLoopGroup.setIoRatio(ioRatio);
+      return eventLoopGroup;
+    }
+
+    @Override
+    public ServerChannel newServerChannel() {
+      return new EpollServerSocketChannel();
+    }
+
+    @Override
+    public Channel newSocketChannel() {
+      return new EpollSocketChannel();
+    }
+  };
+
+  private static final String MODULE = Transport.class.getName();
+  private static final Logger LOG = Logger.getLogger(MODULE);
+
+  /**
+   * @return true if this transport can be used on current platform
+   * */
+  public abstract boolean isAvailable();
+
+  /**
+   * @param threads number of event loop threads
+   * @param threadFactory factory of event loop threads
+   * @param ioRatio percentage of time event loops spend on I/O rather than on tasks
+   * */
+  public abstract EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory, int ioRatio);
+
+  public abstract ServerChannel newServerChannel();
+
+  public abstract Channel newSocketChannel();
+
+  /**
+   * @return this transport if it's available, otherwise NIO
+   * */
+  public Transport resolve() {
+    if (isAvailable()) {
+      return this;
+    }
+    LOG.warn(String.format("%s transport is not available, falling back to NIO", name()));
+    return NIO;
+  }
+
+  /**
+   * @return EPOLL if it's available, otherwise NIO
+   * */
+  public static Transport bestAvailable() {
+    return EPOLL.isAvailable() ? EPOLL : NIO;
+  }
+
+  /**
+   * @return transport that channels registered with given event loop group must use
+   * */
+  public static Transport of(EventLoopGroup eventLoopGroup) {
+    if (eventLoopGroup instanceof EpollEventLoopGroup) {
+      return EPOLL;
+    }
+    if (eventLoopGroup instanceof NioEventLoopGroup) {
+      return NIO;
+    }
+    throw new IllegalArgumentException("Unsupported event loop group " + eventLoopGroup.getClass().getName());
+  }
+}
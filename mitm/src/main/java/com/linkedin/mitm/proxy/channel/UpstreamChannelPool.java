@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.mitm.proxy.channel;
+
+import com.linkedin.mitm.model.Protocol;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
+import java.net.InetSocketAddress;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Pool of idle proxy to server channels, keyed by host, port and protocol, so that consecutive
+ * requests to the same server don't pay a TCP connect (and TLS handshake for Https) every time.
+ *
+ * While a channel sits in the pool its "handler" is replaced by a handler owned by the pool, which
+ * evicts the channel if the server closes it, sends unexpected data or the channel stays idle for
+ * the server idle timeout. Channels are also checked to be active before being handed out.
+ * It's thread safe and shared by all {@link ChannelMediator}s of one proxy server.
+ */
+public class UpstreamChannelPool {
+  private static final String MODULE = UpstreamChannelPool.class.getName();
+  private static final Logger LOG = Logger.getLogger(MODULE);
+  static final String HANDLER_NAME = "handler";
+
+  private final int _maxIdleChannelsPerKey;
+  private final Map<Key, Deque<Channel>> _idleChannels = new ConcurrentHashMap<>();
+
+  /**
+   * @param maxIdleChannelsPerKey max number of idle channels kept for each host, port and protocol.
+   * */
+  public UpstreamChannelPool(int maxIdleChannelsPerKey) {
+    if (maxIdleChannelsPerKey <= 0) {
+      throw new IllegalArgumentException("max idle channels must be positive");
+    }
+    _maxIdleChannelsPerKey = maxIdleChannelsPerKey;
+  }
+
+  /**
+   * Take a healthy idle channel out of the pool. Caller owns the channel afterwards and is
+   * responsible for replacing the pool handler in its pipeline.
+   *
+   * @return idle channel connected to remote address or null if there is none
+   * */
+  public Channel acquire(InetSocketAddress remoteAddress, Protocol protocol) {
+    Deque<Channel> channels = _idleChannels.get(new Key(remoteAddress, protocol));
+    if (channels == null) {
+      return null;
+    }
+    Channel channel;
+    // Most recently released channel is the least likely one to be closed by server.
+    while ((channel = channels.pollFirst()) != null) {
+      if (channel.isActive()) {
+        LOG.debug("Reusing server channel " + channel);
+        return channel;
+      }
+      channel.close();
+    }
+    return null;
+  }
+
+  /**
+   * Return a channel, which has finished reading a complete response, back to the pool.
+   *
+   * @return true if channel is pooled, false if caller should close it instead.
+   * */
+  public boolean release(InetSocketAddress remoteAddress, Protocol protocol, Channel channel) {
+    if (channel == null || !channel.isActive()) {
+      return false;
+    }
+    Key key = new Key(remoteAddress, protocol);
+    Deque<Channel> channels = _idleChannels.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>());
+    if (channels.size() >= _maxIdleChannelsPerKey) {
+      return false;
+    }
+    channel.pipeline().replace(HANDLER_NAME, HANDLER_NAME, new IdleChannelHandler(channels));
+    channels.offerFirst(channel);
+    LOG.debug("Released server channel " + channel + " to pool");
+    return true;
+  }
+
+  /**
+   * Close all of idle channels
+   * */
+  public void close() {
+    for (Deque<Channel> channels : _idleChannels.values()) {
+      Channel channel;
+      while ((channel = channels.pollFirst()) != null) {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Handler of channels sitting in pool. Removing channel from its deque is how both pool and
+   * this handler claim the channel, so a channel which just got acquired is never closed here.
+   * */
+  private static class IdleChannelHandler extends ChannelInboundHandlerAdapter {
+    private final Deque<Channel> _channels;
+
+    IdleChannelHandler(Deque<Channel> channels) {
+      _channels = channels;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg)
+        throws Exception {
+      ReferenceCountUtil.release(msg);
+      LOG.debug("Evicting server channel that received unexpected data " + ctx.channel());
+      evict(ctx.channel());
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt)
+        throws Exception {
+      if (evt instanceof IdleStateEvent) {
+        LOG.debug("Evicting idle server channel " + ctx.channel());
+        evict(ctx.channel());
+      } else {
+        super.userEventTriggered(ctx, evt);
+      }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx)
+        throws Exception {
+      _channels.remove(ctx.channel());
+      super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+        throws Exception {
+      LOG.debug("Evicting server channel because of " + cause);
+      evict(ctx.channel());
+    }
+
+    private void evict(Channel channel) {
+      if (_channels.remove(channel)) {
+        channel.close();
+      }
+    }
+  }
+
+  private static final class Key {
+    private final String _host;
+    private final int _port;
+    private final Protocol _protocol;
+
+    Key(InetSocketAddress remoteAddress, Protocol protocol) {
+      // Compare host names rather than resolved addresses, different virtual hosts can share one IP.
+      _host = remoteAddress.getHostString();
+      _port = remoteAddress.getPort();
+      _protocol = protocol;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return _port == key._port && _host.equalsIgnoreCase(key._host) && _protocol == key._protocol;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(_host.toLowerCase(Locale.ROOT), _port, _protocol);
+    }
+  }
+}
@@ -7,24 +7,14 @@ package com.linkedin.mitm.proxy.connectionflow.steps;
 
 import com.linkedin.mitm.factory.CertificateKeyStoreFactory;
 import com.linkedin.mitm.model.CertificateAuthority;
+import com.linkedin.mitm.model.CertificateValidPeriod;
 import com.linkedin.mitm.proxy.channel.ChannelMediator;
-import com.linkedin.mitm.services.SSLContextGenerator;
+import com.linkedin.mitm.services.ClientSSLContextCache;
 import io.netty.util.concurrent.Future;
-import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.security.InvalidKeyException;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.SignatureException;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
-import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
 import javax.net.ssl.SSLContext;
 import org.apache.log4j.Logger;
-import org.bouncycastle.operator.OperatorCreationException;
 
 
 /**
@@ -35,13 +25,23 @@ import org.bouncycastle.operator.OperatorCreationException;
 public class HandshakeWithClient implements ConnectionFlowStep {
   private static final String MODULE = HandshakeWithClient.class.getName();
   private static final Logger LOG = Logger.getLogger(MODULE);
-  private final CertificateKeyStoreFactory _certificateKeyStoreFactory;
-  private final CertificateAuthority _certificateAuthority;
+  private final ClientSSLContextCache _clientSSLContextCache;
 
+  /**
+   * Handshake with SSLContexts cached by this step only. Identity certificates are assumed to be valid for the
+   * default {@link CertificateValidPeriod}, pass a cache of your own if certificate service uses another one.
+   * */
   public HandshakeWithClient(CertificateKeyStoreFactory certificateKeyStoreFactory,
       CertificateAuthority certificateAuthority) {
-    _certificateKeyStoreFactory = certificateKeyStoreFactory;
-    _certificateAuthority = certificateAuthority;
+    this(new ClientSSLContextCache(certificateKeyStoreFactory, certificateAuthority, new CertificateValidPeriod()));
+  }
+
+  /**
+   * @param clientSSLContextCache cache of SSLContexts with generated identity certificates, should be shared by
+   *                              all connections
+   * */
+  public HandshakeWithClient(ClientSSLContextCache clientSSLContextCache) {
+    _clientSSLContextCache = clientSSLContextCache;
   }
 
   @Override
@@ -50,14 +50,10 @@ public class HandshakeWithClient implements ConnectionFlowStep {
     //dynamically create SSLEngine based on CN and SANs
     LOG.debug("Starting client to proxy connection handshaking");
     try {
-      //TODO: if connect request only contains ip address, we need get either CA
-      //TODO: or SANS from server response
-      KeyStore keyStore = _certificateKeyStoreFactory.create(remoteAddress.getHostName(), new ArrayList<>());
-      SSLContext sslContext = SSLContextGenerator.createClientContext(keyStore, _certificateAuthority.getPassPhrase());
+      SSLContext sslContext = _clientSSLContextCache.get(remoteAddress.getHostName());
       return channelMediator.handshakeWithClient(sslContext.createSSLEngine());
-    } catch (NoSuchAlgorithmException | KeyStoreException | IOException | CertificateException | OperatorCreationException
-        | NoSuchProviderException | InvalidKeyException | SignatureException | KeyManagementException | UnrecoverableKeyException e) {
-      throw new RuntimeException("Failed to create server identity certificate", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Failed to create server identity certificate", e.getCause());
     }
   }
 }
@@ -53,4 +53,12 @@ public interface ProxyModeController {
   default HttpObject handleWriteToClient(HttpObject httpObject) {
     return httpObject;
   }
+
+  /**
+   * Called when client or server channel closes, which may be in the middle of an exchange, so anything
+   * held for an incomplete exchange can be released. It may be called more than once and from either
+   * channel's thread.
+   */
+  default void handleDisconnect() {
+  }
 }
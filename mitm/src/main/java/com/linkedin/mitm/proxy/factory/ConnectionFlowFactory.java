@@ -6,6 +6,7 @@
 package com.linkedin.mitm.proxy.factory;
 
 import com.linkedin.mitm.factory.CertificateKeyStoreFactory;
+import com.linkedin.mitm.factory.KeyPairFactory;
 import com.linkedin.mitm.factory.RSASha1KeyPairFactory;
 import com.linkedin.mitm.model.CertificateAuthority;
 import com.linkedin.mitm.model.CertificateValidPeriod;
@@ -16,6 +17,7 @@ import com.linkedin.mitm.proxy.connectionflow.steps.HandshakeWithClient;
 import com.linkedin.mitm.proxy.connectionflow.steps.HandshakeWithServer;
 import com.linkedin.mitm.proxy.connectionflow.steps.ResumeReadingFromClient;
 import com.linkedin.mitm.proxy.connectionflow.steps.StopReadingFromClient;
+import com.linkedin.mitm.services.ClientSSLContextCache;
 import com.linkedin.mitm.services.IdentityCertificateService;
 import com.linkedin.mitm.services.SSLContextGenerator;
 import com.linkedin.mitm.store.PKC12KeyStoreReadWriter;
@@ -43,8 +45,11 @@ import javax.net.ssl.SSLContext;
  * @author shfeng
  */
 public class ConnectionFlowFactory {
+  private static final int DEFAULT_RSA_KEY_SIZE = 1024;
+
   /**
-   * Create Https connection flow including client to proxy connection and proxy to server connection
+   * Create Https connection flow including client to proxy connection and proxy to server connection.
+   * Identity certificates use 1024-bit RSA keys generated as needed.
    *
    * @param rootCertificateInputStream input stream of root certificate
    * @param rootCertificatePassphrase  pass phrase of this root certificate
@@ -53,13 +58,30 @@ public class ConnectionFlowFactory {
    * */
   public static List<ConnectionFlowStep> createFullHttpsConnectionFlow(InputStream rootCertificateInputStream,
       String rootCertificatePassphrase, CertificateAuthority certificateAuthority) {
+    return createFullHttpsConnectionFlow(rootCertificateInputStream, rootCertificatePassphrase, certificateAuthority,
+        createDefaultKeyPairFactory());
+  }
+
+  /**
+   * Create Https connection flow including client to proxy connection and proxy to server connection
+   *
+   * @param rootCertificateInputStream input stream of root certificate
+   * @param rootCertificatePassphrase  pass phrase of this root certificate
+   * @param certificateAuthority description of certificate authority
+   * @param keyPairFactory factory of identity certificate key pairs,
+   *                       i.e. {@link com.linkedin.mitm.factory.ECKeyPairFactory}. A
+   *                       {@link com.linkedin.mitm.factory.PooledKeyPairFactory} is not closed by the flow.
+   * @return Connection flow
+   * */
+  public static List<ConnectionFlowStep> createFullHttpsConnectionFlow(InputStream rootCertificateInputStream,
+      String rootCertificatePassphrase, CertificateAuthority certificateAuthority, KeyPairFactory keyPairFactory) {
     try {
       PKC12KeyStoreReadWriter pkc12KeyStoreReadWriter = new PKC12KeyStoreReadWriter();
       KeyStore issuerKeyStore = pkc12KeyStoreReadWriter.load(rootCertificateInputStream, rootCertificatePassphrase);
       SSLContext serverSslContext = SSLContextGenerator.createDefaultServerContext();
       CertificateValidPeriod defaultPeriod = new CertificateValidPeriod();
       CertificateKeyStoreFactory certificateKeyStoreFactory =
-          new CertificateKeyStoreFactory(new RSASha1KeyPairFactory(1024),
+          new CertificateKeyStoreFactory(keyPairFactory,
               new IdentityCertificateService(certificateAuthority, defaultPeriod, issuerKeyStore));
       List<ConnectionFlowStep> connectionFlowSteps = new ArrayList<>();
       connectionFlowSteps.add(new StopReadingFromClient());
@@ -67,7 +89,8 @@ public class ConnectionFlowFactory {
       connectionFlowSteps.add(new HandshakeWithServer(serverSslContext));
       connectionFlowSteps.add(new AcceptTCPConnectionFromClient());
       connectionFlowSteps.add(new ResumeReadingFromClient());
-      connectionFlowSteps.add(new HandshakeWithClient(certificateKeyStoreFactory, certificateAuthority));
+      connectionFlowSteps.add(new HandshakeWithClient(
+          new ClientSSLContextCache(certificateKeyStoreFactory, certificateAuthority, defaultPeriod)));
       return Collections.unmodifiableList(connectionFlowSteps);
     } catch (CertificateException | NoSuchAlgorithmException | KeyStoreException | IOException | UnrecoverableKeyException | KeyManagementException e) {
       throw new RuntimeException("Failed to load root certificate from input stream", e);
@@ -86,7 +109,8 @@ public class ConnectionFlowFactory {
   }
 
   /**
-   * Create Https connection flow including client to proxy connection only
+   * Create Https connection flow including client to proxy connection only.
+   * Identity certificates use 1024-bit RSA keys generated as needed.
    *
    * @param rootCertificateInputStream input stream of root certificate
    * @param rootCertificatePassphrase  pass phrase of this root certificate
@@ -95,18 +119,36 @@ public class ConnectionFlowFactory {
    * */
   public static List<ConnectionFlowStep> createClientOnlyHttpsConnectionFlow(InputStream rootCertificateInputStream,
       String rootCertificatePassphrase, CertificateAuthority certificateAuthority) {
+    return createClientOnlyHttpsConnectionFlow(rootCertificateInputStream, rootCertificatePassphrase,
+        certificateAuthority, createDefaultKeyPairFactory());
+  }
+
+  /**
+   * Create Https connection flow including client to proxy connection only
+   *
+   * @param rootCertificateInputStream input stream of root certificate
+   * @param rootCertificatePassphrase  pass phrase of this root certificate
+   * @param certificateAuthority description of certificate authority
+   * @param keyPairFactory factory of identity certificate key pairs,
+   *                       i.e. {@link com.linkedin.mitm.factory.ECKeyPairFactory}. A
+   *                       {@link com.linkedin.mitm.factory.PooledKeyPairFactory} is not closed by the flow.
+   * @return Connection flow
+   * */
+  public static List<ConnectionFlowStep> createClientOnlyHttpsConnectionFlow(InputStream rootCertificateInputStream,
+      String rootCertificatePassphrase, CertificateAuthority certificateAuthority, KeyPairFactory keyPairFactory) {
     try {
       PKC12KeyStoreReadWriter pkc12KeyStoreReadWriter = new PKC12KeyStoreReadWriter();
       KeyStore issuerKeyStore = pkc12KeyStoreReadWriter.load(rootCertificateInputStream, rootCertificatePassphrase);
       CertificateValidPeriod defaultPeriod = new CertificateValidPeriod();
       CertificateKeyStoreFactory certificateKeyStoreFactory =
-          new CertificateKeyStoreFactory(new RSASha1KeyPairFactory(1024),
+          new CertificateKeyStoreFactory(keyPairFactory,
               new IdentityCertificateService(certificateAuthority, defaultPeriod, issuerKeyStore));
       List<ConnectionFlowStep> connectionFlowSteps = new ArrayList<>();
       connectionFlowSteps.add(new StopReadingFromClient());
       connectionFlowSteps.add(new AcceptTCPConnectionFromClient());
       connectionFlowSteps.add(new ResumeReadingFromClient());
-      connectionFlowSteps.add(new HandshakeWithClient(certificateKeyStoreFactory, certificateAuthority));
+      connectionFlowSteps.add(new HandshakeWithClient(
+          new ClientSSLContextCache(certificateKeyStoreFactory, certificateAuthority, defaultPeriod)));
       return Collections.unmodifiableList(connectionFlowSteps);
     } catch (CertificateException | NoSuchAlgorithmException | KeyStoreException | IOException | UnrecoverableKeyException e) {
       throw new RuntimeException("Failed to load root certificate from input stream", e);
@@ -121,6 +163,40 @@ public class ConnectionFlowFactory {
     return Collections.emptyList();
   }
 
+  /**
+   * Create Https connection flow including proxy to server connection only, for a client connection whose
+   * connection flow is already done. Client is not read from until the connection flow is done and
+   * request is written to server, caller must resume reading from client then.
+   * */
+  public static List<ConnectionFlowStep> createServerOnlyHttpsConnectionFlow() {
+    try {
+      SSLContext serverSslContext = SSLContextGenerator.createDefaultServerContext();
+      List<ConnectionFlowStep> connectionFlowSteps = new ArrayList<>();
+      connectionFlowSteps.add(new StopReadingFromClient());
+      connectionFlowSteps.add(new EstablishTCPConnectionToServer());
+      connectionFlowSteps.add(new HandshakeWithServer(serverSslContext));
+      return Collections.unmodifiableList(connectionFlowSteps);
+    } catch (NoSuchAlgorithmException | KeyManagementException | UnrecoverableKeyException | KeyStoreException e) {
+      throw new RuntimeException("Failed to create server SSL context", e);
+    }
+  }
+
+  /**
+   * Create Http connection flow including proxy to server connection only, for a client connection whose
+   * connection flow is already done. Client is not read from until the connection flow is done and
+   * request is written to server, caller must resume reading from client then.
+   * */
+  public static List<ConnectionFlowStep> createServerOnlyHttpConnectionFlow() {
+    List<ConnectionFlowStep> connectionFlowSteps = new ArrayList<>();
+    connectionFlowSteps.add(new StopReadingFromClient());
+    connectionFlowSteps.add(new EstablishTCPConnectionToServer());
+    return Collections.unmodifiableList(connectionFlowSteps);
+  }
+
+  private static KeyPairFactory createDefaultKeyPairFactory() {
+    return new RSASha1KeyPairFactory(DEFAULT_RSA_KEY_SIZE);
+  }
+
   private ConnectionFlowFactory() {
 
   }
@@ -31,12 +31,14 @@ public class HandlerDelegateFactory {
       ConnectionFlowProcessor httpsConnectionFlowProcessor =
           new ConnectionFlowProcessor(channelMediator, httpRequest, connectionFlow);
       channelMediator.initializeProxyModeController(httpRequest);
+      channelMediator.setProtocol(Protocol.HTTPS);
       return new HttpsChannelHandlerDelegate(channelMediator, httpsConnectionFlowProcessor);
     } else {
       List<ConnectionFlowStep> connectionFlow = connectionFlowRegistry.get(Protocol.HTTP);
       ConnectionFlowProcessor httpConnectionFlowProcessor =
           new ConnectionFlowProcessor(channelMediator, httpRequest, connectionFlow);
       channelMediator.initializeProxyModeController(httpRequest);
+      channelMediator.setProtocol(Protocol.HTTP);
       return new HttpChannelHandlerDelegate(channelMediator, httpConnectionFlowProcessor);
     }
   }
@@ -5,6 +5,7 @@
 
 package com.linkedin.mitm.services;
 
+import com.google.common.collect.ImmutableSet;
 import com.linkedin.mitm.model.CertificateAuthority;
 import com.linkedin.mitm.model.CertificateValidPeriod;
 import java.io.ByteArrayInputStream;
@@ -19,6 +20,7 @@ import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.Date;
+import java.util.Set;
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.x500.X500Name;
@@ -47,7 +49,10 @@ public abstract class AbstractX509CertificateService {
     Security.addProvider(new BouncyCastleProvider());
   }
 
-  private static final String SIGNATURE_ALGORITHM = "SHA1WithRSAEncryption";
+  private static final String RSA_SIGNATURE_ALGORITHM = "SHA1WithRSAEncryption";
+  private static final String EC_SIGNATURE_ALGORITHM = "SHA256WithECDSA";
+  // BouncyCastle names EC keys ECDSA, JDK names them EC
+  private static final Set<String> EC_KEY_ALGORITHMS = ImmutableSet.of("EC", "ECDSA");
 
   private final CertificateAuthority _certificateAuthority;
   private final CertificateValidPeriod _certificateValidPeriod;
@@ -85,16 +90,25 @@ public abstract class AbstractX509CertificateService {
     }
   }
 
+  /**
+   * Sign certificate. ECDSA (i.e. P-256) signing keys are signed with SHA256WithECDSA, any other key with
+   * SHA1WithRSAEncryption.
+   * @param privateKey key of the issuer to sign the certificate with
+   * */
   protected X509Certificate createCertificate(PrivateKey privateKey, X509v3CertificateBuilder x509v3CertificateBuilder)
       throws OperatorCreationException, CertificateException {
     ContentSigner contentSigner =
-        new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).setProvider(BouncyCastleProvider.PROVIDER_NAME)
+        new JcaContentSignerBuilder(getSignatureAlgorithm(privateKey)).setProvider(BouncyCastleProvider.PROVIDER_NAME)
             .build(privateKey);
     X509Certificate x509Certificate = new JcaX509CertificateConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME)
         .getCertificate(x509v3CertificateBuilder.build(contentSigner));
     return x509Certificate;
   }
 
+  protected String getSignatureAlgorithm(PrivateKey privateKey) {
+    return EC_KEY_ALGORITHMS.contains(privateKey.getAlgorithm()) ? EC_SIGNATURE_ALGORITHM : RSA_SIGNATURE_ALGORITHM;
+  }
+
   protected X500Name getSubject(String commonName) {
     X500NameBuilder x500NameBuilder = new X500NameBuilder(BCStyle.INSTANCE);
     x500NameBuilder.addRDN(BCStyle.CN, commonName);
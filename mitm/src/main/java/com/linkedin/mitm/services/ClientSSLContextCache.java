@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.mitm.services;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.linkedin.mitm.factory.CertificateKeyStoreFactory;
+import com.linkedin.mitm.model.CertificateAuthority;
+import com.linkedin.mitm.model.CertificateValidPeriod;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import javax.net.ssl.SSLContext;
+
+
+/**
+ * Bounded, concurrent cache of client side {@link javax.net.ssl.SSLContext}s, keyed by host name.
+ * Generating the identity certificate for a host means creating a key pair and signing a certificate,
+ * which only needs to happen once per host as long as the certificate is valid.
+ *
+ * Concurrent handshakes with the same host wait for a single certificate to be generated.
+ * Cached contexts are dropped once the identity certificate is no longer valid, and least recently used
+ * hosts are evicted when cache is full.
+ */
+public class ClientSSLContextCache {
+  public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+  private final CertificateKeyStoreFactory _certificateKeyStoreFactory;
+  private final CertificateAuthority _certificateAuthority;
+  private final CertificateValidPeriod _certificateValidPeriod;
+  private final LoadingCache<String, SSLContext> _cache;
+
+  /**
+   * @param certificateKeyStoreFactory factory that generates identity certificates
+   * @param certificateAuthority certificate authority, used for pass phrase
+   * @param certificateValidPeriod valid period of identity certificates the factory generates
+   * @param maximumSize maximum number of hosts to keep
+   * */
+  public ClientSSLContextCache(CertificateKeyStoreFactory certificateKeyStoreFactory,
+      CertificateAuthority certificateAuthority, CertificateValidPeriod certificateValidPeriod, int maximumSize) {
+    _certificateKeyStoreFactory = certificateKeyStoreFactory;
+    _certificateAuthority = certificateAuthority;
+    _certificateValidPeriod = certificateValidPeriod;
+    _cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build(new CacheLoader<String, SSLContext>() {
+      @Override
+      public SSLContext load(String hostName)
+          throws Exception {
+        return createSSLContext(hostName);
+      }
+    });
+  }
+
+  public ClientSSLContextCache(CertificateKeyStoreFactory certificateKeyStoreFactory,
+      CertificateAuthority certificateAuthority, CertificateValidPeriod certificateValidPeriod) {
+    this(certificateKeyStoreFactory, certificateAuthority, certificateValidPeriod, DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /**
+   * Get SSLContext that presents identity certificate of the host, generate it if needed
+   * @param hostName host name that client connects to
+   * @throws ExecutionException if generating identity certificate failed, with the failure as cause.
+   *                            Failures are not cached, next call for the host tries again.
+   * */
+  public SSLContext get(String hostName)
+      throws ExecutionException {
+    if (!isCertificateValid()) {
+      // Certificates generated now would not be valid either, don't hold on to them
+      _cache.invalidateAll();
+      return createUncachedSSLContext(hostName);
+    }
+    try {
+      return _cache.get(hostName);
+    } catch (UncheckedExecutionException e) {
+      throw new ExecutionException(e.getCause());
+    }
+  }
+
+  private boolean isCertificateValid() {
+    long now = System.currentTimeMillis();
+    return now >= _certificateValidPeriod.getStart().getTime() && now < _certificateValidPeriod.getEnd().getTime();
+  }
+
+  /**
+   * Create SSLContext without caching it, failures are reported the same way as cache loading failures
+   * */
+  private SSLContext createUncachedSSLContext(String hostName)
+      throws ExecutionException {
+    try {
+      return createSSLContext(hostName);
+    } catch (Exception e) {
+      throw new ExecutionException(e);
+    }
+  }
+
+  private SSLContext createSSLContext(String hostName)
+      throws Exception {
+    //TODO: if connect request only contains ip address, we need get either CA
+    //TODO: or SANS from server response
+    KeyStore keyStore = _certificateKeyStoreFactory.create(hostName, new ArrayList<>());
+    return SSLContextGenerator.createClientContext(keyStore, _certificateAuthority.getPassPhrase());
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.mitm.factory;
+
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class PooledKeyPairFactoryTest {
+
+  @Test(timeOut = 10000)
+  public void testHandOutPooledKeyPairs()
+      throws NoSuchAlgorithmException, InterruptedException {
+    CountingKeyPairFactory countingKeyPairFactory = new CountingKeyPairFactory();
+    try (PooledKeyPairFactory pooledKeyPairFactory = new PooledKeyPairFactory(countingKeyPairFactory, 2)) {
+      // Refill thread fills the pool and one more key pair waiting for room
+      while (countingKeyPairFactory._count.get() < 3) {
+        Thread.sleep(10);
+      }
+      Assert.assertNotNull(pooledKeyPairFactory.create());
+      Assert.assertNotNull(pooledKeyPairFactory.create());
+    }
+  }
+
+  @Test(timeOut = 10000)
+  public void testRefillThreadExitsOnClose()
+      throws NoSuchAlgorithmException {
+    CountingKeyPairFactory countingKeyPairFactory = new CountingKeyPairFactory();
+    PooledKeyPairFactory pooledKeyPairFactory = new PooledKeyPairFactory(countingKeyPairFactory, 2);
+    Assert.assertTrue(pooledKeyPairFactory.isRefilling());
+
+    pooledKeyPairFactory.close();
+    Assert.assertFalse(pooledKeyPairFactory.isRefilling());
+    int generated = countingKeyPairFactory._count.get();
+    // At most two pooled key pairs are handed out, callers generate the others
+    for (int i = 0; i < 4; i++) {
+      Assert.assertNotNull(pooledKeyPairFactory.create());
+    }
+    Assert.assertTrue(countingKeyPairFactory._count.get() >= generated + 2);
+    Assert.assertFalse(pooledKeyPairFactory.isRefilling());
+  }
+
+  private static class CountingKeyPairFactory implements KeyPairFactory {
+    private final AtomicInteger _count = new AtomicInteger();
+
+    @Override
+    public KeyPair create() {
+      _count.incrementAndGet();
+      return new KeyPair(null, null);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.mitm.proxy.channel;
+
+import com.linkedin.mitm.model.Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.timeout.IdleStateEvent;
+import java.net.InetSocketAddress;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class UpstreamChannelPoolTest {
+  private static final InetSocketAddress REMOTE_ADDRESS = InetSocketAddress.createUnresolved("www.example.org", 80);
+
+  @Test
+  public void testReuseIdleChannel() {
+    UpstreamChannelPool upstreamChannelPool = new UpstreamChannelPool(8);
+    EmbeddedChannel channel1 = createServerChannel();
+    EmbeddedChannel channel2 = createServerChannel();
+    Assert.assertNull(upstreamChannelPool.acquire(REMOTE_ADDRESS, Protocol.HTTP));
+
+    Assert.assertTrue(upstreamChannelPool.release(REMOTE_ADDRESS, Protocol.HTTP, channel1));
+    Assert.assertTrue(upstreamChannelPool.release(REMOTE_ADDRESS, Protocol.HTTP, channel2));
+    // Channels are only shared by the same host, port and protocol, host names compare case insensitively
+    Assert.assertNull(upstreamChannelPool.acquire(REMOTE_ADDRESS, Protocol.HTTPS));
+    Assert.assertNull(upstreamChannelPool.acquire(InetSocketAddress.createUnresolved("www.example.org", 8080),
+        Protocol.HTTP));
+    // Most recently released channel comes first
+    Assert.assertSame(
+        upstreamChannelPool.acquire(InetSocketAddress.createUnresolved("WWW.EXAMPLE.ORG", 80), Protocol.HTTP),
+        channel2);
+    Assert.assertSame(upstreamChannelPool.acquire(REMOTE_ADDRESS, Protocol.HTTP), channel1);
+    Assert.assertNull(upstreamChannelPool.acquire(REMOTE_ADDRESS, Protocol.HTTP));
+    Assert.assertTrue(channel1.isOpen());
+    Assert.assertTrue(channel2.isOpen());
+  }
+
+  @Test
+  public void testMaxIdleChannels() {
+    UpstreamChannelPool upstreamChannelPool = new UpstreamChannelPool(1);
+    EmbeddedChannel channel1 = createServerChannel();
+    EmbeddedChannel channel2 = createServerChannel();
+    Assert.assertTrue(upstreamChannelPool.release(REMOTE_ADDRESS, Protocol.HTTP, channel1));
+    Assert.assertFalse(upstreamChannelPool.release(REMOTE_ADDRESS, Protocol.HTTP, channel2));
+    // Other keys have room of their own
+    Assert.assertTrue(upstreamChannelPool.release(REMOTE_ADDRESS, Protocol.HTTPS, channel2));
+    Assert.assertSame(upstreamChannelPool.acquire(REMOTE_ADDRESS, Protocol.HTTP), channel1);
+    Assert.assertNull(upstreamChannelPool.acquire(REMOTE_ADDRESS, Protocol.HTTP));
+  }
+
+  @Test
+  public void testNotReleaseClosedChannel() {
+    UpstreamChannelPool upstreamChannelPool = new UpstreamChannelPool(8);
+    EmbeddedChannel channel = createServerChannel();
+    channel.close();
+    Assert.assertFalse(upstreamChannelPool.release(REMOTE_ADDRESS, Protocol.HTTP, channel));
+    Assert.assertFalse(upstreamChannelPool.release(REMOTE_ADDRESS, Protocol.HTTP, null));
+  }
+
+  @Test
+  public void testEvictOnClose() {
+    UpstreamChannelPool upstreamChannelPool = new UpstreamChannelPool(8);
+    EmbeddedChannel channel = createServerChannel();
+    Assert.assertTrue(upstreamChannelPool.release(REMOTE_ADDRESS, Protocol.HTTP, channel));
+    channel.close();
+    channel.runPendingTasks();
+    Assert.assertNull(upstreamChannelPool.acquire(REMOTE_ADDRESS, Protocol.HTTP));
+  }
+
+  @Test
+  public void testEvictOnIdleTimeout() {
+    UpstreamChannelPool upstreamChannelPool = new UpstreamChannelPool(8);
+    EmbeddedChannel channel = createServerChannel();
+    Assert.assertTrue(upstreamChannelPool.release(REMOTE_ADDRESS, Protocol.HTTP, channel));
+    channel.pipeline().fireUserEventTriggered(IdleStateEvent.ALL_IDLE_STATE_EVENT);
+    channel.runPendingTasks();
+    Assert.assertFalse(channel.isOpen());
+    Assert.assertNull(upstreamChannelPool.acquire(REMOTE_ADDRESS, Protocol.HTTP));
+  }
+
+  @Test
+  public void testEvictOnReadWhileIdle() {
+    UpstreamChannelPool upstreamChannelPool = new UpstreamChannelPool(8);
+    EmbeddedChannel channel = createServerChannel();
+    Assert.assertTrue(upstreamChannelPool.release(REMOTE_ADDRESS, Protocol.HTTP, channel));
+    ByteBuf unexpected = Unpooled.copiedBuffer(new byte[]{1, 2, 3});
+    channel.writeInbound(unexpected);
+    channel.runPendingTasks();
+    // Pool handler releases what it read instead of passing it on
+    Assert.assertEquals(unexpected.refCnt(), 0);
+    Assert.assertFalse(channel.isOpen());
+    Assert.assertNull(upstreamChannelPool.acquire(REMOTE_ADDRESS, Protocol.HTTP));
+  }
+
+  @Test
+  public void testClose() {
+    UpstreamChannelPool upstreamChannelPool = new UpstreamChannelPool(8);
+    EmbeddedChannel channel = createServerChannel();
+    Assert.assertTrue(upstreamChannelPool.release(REMOTE_ADDRESS, Protocol.HTTP, channel));
+    upstreamChannelPool.close();
+    channel.runPendingTasks();
+    Assert.assertFalse(channel.isOpen());
+    Assert.assertNull(upstreamChannelPool.acquire(REMOTE_ADDRESS, Protocol.HTTP));
+  }
+
+  /**
+   * Channel with a handler in place of server channel handler, which pool replaces while channel is idle
+   * */
+  private static EmbeddedChannel createServerChannel() {
+    EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    // Ahead of the handler that collects inbound messages of embedded channel
+    channel.pipeline().addFirst(UpstreamChannelPool.HANDLER_NAME, new ChannelInboundHandlerAdapter());
+    return channel;
+  }
+}
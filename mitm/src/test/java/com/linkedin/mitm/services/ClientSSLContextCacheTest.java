@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) LinkedIn Corporation. All rights reserved. Licensed under the BSD-2 Clause license.
+ * See LICENSE in the project root for license information.
+ */
+
+package com.linkedin.mitm.services;
+
+import com.linkedin.mitm.factory.CertificateKeyStoreFactory;
+import com.linkedin.mitm.model.CertificateAuthority;
+import com.linkedin.mitm.model.CertificateValidPeriod;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertificateException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLContext;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class ClientSSLContextCacheTest {
+  private static final CertificateAuthority CERTIFICATE_AUTHORITY =
+      new CertificateAuthority("alias", "passphrase".toCharArray(), "cn", "ou", "o", "l", "us");
+
+  @Test
+  public void testCachePerHost()
+      throws Exception {
+    CountingKeyStoreFactory keyStoreFactory = new CountingKeyStoreFactory();
+    ClientSSLContextCache cache =
+        new ClientSSLContextCache(keyStoreFactory, CERTIFICATE_AUTHORITY, new CertificateValidPeriod());
+
+    SSLContext sslContext = cache.get("www.example.org");
+    Assert.assertSame(cache.get("www.example.org"), sslContext);
+    Assert.assertEquals(keyStoreFactory._count.get(), 1);
+    Assert.assertNotSame(cache.get("www.example.com"), sslContext);
+    Assert.assertEquals(keyStoreFactory._count.get(), 2);
+  }
+
+  @Test
+  public void testInvalidateAllOnceCertificatesExpire()
+      throws Exception {
+    CountingKeyStoreFactory keyStoreFactory = new CountingKeyStoreFactory();
+    AdjustableValidPeriod validPeriod = new AdjustableValidPeriod();
+    ClientSSLContextCache cache = new ClientSSLContextCache(keyStoreFactory, CERTIFICATE_AUTHORITY, validPeriod);
+    SSLContext sslContext1 = cache.get("www.example.org");
+    SSLContext sslContext2 = cache.get("www.example.com");
+    Assert.assertEquals(keyStoreFactory._count.get(), 2);
+
+    // Expired certificates are generated for every handshake rather than cached
+    validPeriod._end = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+    Assert.assertNotSame(cache.get("www.example.org"), sslContext1);
+    Assert.assertNotSame(cache.get("www.example.org"), sslContext1);
+    Assert.assertEquals(keyStoreFactory._count.get(), 4);
+
+    // Contexts cached before expiry of any host are gone
+    validPeriod._end = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+    Assert.assertNotSame(cache.get("www.example.com"), sslContext2);
+    Assert.assertEquals(keyStoreFactory._count.get(), 5);
+  }
+
+  @Test
+  public void testPropagateLoaderFailure()
+      throws Exception {
+    CountingKeyStoreFactory keyStoreFactory = new CountingKeyStoreFactory();
+    keyStoreFactory._failure = new KeyStoreException("failed");
+    AdjustableValidPeriod validPeriod = new AdjustableValidPeriod();
+    ClientSSLContextCache cache = new ClientSSLContextCache(keyStoreFactory, CERTIFICATE_AUTHORITY, validPeriod);
+    assertFailure(cache, keyStoreFactory._failure);
+    // Runtime failures are reported the same way
+    keyStoreFactory._failure = new IllegalStateException("failed");
+    assertFailure(cache, keyStoreFactory._failure);
+    // Including ones of uncached contexts
+    validPeriod._end = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+    assertFailure(cache, keyStoreFactory._failure);
+
+    // Failures are not cached
+    keyStoreFactory._failure = null;
+    validPeriod._end = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+    Assert.assertNotNull(cache.get("www.example.org"));
+    Assert.assertEquals(keyStoreFactory._count.get(), 4);
+  }
+
+  private static void assertFailure(ClientSSLContextCache cache, Exception failure) {
+    try {
+      cache.get("www.example.org");
+      Assert.fail("Expected ExecutionException");
+    } catch (ExecutionException e) {
+      Assert.assertSame(e.getCause(), failure);
+    }
+  }
+
+  /**
+   * Creates empty key stores, which are enough to build SSLContexts from, or fails as told
+   * */
+  private static class CountingKeyStoreFactory extends CertificateKeyStoreFactory {
+    private final AtomicInteger _count = new AtomicInteger();
+    private volatile Exception _failure;
+
+    CountingKeyStoreFactory()
+        throws UnrecoverableKeyException, NoSuchAlgorithmException, KeyStoreException {
+      super(null, null);
+    }
+
+    @Override
+    public KeyStore create(String commonName, List<ASN1Encodable> sans)
+        throws NoSuchAlgorithmException, KeyStoreException, IOException, CertificateException {
+      _count.incrementAndGet();
+      Exception failure = _failure;
+      if (failure instanceof KeyStoreException) {
+        throw (KeyStoreException) failure;
+      } else if (failure != null) {
+        throw (RuntimeException) failure;
+      }
+      KeyStore keyStore = KeyStore.getInstance("PKCS12");
+      keyStore.load(null, null);
+      return keyStore;
+    }
+  }
+
+  private static class AdjustableValidPeriod extends CertificateValidPeriod {
+    private volatile Date _end = super.getEnd();
+
+    @Override
+    public Date getEnd() {
+      return _end;
+    }
+  }
+}